@@ -0,0 +1,60 @@
+package org.phial.zkclient;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the number of children of a node current through a child watch, so {@link #getCount()} is answered locally.
+ *
+ * ZooKeeper can only set a child watch by listing the children, so each change of the children transfers their names
+ * once. For nodes which change more often than they are counted use {@link ZkClient#countChildren(String)} instead.
+ */
+public final class ChildCountWatcher implements IZkChildListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChildCountWatcher.class);
+
+    private final ZkClient _zkClient;
+    private final String _path;
+    private final Object _countLock = new Object();
+    private int _count;
+    private boolean _changed;
+
+    public ChildCountWatcher(ZkClient zkClient, String path) {
+        _zkClient = zkClient;
+        _path = path;
+    }
+
+    public void start() {
+        List<String> children = _zkClient.subscribeChildChanges(_path, this);
+        synchronized (_countLock) {
+            // a change delivered in the meantime is more recent
+            if (!_changed) {
+                _count = children == null ? 0 : children.size();
+            }
+        }
+        LOG.debug("Started ChildCountWatcher for " + _path);
+    }
+
+    public void stop() {
+        _zkClient.unsubscribeChildChanges(_path, this);
+    }
+
+    @Override
+    public void handleChildChange(String parentPath, List<String> currentChilds) {
+        synchronized (_countLock) {
+            _changed = true;
+            _count = currentChilds == null ? 0 : currentChilds.size();
+        }
+    }
+
+    /**
+     * @return the number of children or 0 if the node does not exist.
+     */
+    public int getCount() {
+        synchronized (_countLock) {
+            return _count;
+        }
+    }
+}
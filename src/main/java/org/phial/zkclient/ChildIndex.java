@@ -0,0 +1,171 @@
+package org.phial.zkclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sorted, watch refreshed index of the children of a node, for nodes too wide to list on every access.
+ *
+ * The index holds one sorted array of the child names which is replaced on each child change. Consumers read it in
+ * pages ({@link #page(String, String, int)}, {@link #pages(String, int)}) or through an iterator over a snapshot, so a
+ * consumer only ever holds one page instead of a list of all children. A prefix restricts the children to those
+ * starting with it, e.g. "element-".
+ */
+public final class ChildIndex implements IZkChildListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChildIndex.class);
+
+    private static final String[] EMPTY = new String[0];
+
+    private final ZkClient _zkClient;
+    private final String _path;
+    private final Object _childrenLock = new Object();
+    private volatile String[] _children = EMPTY;
+    private boolean _changed;
+
+    public ChildIndex(ZkClient zkClient, String path) {
+        _zkClient = zkClient;
+        _path = path;
+    }
+
+    public void start() {
+        List<String> children = _zkClient.subscribeChildChanges(_path, this);
+        String[] sorted = sort(children);
+        synchronized (_childrenLock) {
+            // a change delivered in the meantime is more recent
+            if (!_changed) {
+                _children = sorted;
+            }
+        }
+        LOG.debug("Started ChildIndex for " + _path);
+    }
+
+    public void stop() {
+        _zkClient.unsubscribeChildChanges(_path, this);
+    }
+
+    @Override
+    public void handleChildChange(String parentPath, List<String> currentChilds) {
+        String[] sorted = sort(currentChilds);
+        synchronized (_childrenLock) {
+            _changed = true;
+            _children = sorted;
+        }
+    }
+
+    private static String[] sort(List<String> children) {
+        if (children == null || children.isEmpty()) {
+            return EMPTY;
+        }
+        String[] sorted = children.toArray(new String[children.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return the number of children, 0 if the node does not exist.
+     */
+    public int size() {
+        return _children.length;
+    }
+
+    /**
+     * Returns the next page of the children starting with the prefix, in sorted order. Since it continues after a child
+     * name instead of an offset, paging is not disturbed by children added or removed in the meantime.
+     *
+     * @param prefix
+     *            the prefix of the children, null or empty for all children
+     * @param after
+     *            the last child of the previous page or null for the first page
+     * @param pageSize
+     *            the maximum number of children returned
+     * @return the page, empty after the last page
+     */
+    public List<String> page(String prefix, String after, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        String[] children = _children;
+        int index = start(children, prefix, after);
+        List<String> page = new ArrayList<String>(Math.min(pageSize, children.length - index));
+        while (index < children.length && page.size() < pageSize && matches(children[index], prefix)) {
+            page.add(children[index++]);
+        }
+        return page;
+    }
+
+    /**
+     * @return the pages of the children starting with the prefix, see {@link #page(String, String, int)}
+     */
+    public Iterator<List<String>> pages(final String prefix, final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        return new Iterator<List<String>>() {
+            private List<String> _next = page(prefix, null, pageSize);
+
+            @Override
+            public boolean hasNext() {
+                return !_next.isEmpty();
+            }
+
+            @Override
+            public List<String> next() {
+                if (_next.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                List<String> page = _next;
+                _next = page.size() < pageSize ? Collections.<String> emptyList() : page(prefix, page.get(page.size() - 1), pageSize);
+                return page;
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over the children starting with the prefix as they are at the time of the call
+     */
+    public Iterator<String> iterator(final String prefix) {
+        final String[] children = _children;
+        return new Iterator<String>() {
+            private int _index = start(children, prefix, null);
+
+            @Override
+            public boolean hasNext() {
+                return _index < children.length && matches(children[_index], prefix);
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return children[_index++];
+            }
+        };
+    }
+
+    private static int start(String[] children, String prefix, String after) {
+        String from = prefix == null ? "" : prefix;
+        boolean exclusive = false;
+        if (after != null && after.compareTo(from) >= 0) {
+            from = after;
+            exclusive = true;
+        }
+        int index = Arrays.binarySearch(children, from);
+        if (index < 0) {
+            return -index - 1;
+        }
+        return exclusive ? index + 1 : index;
+    }
+
+    private static boolean matches(String child, String prefix) {
+        return prefix == null || child.startsWith(prefix);
+    }
+}
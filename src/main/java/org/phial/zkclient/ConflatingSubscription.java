@@ -0,0 +1,134 @@
+package org.phial.zkclient;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Subscription} which buffers only the latest state of a node: a change arriving while the subscriber has no
+ * outstanding demand replaces the one not delivered yet. The signals to the subscriber are serialized by a drain loop,
+ * they run on the thread which offered a state or requested more.
+ */
+abstract class ConflatingSubscription<T> implements Subscription {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConflatingSubscription.class);
+
+    protected final ZkClient _zkClient;
+    protected final String _path;
+    private final Subscriber<? super ZkNodeState<T>> _subscriber;
+    private final AtomicReference<ZkNodeState<T>> _latest = new AtomicReference<ZkNodeState<T>>();
+    private final AtomicLong _requested = new AtomicLong();
+    private final AtomicInteger _wip = new AtomicInteger();
+    private final AtomicBoolean _changed = new AtomicBoolean();
+    private volatile Throwable _error;
+    private volatile boolean _cancelled;
+
+    ConflatingSubscription(ZkClient zkClient, String path, Subscriber<? super ZkNodeState<T>> subscriber) {
+        _zkClient = zkClient;
+        _path = path;
+        _subscriber = subscriber;
+    }
+
+    /**
+     * Subscribes the listener at the client and returns the current state of the node.
+     */
+    protected abstract ZkNodeState<T> subscribe();
+
+    protected abstract void unsubscribe();
+
+    void start() {
+        _subscriber.onSubscribe(this);
+        if (_cancelled) {
+            return;
+        }
+        ZkNodeState<T> initial;
+        try {
+            initial = subscribe();
+        } catch (RuntimeException e) {
+            unsubscribe();
+            _error = e;
+            drain();
+            return;
+        }
+        if (_cancelled) {
+            // cancelled concurrently, the listener may have been added after cancel() removed it
+            unsubscribe();
+            return;
+        }
+        // a change delivered in the meantime is more recent
+        if (_changed.compareAndSet(false, true)) {
+            _latest.set(initial);
+            drain();
+        }
+    }
+
+    protected void offer(ZkNodeState<T> state) {
+        _changed.set(true);
+        _latest.set(state);
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            _error = new IllegalArgumentException("non-positive request: " + n);
+        } else {
+            long current;
+            long next;
+            do {
+                current = _requested.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!_requested.compareAndSet(current, next));
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        if (!_cancelled) {
+            _cancelled = true;
+            _latest.set(null);
+            unsubscribe();
+        }
+    }
+
+    private void drain() {
+        if (_wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (_cancelled) {
+                return;
+            }
+            Throwable error = _error;
+            if (error != null) {
+                cancel();
+                _subscriber.onError(error);
+                return;
+            }
+            if (_requested.get() > 0) {
+                ZkNodeState<T> state = _latest.getAndSet(null);
+                if (state != null) {
+                    if (_requested.get() != Long.MAX_VALUE) {
+                        _requested.decrementAndGet();
+                    }
+                    try {
+                        _subscriber.onNext(state);
+                    } catch (RuntimeException e) {
+                        LOG.error("Subscriber of " + _path + " failed, cancelling its subscription", e);
+                        cancel();
+                        return;
+                    }
+                }
+            }
+            missed = _wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -1,32 +1,89 @@
-
 package org.phial.zkclient;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
+import org.apache.zookeeper.data.Stat;
 import org.phial.zkclient.exception.ZkNoNodeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Keeps the content of a node current. Each change replaces an immutable {@link Snapshot}, so once the content is
+ * available reading it is a single volatile read without locking.
+ *
  * @param <T>
  *            The data type that is being watched.
  */
-public final class ContentWatcher<T extends Object> implements IZkDataListener {
+public final class ContentWatcher<T extends Object> implements IZkDataStatListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(ContentWatcher.class);
 
+    // taken to update the content and by threads waiting for it, not by readers of available content
     private Lock _contentLock = new ReentrantLock(true);
     private Condition _contentAvailable = _contentLock.newCondition();
 
-    private Holder<T> _content;
+    private volatile Snapshot<T> _snapshot;
     private String _fileName;
     private ZkClient _zkClient;
+    private final Function<Object, ? extends T> _transform;
+
+    /**
+     * The content of a node at one modification.
+     */
+    public static final class Snapshot<T> {
+
+        private final T _data;
+        private final int _version;
+        private final long _mzxid;
+
+        Snapshot(T data, int version, long mzxid) {
+            _data = data;
+            _version = version;
+            _mzxid = mzxid;
+        }
+
+        public T getData() {
+            return _data;
+        }
+
+        /**
+         * @return the data version of the node, -1 for content {@link ContentWatcher#setContent(Object) set} directly
+         */
+        public int getVersion() {
+            return _version;
+        }
+
+        /**
+         * @return the id of the transaction which modified the node last, it also increases if the node was deleted
+         *         and created again. -1 for content set directly.
+         */
+        public long getMzxid() {
+            return _mzxid;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot[version=" + _version + ", mzxid=" + _mzxid + ", data=" + _data + "]";
+        }
+    }
 
     public ContentWatcher(ZkClient zkClient, String fileName) {
+        this(zkClient, fileName, null);
+    }
+
+    /**
+     * @param transform
+     *            converts the data of the node once per change, e.g. parses it, so readers get the converted value. If
+     *            it fails the previous content is kept.
+     */
+    public ContentWatcher(ZkClient zkClient, String fileName, Function<Object, ? extends T> transform) {
         _fileName = fileName;
         _zkClient = zkClient;
+        _transform = transform;
     }
 
     public void start() {
@@ -35,10 +92,12 @@ public final class ContentWatcher<T extends Object> implements IZkDataListener {
         LOG.debug("Started ContentWatcher");
     }
 
-    @SuppressWarnings("unchecked")
     private void readData() {
         try {
-            setContent(_zkClient.readData(_fileName));
+            Stat stat = new Stat();
+            Object data = _zkClient.readData(_fileName, stat);
+            // a change delivered in the meantime has a higher mzxid and is kept
+            update(data, stat);
         } catch (ZkNoNodeException e) {
             // ignore if the node has not yet been created
         }
@@ -49,20 +108,51 @@ public final class ContentWatcher<T extends Object> implements IZkDataListener {
     }
 
     public void setContent(T data) {
-        LOG.debug("Received new data: " + data);
+        LOG.debug("Received new data: {}", data);
+        publish(new Snapshot<T>(data, -1, -1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void update(Object data, Stat stat) {
+        _contentLock.lock();
+        try {
+            Snapshot<T> current = _snapshot;
+            if (current != null && current._mzxid >= 0 && stat.getMzxid() <= current._mzxid) {
+                return;
+            }
+            T content;
+            try {
+                content = _transform != null ? _transform.apply(data) : (T) data;
+            } catch (RuntimeException e) {
+                LOG.error("Failed to transform data of " + _fileName + " at version " + stat.getVersion() + ", keeping the previous content", e);
+                return;
+            }
+            LOG.debug("Received new data: {}", content);
+            publish(new Snapshot<T>(content, stat.getVersion(), stat.getMzxid()));
+        } finally {
+            _contentLock.unlock();
+        }
+    }
+
+    private void publish(Snapshot<T> snapshot) {
         _contentLock.lock();
         try {
-            _content = new Holder<>(data);
+            _snapshot = snapshot;
             _contentAvailable.signalAll();
         } finally {
             _contentLock.unlock();
         }
     }
 
+    @Override
+    public void handleDataChange(String dataPath, Object data, Stat stat) {
+        update(data, stat);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void handleDataChange(String dataPath, Object data) {
-        setContent((T) data);
+        setContent(_transform != null ? _transform.apply(data) : (T) data);
     }
 
     @Override
@@ -70,13 +160,55 @@ public final class ContentWatcher<T extends Object> implements IZkDataListener {
         // ignore
     }
 
+    /**
+     * Waits until the content is available.
+     */
     public T getContent() throws InterruptedException {
+        Snapshot<T> snapshot = _snapshot;
+        if (snapshot != null) {
+            return snapshot.getData();
+        }
         _contentLock.lock();
         try {
-            while (_content == null) {
+            while ((snapshot = _snapshot) == null) {
                 _contentAvailable.await();
             }
-            return _content.get();
+            return snapshot.getData();
+        } finally {
+            _contentLock.unlock();
+        }
+    }
+
+    /**
+     * @return the current content or null if it is not available yet, does not wait
+     */
+    public Snapshot<T> getSnapshot() {
+        return _snapshot;
+    }
+
+    /**
+     * Waits for content newer than a snapshot read before.
+     *
+     * @param previous
+     *            the snapshot read before, null to wait for any content
+     * @return the newer snapshot or null if there was none within the time
+     */
+    public Snapshot<T> awaitNewerThan(Snapshot<T> previous, long time, TimeUnit unit) throws InterruptedException {
+        Snapshot<T> snapshot = _snapshot;
+        if (snapshot != null && snapshot != previous) {
+            return snapshot;
+        }
+        long nanos = unit.toNanos(time);
+        _contentLock.lock();
+        try {
+            // snapshots only replace older ones, so any other snapshot is newer
+            while ((snapshot = _snapshot) == null || snapshot == previous) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = _contentAvailable.awaitNanos(nanos);
+            }
+            return snapshot;
         } finally {
             _contentLock.unlock();
         }
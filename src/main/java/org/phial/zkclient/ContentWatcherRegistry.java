@@ -0,0 +1,218 @@
+package org.phial.zkclient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+import org.phial.zkclient.exception.ZkInterruptedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares one {@link ContentWatcher} per path between all consumers of a {@link ZkClient}, so a change of the path is
+ * watched, read and converted once no matter how many consumers read it. Get it by
+ * {@link ZkClient#getContentWatchers()}.
+ *
+ * The watchers are reference counted: the first {@link #acquire(String)} of a path starts its watcher and the last
+ * {@link #release(String)} stops it. Consumers must not stop a shared watcher themselves.
+ *
+ * The consumers of a path share its content, so they have to ask for it the same way: with the same type or the same
+ * transform instance. Asking for it differently fails on acquisition.
+ */
+public final class ContentWatcherRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentWatcherRegistry.class);
+
+    private final ZkClient _zkClient;
+    // guarded by itself, only held to look up and count, never while talking to the server
+    private final Map<String, SharedWatcher> _watchers = new HashMap<String, SharedWatcher>();
+
+    private static final class SharedWatcher {
+
+        private final ContentWatcher<?> _watcher;
+        private final Function<Object, ?> _transform;
+        // counted down once the first acquisition started the watcher
+        private final CountDownLatch _started = new CountDownLatch(1);
+        private volatile RuntimeException _startFailure;
+        private int _references;
+
+        SharedWatcher(ContentWatcher<?> watcher, Function<Object, ?> transform) {
+            _watcher = watcher;
+            _transform = transform;
+        }
+    }
+
+    /**
+     * Passes content of a type, so the content of a path is converted once for all consumers asking for the type.
+     */
+    private static final class TypeCheck<T> implements Function<Object, T> {
+
+        private final Class<T> _type;
+
+        TypeCheck(Class<T> type) {
+            _type = type;
+        }
+
+        @Override
+        public T apply(Object data) {
+            if (data != null && !_type.isInstance(data)) {
+                throw new ClassCastException("Content of type " + data.getClass().getName() + " is not a " + _type.getName());
+            }
+            return _type.cast(data);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof TypeCheck && ((TypeCheck<?>) obj)._type == _type;
+        }
+
+        @Override
+        public int hashCode() {
+            return _type.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "type " + _type.getName();
+        }
+    }
+
+    ContentWatcherRegistry(ZkClient zkClient) {
+        _zkClient = zkClient;
+    }
+
+    /**
+     * @return the watcher of the path with the content as the serializer returns it, see
+     *         {@link #acquire(String, Class)}
+     */
+    public ContentWatcher<Object> acquire(String path) {
+        return acquire(path, Object.class);
+    }
+
+    /**
+     * @return the watcher of the path, started with the first acquisition. Each call has to be followed by a
+     *         {@link #release(String)} once the consumer no longer reads the content. Content not of the type is not
+     *         taken, the previous content is kept.
+     * @throws IllegalArgumentException
+     *             if the path is acquired for another type or with a transform
+     */
+    public <T> ContentWatcher<T> acquire(String path, Class<T> type) {
+        return acquireShared(path, new TypeCheck<T>(type));
+    }
+
+    /**
+     * @param transform
+     *            converts the data of the node once per change for all consumers, see
+     *            {@link ContentWatcher#ContentWatcher(ZkClient, String, Function)}
+     * @return the watcher of the path, started with the first acquisition. Each call has to be followed by a
+     *         {@link #release(String)} once the consumer no longer reads the content.
+     * @throws IllegalArgumentException
+     *             if the path is acquired with another transform or for a type
+     */
+    public <T> ContentWatcher<T> acquire(String path, Function<Object, ? extends T> transform) {
+        if (transform == null) {
+            throw new NullPointerException("transform must not be null");
+        }
+        return acquireShared(path, transform);
+    }
+
+    /**
+     * Reserves the watcher under the lock and starts it outside of it, starting takes server round trips. Concurrent
+     * acquisitions of the path wait until it is started.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> ContentWatcher<T> acquireShared(String path, Function<Object, ? extends T> transform) {
+        SharedWatcher shared;
+        boolean start = false;
+        synchronized (_watchers) {
+            shared = _watchers.get(path);
+            if (shared == null) {
+                shared = new SharedWatcher(new ContentWatcher<T>(_zkClient, path, transform), transform);
+                _watchers.put(path, shared);
+                start = true;
+            } else if (!shared._transform.equals(transform)) {
+                throw new IllegalArgumentException("ContentWatcher for " + path + " is shared with " + shared._transform + ", not " + transform);
+            }
+            shared._references++;
+        }
+        if (start) {
+            start(path, shared);
+        } else {
+            awaitStarted(path, shared);
+        }
+        // the transform of the watcher equals the one asked for, so it returns the type asked for
+        return (ContentWatcher<T>) shared._watcher;
+    }
+
+    private void start(String path, SharedWatcher shared) {
+        try {
+            shared._watcher.start();
+            LOG.debug("Started shared ContentWatcher for " + path);
+        } catch (RuntimeException e) {
+            shared._startFailure = e;
+            synchronized (_watchers) {
+                // the acquisitions waiting for it fail as well, none of them is to be released
+                if (_watchers.get(path) == shared) {
+                    _watchers.remove(path);
+                }
+            }
+            throw e;
+        } finally {
+            shared._started.countDown();
+        }
+    }
+
+    private void awaitStarted(String path, SharedWatcher shared) {
+        try {
+            shared._started.await();
+        } catch (InterruptedException e) {
+            release(path, shared);
+            throw new ZkInterruptedException(e);
+        }
+        RuntimeException failure = shared._startFailure;
+        if (failure != null) {
+            throw new IllegalStateException("Failed to start ContentWatcher for " + path, failure);
+        }
+    }
+
+    /**
+     * Releases one acquisition of the path, the watcher is stopped when none is left.
+     *
+     * @throws IllegalStateException
+     *             if the path is not acquired
+     */
+    public void release(String path) {
+        SharedWatcher shared;
+        synchronized (_watchers) {
+            shared = _watchers.get(path);
+            if (shared == null) {
+                throw new IllegalStateException("ContentWatcher for " + path + " is not acquired");
+            }
+        }
+        release(path, shared);
+    }
+
+    private void release(String path, SharedWatcher shared) {
+        synchronized (_watchers) {
+            // gone already if it failed to start
+            if (--shared._references > 0 || _watchers.get(path) != shared) {
+                return;
+            }
+            _watchers.remove(path);
+        }
+        // a new acquisition of the path starts a watcher of its own in the meantime
+        shared._watcher.stop();
+        LOG.debug("Stopped shared ContentWatcher for " + path);
+    }
+
+    /**
+     * @return the number of acquisitions of the path not released yet
+     */
+    public int getReferences(String path) {
+        synchronized (_watchers) {
+            SharedWatcher shared = _watchers.get(path);
+            return shared != null ? shared._references : 0;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package org.phial.zkclient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps ephemeral nodes registered across sessions. When a session expires ZooKeeper deletes its ephemeral nodes,
+ * instead of creating them again one by one in {@link IZkStateListener#handleNewSession()} the manager creates all
+ * registered nodes in pipelined {@link ZkClient#multi(Iterable)} batches, so thousands of nodes cost a few round trips.
+ *
+ * A node which exists already is checked by its {@link Stat#getEphemeralOwner()}: a node of the current session is
+ * kept, a node left by a previous session of this manager is replaced and a node of another session is created as soon
+ * as that session deleted it.
+ *
+ * The nodes are re-created after {@link #start()}, the time it took is available by
+ * {@link #getLastReregistrationMillis()}.
+ */
+public class EphemeralNodeManager implements IZkStateListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EphemeralNodeManager.class);
+
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final ZkClient _zkClient;
+    private final List<ACL> _acl;
+    private final int _batchSize;
+    private final int _maxInFlight;
+
+    // guards the state below, never held during a request: the nodes are created on a snapshot of _nodes
+    private final ReentrantLock _lock = new ReentrantLock();
+    // the data of each registered node, guarded by _lock
+    private final Map<String, byte[]> _nodes = new LinkedHashMap<String, byte[]>();
+    // the sessions the nodes were created with before, guarded by _lock
+    private final Set<Long> _previousSessions = new HashSet<Long>();
+    private long _sessionId;
+    // the nodes another session owns, guarded by _lock
+    private final Set<String> _conflicts = new HashSet<String>();
+    private volatile long _lastReregistrationMillis = -1;
+
+    private final IZkDataListener _conflictListener = new IZkDataListener() {
+
+        @Override
+        public void handleDataChange(String dataPath, Object data) {
+            // the other session still owns it
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) {
+            Map<String, byte[]> nodes;
+            _lock.lock();
+            try {
+                if (!_conflicts.contains(dataPath)) {
+                    return;
+                }
+                nodes = snapshot(Collections.singletonList(dataPath));
+            } finally {
+                _lock.unlock();
+            }
+            LOG.debug("Ephemeral node " + dataPath + " of another session was deleted, creating it");
+            createNodes(nodes);
+        }
+    };
+
+    /**
+     * The requests creating one set of nodes, the data they are created with and the nodes found owned by other
+     * sessions.
+     */
+    private static final class Registration {
+
+        private final ZkPipeline _pipeline;
+        private final Map<String, byte[]> _nodes;
+        private final Set<String> _conflicts = new LinkedHashSet<String>();
+
+        Registration(ZkPipeline pipeline, Map<String, byte[]> nodes) {
+            _pipeline = pipeline;
+            _nodes = nodes;
+        }
+    }
+
+    public EphemeralNodeManager(ZkClient zkClient) {
+        this(zkClient, ZooDefs.Ids.OPEN_ACL_UNSAFE, ZkClient.DEFAULT_BATCH_SIZE, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param acl
+     *            the ACL of all created nodes
+     * @param batchSize
+     *            the maximum number of creates in one multi request
+     * @param maxInFlight
+     *            the maximum number of requests sent without having their response
+     */
+    public EphemeralNodeManager(ZkClient zkClient, List<ACL> acl, int batchSize, int maxInFlight) {
+        if (acl == null || acl.size() == 0) {
+            throw new NullPointerException("Missing value for ACL");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        _zkClient = zkClient;
+        _acl = acl;
+        _batchSize = batchSize;
+        _maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Starts re-creating the registered nodes in new sessions.
+     */
+    public void start() {
+        _zkClient.subscribeStateChanges(this);
+    }
+
+    /**
+     * Stops re-creating the registered nodes. The nodes existing are left until the session ends.
+     */
+    public void stop() {
+        _zkClient.unsubscribeStateChanges(this);
+        List<String> conflicts;
+        _lock.lock();
+        try {
+            conflicts = new ArrayList<String>(_conflicts);
+            _conflicts.clear();
+        } finally {
+            _lock.unlock();
+        }
+        for (String path : conflicts) {
+            _zkClient.unsubscribeDataChanges(path, _conflictListener);
+        }
+    }
+
+    /**
+     * Registers an ephemeral node and creates it, together with its missing parents as persistent nodes. Registering a
+     * path again only changes the data the node is created with the next time.
+     *
+     * @param data
+     *            the data of the node, may be null
+     */
+    public void register(String path, Object data) {
+        registerAll(Collections.singletonMap(path, data));
+    }
+
+    /**
+     * Registers many ephemeral nodes and creates them in pipelined batches.
+     *
+     * @param nodes
+     *            the data of each node by path, the data may be null
+     * @see #register(String, Object)
+     */
+    public void registerAll(Map<String, ?> nodes) {
+        Map<String, byte[]> data = new LinkedHashMap<String, byte[]>();
+        for (Entry<String, ?> node : nodes.entrySet()) {
+            if (node.getKey() == null) {
+                throw new NullPointerException("Missing value for path");
+            }
+            data.put(node.getKey(), node.getValue() == null ? null : _zkClient.serialize(node.getValue()));
+        }
+        registerAllRaw(data);
+    }
+
+    /**
+     * {@link #registerAll(Map)} for data which is already serialized.
+     */
+    void registerAllRaw(Map<String, byte[]> data) {
+        Map<String, byte[]> nodes;
+        _lock.lock();
+        try {
+            _nodes.putAll(data);
+            nodes = snapshot(data.keySet());
+        } finally {
+            _lock.unlock();
+        }
+        createNodes(nodes);
+    }
+
+    /**
+     * Stops tracking a node and deletes it if the current session owns it.
+     *
+     * @return false if the node was not registered
+     */
+    public boolean unregister(String path) {
+        boolean conflict;
+        _lock.lock();
+        try {
+            if (!_nodes.containsKey(path)) {
+                return false;
+            }
+            _nodes.remove(path);
+            conflict = _conflicts.remove(path);
+        } finally {
+            _lock.unlock();
+        }
+        if (conflict) {
+            _zkClient.unsubscribeDataChanges(path, _conflictListener);
+        } else {
+            deleteIfOwned(path);
+        }
+        return true;
+    }
+
+    public Set<String> getRegisteredPaths() {
+        _lock.lock();
+        try {
+            return new LinkedHashSet<String>(_nodes.keySet());
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return how long creating the nodes again took after the last new session, -1 if there was none
+     */
+    public long getLastReregistrationMillis() {
+        return _lastReregistrationMillis;
+    }
+
+    @Override
+    public void handleStateChanged(KeeperState state) {
+        // the nodes are gone with the session only
+    }
+
+    @Override
+    public void handleNewSession() {
+        Map<String, byte[]> nodes;
+        _lock.lock();
+        try {
+            if (_nodes.isEmpty()) {
+                return;
+            }
+            nodes = snapshot(_nodes.keySet());
+        } finally {
+            _lock.unlock();
+        }
+        long start = System.nanoTime();
+        createNodes(nodes);
+        _lastReregistrationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.info("Re-registered " + nodes.size() + " ephemeral nodes in " + _lastReregistrationMillis + " ms");
+    }
+
+    @Override
+    public void handleSessionEstablishmentError(Throwable error) {
+        // the ZkClient reports it, the nodes are created with the next session
+    }
+
+    /**
+     * @return the data of the given registered nodes, must be called holding the lock
+     */
+    private Map<String, byte[]> snapshot(Collection<String> paths) {
+        currentSession();
+        Map<String, byte[]> nodes = new LinkedHashMap<String, byte[]>();
+        for (String path : paths) {
+            if (_nodes.containsKey(path)) {
+                nodes.put(path, _nodes.get(path));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @return whether the current session owns a node with the given ephemeral owner
+     */
+    private boolean isOwnedByCurrentSession(long owner) {
+        _lock.lock();
+        try {
+            return owner == currentSession();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private boolean isOwnedByPreviousSession(long owner) {
+        _lock.lock();
+        try {
+            return _previousSessions.contains(owner);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void deleteIfOwned(String path) {
+        Stat stat = _zkClient.stat(path);
+        if (stat != null && isOwnedByCurrentSession(stat.getEphemeralOwner())) {
+            _zkClient.delete(path, stat.getVersion());
+        }
+    }
+
+    /**
+     * @return the id of the current session, remembering the one the nodes were created with before, must be called
+     *         holding the lock
+     */
+    private long currentSession() {
+        long sessionId = _zkClient.getSessionId();
+        if (sessionId != 0 && sessionId != _sessionId) {
+            if (_sessionId != 0) {
+                _previousSessions.add(_sessionId);
+            }
+            _sessionId = sessionId;
+        }
+        return _sessionId;
+    }
+
+    /**
+     * Creates the nodes in batches, a batch failing because of an existing node or a missing parent is created node by
+     * node. Nodes of other sessions are watched until they are deleted. Called without holding the lock, so
+     * registrations go on while the requests are pipelined.
+     *
+     * @param nodes
+     *            a snapshot of the data of the nodes to create
+     */
+    private void createNodes(Map<String, byte[]> nodes) {
+        List<String> list = new ArrayList<String>(nodes.keySet());
+        Registration registration = new Registration(new ZkPipeline(_zkClient, _maxInFlight), nodes);
+        for (int i = 0; i < list.size(); i += _batchSize) {
+            registration._pipeline.submit(new BatchRequest(registration, list.subList(i, Math.min(list.size(), i + _batchSize))));
+        }
+        registration._pipeline.execute();
+
+        List<String> unregistered = new ArrayList<String>();
+        List<String> resolved = new ArrayList<String>();
+        List<String> conflicts = new ArrayList<String>();
+        List<String> added = new ArrayList<String>();
+        _lock.lock();
+        try {
+            for (String path : list) {
+                if (!_nodes.containsKey(path)) {
+                    unregistered.add(path);
+                } else if (!registration._conflicts.contains(path)) {
+                    if (_conflicts.remove(path)) {
+                        resolved.add(path);
+                    }
+                } else {
+                    conflicts.add(path);
+                    if (_conflicts.add(path)) {
+                        added.add(path);
+                    }
+                }
+            }
+        } finally {
+            _lock.unlock();
+        }
+
+        // unregistered while it was created
+        for (String path : unregistered) {
+            if (!registration._conflicts.contains(path)) {
+                deleteIfOwned(path);
+            }
+        }
+        for (String path : resolved) {
+            _zkClient.unsubscribeDataChanges(path, _conflictListener);
+        }
+        for (String path : added) {
+            LOG.info("Ephemeral node " + path + " is owned by another session, waiting for its deletion");
+            _zkClient.subscribeDataChanges(path, _conflictListener);
+        }
+        List<String> deleted = new ArrayList<String>();
+        for (String path : conflicts) {
+            // it might have been deleted before the subscription
+            if (!_zkClient.exists(path)) {
+                deleted.add(path);
+            }
+        }
+        if (!deleted.isEmpty()) {
+            Map<String, byte[]> retried;
+            _lock.lock();
+            try {
+                retried = snapshot(deleted);
+            } finally {
+                _lock.unlock();
+            }
+            createNodes(retried);
+        }
+    }
+
+    private void retry(Registration registration, String path, int attempt, Code code) throws KeeperException {
+        if (attempt + 1 >= MAX_ATTEMPTS) {
+            throw KeeperException.create(code, path);
+        }
+        registration._pipeline.submit(new CreateRequest(registration, path, attempt + 1));
+    }
+
+    private final class BatchRequest extends ZkPipeline.Request {
+
+        private final Registration _registration;
+        private final List<String> _batch;
+
+        BatchRequest(Registration registration, List<String> batch) {
+            super(batch.get(0));
+            _registration = registration;
+            _batch = batch;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            List<Op> ops = new ArrayList<Op>(_batch.size());
+            for (String path : _batch) {
+                ops.add(Op.create(path, _registration._nodes.get(path), _acl, CreateMode.EPHEMERAL));
+            }
+            connection.multi(ops, new AsyncCallback.MultiCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, List<OpResult> results) {
+                    done(rc);
+                }
+            }, null);
+        }
+
+        @Override
+        void completed(Code code) throws KeeperException {
+            if (code == Code.NODEEXISTS || code == Code.NONODE) {
+                // the batch is rolled back, create its nodes one by one
+                for (String path : _batch) {
+                    _registration._pipeline.submit(new CreateRequest(_registration, path, 0));
+                }
+                return;
+            }
+            super.completed(code);
+        }
+    }
+
+    private final class CreateRequest extends ZkPipeline.Request {
+
+        private final Registration _registration;
+        private final int _attempt;
+
+        CreateRequest(Registration registration, String path, int attempt) {
+            super(path);
+            _registration = registration;
+            _attempt = attempt;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            connection.create(_path, _registration._nodes.get(_path), _acl, CreateMode.EPHEMERAL, new AsyncCallback.StringCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, String name) {
+                    done(rc);
+                }
+            }, null);
+        }
+
+        @Override
+        void completed(Code code) throws KeeperException {
+            if (code == Code.NODEEXISTS) {
+                _registration._pipeline.submit(new StatRequest(_registration, _path, _attempt));
+            } else if (code == Code.NONODE) {
+                _zkClient.createPersistent(_path.substring(0, _path.lastIndexOf('/')), true);
+                retry(_registration, _path, _attempt, code);
+            } else {
+                super.completed(code);
+            }
+        }
+    }
+
+    private final class StatRequest extends ZkPipeline.Request {
+
+        private final Registration _registration;
+        private final int _attempt;
+        private Stat _stat;
+
+        StatRequest(Registration registration, String path, int attempt) {
+            super(path);
+            _registration = registration;
+            _attempt = attempt;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            connection.stat(_path, false, new AsyncCallback.StatCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, Stat stat) {
+                    _stat = stat;
+                    done(rc);
+                }
+            }, null);
+        }
+
+        @Override
+        void completed(Code code) throws KeeperException {
+            if (code == Code.NONODE) {
+                retry(_registration, _path, _attempt, Code.NODEEXISTS);
+                return;
+            }
+            super.completed(code);
+            long owner = _stat.getEphemeralOwner();
+            if (isOwnedByCurrentSession(owner)) {
+                return;
+            }
+            if (isOwnedByPreviousSession(owner)) {
+                LOG.debug("Replacing ephemeral node " + _path + " of the previous session " + Long.toHexString(owner));
+                _registration._pipeline.submit(new DeleteRequest(_registration, _path, _stat.getVersion(), _attempt));
+            } else {
+                _registration._conflicts.add(_path);
+            }
+        }
+    }
+
+    private final class DeleteRequest extends ZkPipeline.Request {
+
+        private final Registration _registration;
+        private final int _version;
+        private final int _attempt;
+
+        DeleteRequest(Registration registration, String path, int version, int attempt) {
+            super(path);
+            _registration = registration;
+            _version = version;
+            _attempt = attempt;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            connection.delete(_path, _version, new AsyncCallback.VoidCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    done(rc);
+                }
+            }, null);
+        }
+
+        @Override
+        void completed(Code code) throws KeeperException {
+            if (code == Code.OK || code == Code.NONODE) {
+                retry(_registration, _path, _attempt, Code.NODEEXISTS);
+            } else if (code == Code.BADVERSION) {
+                // changed in the meantime, check its owner again
+                if (_attempt + 1 >= MAX_ATTEMPTS) {
+                    throw KeeperException.create(code, _path);
+                }
+                _registration._pipeline.submit(new StatRequest(_registration, _path, _attempt + 1));
+            } else {
+                super.completed(code);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.phial.zkclient;
+
+/**
+ * What the {@link ZkClient} does with a listener notification when its event queue is full, see
+ * {@link ZkClient#setEventQueue(int, EventOverflowPolicy)}.
+ */
+public enum EventOverflowPolicy {
+
+    /**
+     * The thread sending the notification waits until the listeners have caught up. Notifications sent by a listener
+     * callback itself are queued anyway, it cannot wait for itself.
+     *
+     * The ZooKeeper event thread does not wait either, it also delivers the responses a listener or the re-established
+     * watches of a new session may be waiting for. Its notifications arriving while the queue is full are coalesced as with
+     * {@link #COALESCE} and queued beyond the capacity.
+     */
+    BLOCK,
+
+    /**
+     * A data or child notification is not queued if the same listener already has one for the path waiting, the
+     * waiting one reads the node when it runs and so reports the newer change as well. Only notifications which cannot
+     * be coalesced wait for room as with {@link #BLOCK}, the ones of the ZooKeeper event thread are queued beyond the
+     * capacity.
+     */
+    COALESCE,
+
+    /**
+     * The oldest waiting data, child or subtree notification is dropped to make room, with an
+     * {@link ZkClient#setEventExecutor(java.util.concurrent.Executor) executor} preferably one of the same path. If none
+     * is waiting the new notification is dropped. The dropped ones are counted by
+     * {@link ZkClient#getDroppedEventCount()}.
+     *
+     * Notifications re-arming a one time watch, state and new session notifications and the events the client and its
+     * recipes queue for themselves are never dropped, they are queued beyond the capacity.
+     */
+    DROP_OLDEST
+}
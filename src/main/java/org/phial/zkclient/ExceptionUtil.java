@@ -2,7 +2,9 @@
 package org.phial.zkclient;
 
 import io.netty.util.internal.StringUtil;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.common.StringUtils;
+import org.phial.zkclient.exception.ZkException;
 import org.phial.zkclient.exception.ZkInterruptedException;
 
 import java.util.function.Consumer;
@@ -38,6 +40,28 @@ public class ExceptionUtil {
         }
     }
 
+    /**
+     * Maps the exception of a synchronous ZooKeeper call to the result code the asynchronous call would have passed to
+     * its callback. An interruption is reported as connection loss, since the request may or may not have been applied,
+     * and the interrupt flag is retained. Exceptions not caused by ZooKeeper are rethrown.
+     *
+     * @param e The exception of the synchronous call.
+     * @return the {@link KeeperException.Code} value
+     */
+    public static int toKeeperResultCode(Exception e) {
+        if (e instanceof KeeperException) {
+            return ((KeeperException) e).code().intValue();
+        }
+        if (e instanceof ZkException && e.getCause() instanceof KeeperException) {
+            return ((KeeperException) e.getCause()).code().intValue();
+        }
+        if (e instanceof InterruptedException || e instanceof ZkInterruptedException) {
+            Thread.currentThread().interrupt();
+            return KeeperException.Code.CONNECTIONLOSS.intValue();
+        }
+        throw convertToRuntimeException(e);
+    }
+
     ///////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////
 
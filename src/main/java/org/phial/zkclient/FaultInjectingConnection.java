@@ -0,0 +1,639 @@
+package org.phial.zkclient;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * An {@link IZkConnection} decorator that degrades any underlying connection ({@link InMemoryConnection},
+ * {@link ZkConnection}, ...) in a controlled way. It can delay every operation according to a per-operation
+ * {@link LatencyDistribution}, fail operations with {@link KeeperException.ConnectionLossException} or
+ * {@link KeeperException.SessionExpiredException} at a given rate and throttle the overall operation rate.
+ *
+ * This allows to measure {@link ZkClient#retryUntilConnected(java.util.concurrent.Callable)} and timeout tuning under
+ * realistic network conditions on a single machine. All settings may be changed while the connection is in use.
+ */
+public class FaultInjectingConnection implements IZkConnection {
+
+    /**
+     * The operation categories that latencies can be configured for.
+     */
+    public enum Operation {
+        CREATE, DELETE, EXISTS, GET_CHILDREN, READ_DATA, WRITE_DATA, GET_CREATE_TIME, MULTI, ACL, WATCH
+    }
+
+    /**
+     * Produces the delay that is applied to a single operation.
+     */
+    public interface LatencyDistribution {
+
+        LatencyDistribution NONE = fixed(0);
+
+        /**
+         * @return the next delay in nanoseconds, values lesser than 1 mean no delay.
+         */
+        long nextDelayNanos();
+
+        static LatencyDistribution fixed(final long millis) {
+            final long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            return new LatencyDistribution() {
+                @Override
+                public long nextDelayNanos() {
+                    return nanos;
+                }
+            };
+        }
+
+        static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+            if (maxMillis < minMillis) {
+                throw new IllegalArgumentException("maxMillis must not be lesser than minMillis");
+            }
+            final long min = TimeUnit.MILLISECONDS.toNanos(minMillis);
+            final long max = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+            return new LatencyDistribution() {
+                @Override
+                public long nextDelayNanos() {
+                    return min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+                }
+            };
+        }
+
+        /**
+         * An exponential distribution, which gives a long tail of slow operations around the given mean.
+         */
+        static LatencyDistribution exponential(final double meanMillis) {
+            final double mean = TimeUnit.MILLISECONDS.toNanos(1) * meanMillis;
+            return new LatencyDistribution() {
+                @Override
+                public long nextDelayNanos() {
+                    return (long) (-mean * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()));
+                }
+            };
+        }
+    }
+
+    private final IZkConnection _connection;
+    private final Map<Operation, LatencyDistribution> _latencies = new EnumMap<>(Operation.class);
+    private volatile LatencyDistribution _defaultLatency = LatencyDistribution.NONE;
+    private volatile double _connectionLossRate;
+    private volatile double _lostResponseRate;
+    private volatile double _sessionExpiredRate;
+
+    private final Object _throttleLock = new Object();
+    private volatile long _throttleIntervalNanos;
+    private long _nextPermitNanos;
+
+    private final Object _asyncLock = new Object();
+    private ScheduledExecutorService _asyncExecutor;
+    private long _lastAsyncSendNanos;
+    private final AtomicInteger _scheduledAsyncOperations = new AtomicInteger();
+
+    private final AtomicLong _injectedConnectionLosses = new AtomicLong();
+    private final AtomicLong _injectedSessionExpirations = new AtomicLong();
+
+    public FaultInjectingConnection(IZkConnection connection) {
+        if (connection == null) {
+            throw new NullPointerException("Zookeeper connection is null!");
+        }
+        _connection = connection;
+    }
+
+    public IZkConnection getConnection() {
+        return _connection;
+    }
+
+    /**
+     * Sets the latency for all operations which have no specific latency configured.
+     */
+    public void setDefaultLatency(LatencyDistribution latency) {
+        _defaultLatency = latency == null ? LatencyDistribution.NONE : latency;
+    }
+
+    public void setLatency(Operation operation, LatencyDistribution latency) {
+        synchronized (_latencies) {
+            if (latency == null) {
+                _latencies.remove(operation);
+            } else {
+                _latencies.put(operation, latency);
+            }
+        }
+    }
+
+    /**
+     * @param rate
+     *            the fraction (0.0 - 1.0) of operations that fail with a connection loss before reaching the server.
+     */
+    public void setConnectionLossRate(double rate) {
+        _connectionLossRate = checkRate(rate);
+    }
+
+    /**
+     * @param rate
+     *            the fraction (0.0 - 1.0) of operations that are applied by the server but whose response is lost,
+     *            i.e. which fail with a connection loss after the fact. This is the case retrying callers have to be
+     *            idempotent for.
+     */
+    public void setLostResponseRate(double rate) {
+        _lostResponseRate = checkRate(rate);
+    }
+
+    /**
+     * @param rate
+     *            the fraction (0.0 - 1.0) of operations that fail with a session expired error.
+     */
+    public void setSessionExpiredRate(double rate) {
+        _sessionExpiredRate = checkRate(rate);
+    }
+
+    /**
+     * Limits the number of operations per second passed to the underlying connection. Callers exceeding the rate are
+     * delayed, not rejected.
+     *
+     * @param maxOperationsPerSecond
+     *            the operation rate or a value lesser than 1 to disable throttling.
+     */
+    public void setThrottle(int maxOperationsPerSecond) {
+        synchronized (_throttleLock) {
+            _throttleIntervalNanos = maxOperationsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxOperationsPerSecond : 0;
+            _nextPermitNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Disables all latencies, failures and throttling.
+     */
+    public void reset() {
+        synchronized (_latencies) {
+            _latencies.clear();
+        }
+        _defaultLatency = LatencyDistribution.NONE;
+        _connectionLossRate = 0;
+        _lostResponseRate = 0;
+        _sessionExpiredRate = 0;
+        setThrottle(0);
+    }
+
+    public long getInjectedConnectionLosses() {
+        return _injectedConnectionLosses.get();
+    }
+
+    public long getInjectedSessionExpirations() {
+        return _injectedSessionExpirations.get();
+    }
+
+    private static double checkRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be between 0.0 and 1.0 but was " + rate);
+        }
+        return rate;
+    }
+
+    private static boolean hit(double rate) {
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Applies throttling, latency and failures that happen before the operation reaches the server.
+     */
+    private void before(Operation operation) throws KeeperException, InterruptedException {
+        throttle();
+        long delay = nextDelayNanos(operation);
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+        KeeperException.Code failure = nextFailure();
+        if (failure != KeeperException.Code.OK) {
+            throw KeeperException.create(failure);
+        }
+    }
+
+    private long nextDelayNanos(Operation operation) {
+        LatencyDistribution latency;
+        synchronized (_latencies) {
+            latency = _latencies.get(operation);
+        }
+        if (latency == null) {
+            latency = _defaultLatency;
+        }
+        return latency.nextDelayNanos();
+    }
+
+    private KeeperException.Code nextFailure() {
+        if (hit(_sessionExpiredRate)) {
+            _injectedSessionExpirations.incrementAndGet();
+            return KeeperException.Code.SESSIONEXPIRED;
+        }
+        if (hit(_connectionLossRate)) {
+            _injectedConnectionLosses.incrementAndGet();
+            return KeeperException.Code.CONNECTIONLOSS;
+        }
+        return KeeperException.Code.OK;
+    }
+
+    private boolean loseResponse(int rc) {
+        if (rc == KeeperException.Code.OK.intValue() && hit(_lostResponseRate)) {
+            _injectedConnectionLosses.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The asynchronous counterpart of {@link #before(Operation)}: the request is sent by a scheduler thread once its
+     * latency elapsed, or fails via the callback. Requests are never reordered, a request is sent after all requests
+     * issued before it even if its own latency is shorter, like on a single TCP connection.
+     */
+    private void beforeAsync(Operation operation, final Runnable send, final AsyncFailure failure) {
+        try {
+            throttle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.fail(KeeperException.Code.CONNECTIONLOSS.intValue());
+            return;
+        }
+        long delay = nextDelayNanos(operation);
+        final KeeperException.Code code = nextFailure();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (code != KeeperException.Code.OK) {
+                        failure.fail(code.intValue());
+                    } else {
+                        send.run();
+                    }
+                } finally {
+                    _scheduledAsyncOperations.decrementAndGet();
+                }
+            }
+        };
+        synchronized (_asyncLock) {
+            long now = System.nanoTime();
+            long sendAt = Math.max(now + delay, _lastAsyncSendNanos);
+            _lastAsyncSendNanos = sendAt;
+            if (sendAt > now || _scheduledAsyncOperations.get() > 0) {
+                if (_asyncExecutor == null || _asyncExecutor.isShutdown()) {
+                    _asyncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "FaultInjectingConnection-async");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+                _scheduledAsyncOperations.incrementAndGet();
+                _asyncExecutor.schedule(task, sendAt - now, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+        _scheduledAsyncOperations.incrementAndGet();
+        task.run();
+    }
+
+    private interface AsyncFailure {
+        void fail(int rc);
+    }
+
+    /**
+     * Applies failures that happen after the server applied the operation.
+     */
+    private void after() throws KeeperException {
+        if (hit(_lostResponseRate)) {
+            _injectedConnectionLosses.incrementAndGet();
+            throw new KeeperException.ConnectionLossException();
+        }
+    }
+
+    private void throttle() throws InterruptedException {
+        if (_throttleIntervalNanos <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (_throttleLock) {
+            long now = System.nanoTime();
+            long permit = Math.max(now, _nextPermitNanos);
+            _nextPermitNanos = permit + _throttleIntervalNanos;
+            wait = permit - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    @Override
+    public void connect(Watcher watcher) {
+        _connection.connect(watcher);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (_asyncLock) {
+            if (_asyncExecutor != null) {
+                // operations already scheduled are still sent (and fail on the closed connection)
+                _asyncExecutor.shutdown();
+            }
+        }
+        _connection.close();
+    }
+
+    @Override
+    public String create(String path, byte[] data, CreateMode mode) throws KeeperException, InterruptedException {
+        before(Operation.CREATE);
+        String result = _connection.create(path, data, mode);
+        after();
+        return result;
+    }
+
+    @Override
+    public String create(String path, byte[] data, List<ACL> acl, CreateMode mode) throws KeeperException, InterruptedException {
+        before(Operation.CREATE);
+        String result = _connection.create(path, data, acl, mode);
+        after();
+        return result;
+    }
+
+    @Override
+    public void delete(String path) throws InterruptedException, KeeperException {
+        before(Operation.DELETE);
+        _connection.delete(path);
+        after();
+    }
+
+    @Override
+    public void delete(String path, int version) throws InterruptedException, KeeperException {
+        before(Operation.DELETE);
+        _connection.delete(path, version);
+        after();
+    }
+
+    @Override
+    public boolean exists(String path, boolean watch) throws KeeperException, InterruptedException {
+        before(Operation.EXISTS);
+        boolean result = _connection.exists(path, watch);
+        after();
+        return result;
+    }
+
+    @Override
+    public List<String> getChildren(String path, boolean watch) throws KeeperException, InterruptedException {
+        before(Operation.GET_CHILDREN);
+        List<String> result = _connection.getChildren(path, watch);
+        after();
+        return result;
+    }
+
+    @Override
+    public byte[] readData(String path, Stat stat, boolean watch) throws KeeperException, InterruptedException {
+        before(Operation.READ_DATA);
+        byte[] result = _connection.readData(path, stat, watch);
+        after();
+        return result;
+    }
+
+    @Override
+    public void writeData(String path, byte[] data, int expectedVersion) throws KeeperException, InterruptedException {
+        before(Operation.WRITE_DATA);
+        _connection.writeData(path, data, expectedVersion);
+        after();
+    }
+
+    @Override
+    public Stat writeDataReturnStat(String path, byte[] data, int expectedVersion) throws KeeperException, InterruptedException {
+        before(Operation.WRITE_DATA);
+        Stat result = _connection.writeDataReturnStat(path, data, expectedVersion);
+        after();
+        return result;
+    }
+
+    @Override
+    public States getZookeeperState() {
+        return _connection.getZookeeperState();
+    }
+
+    @Override
+    public long getCreateTime(String path) throws KeeperException, InterruptedException {
+        before(Operation.GET_CREATE_TIME);
+        long result = _connection.getCreateTime(path);
+        after();
+        return result;
+    }
+
+    @Override
+    public String getServers() {
+        return _connection.getServers();
+    }
+
+    @Override
+    public long getSessionId() {
+        return _connection.getSessionId();
+    }
+
+    @Override
+    public List<OpResult> multi(Iterable<Op> ops) throws KeeperException, InterruptedException {
+        before(Operation.MULTI);
+        List<OpResult> result = _connection.multi(ops);
+        after();
+        return result;
+    }
+
+    @Override
+    public void getChildren(final String path, final boolean watch, final AsyncCallback.ChildrenCallback cb, final Object ctx) {
+        beforeAsync(Operation.GET_CHILDREN, new Runnable() {
+            @Override
+            public void run() {
+                _connection.getChildren(path, watch, new AsyncCallback.ChildrenCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, List<String> children) {
+                        if (loseResponse(rc)) {
+                            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null);
+                        } else {
+                            cb.processResult(rc, path, ctx, children);
+                        }
+                    }
+                }, ctx);
+            }
+        }, new AsyncFailure() {
+            @Override
+            public void fail(int rc) {
+                cb.processResult(rc, path, ctx, null);
+            }
+        });
+    }
+
+    @Override
+    public void multi(final Iterable<Op> ops, final AsyncCallback.MultiCallback cb, final Object ctx) {
+        beforeAsync(Operation.MULTI, new Runnable() {
+            @Override
+            public void run() {
+                _connection.multi(ops, new AsyncCallback.MultiCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, List<OpResult> results) {
+                        if (loseResponse(rc)) {
+                            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null);
+                        } else {
+                            cb.processResult(rc, path, ctx, results);
+                        }
+                    }
+                }, ctx);
+            }
+        }, new AsyncFailure() {
+            @Override
+            public void fail(int rc) {
+                cb.processResult(rc, null, ctx, null);
+            }
+        });
+    }
+
+    @Override
+    public void delete(final String path, final int version, final AsyncCallback.VoidCallback cb, final Object ctx) {
+        beforeAsync(Operation.DELETE, new Runnable() {
+            @Override
+            public void run() {
+                _connection.delete(path, version, new AsyncCallback.VoidCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx) {
+                        cb.processResult(loseResponse(rc) ? KeeperException.Code.CONNECTIONLOSS.intValue() : rc, path, ctx);
+                    }
+                }, ctx);
+            }
+        }, new AsyncFailure() {
+            @Override
+            public void fail(int rc) {
+                cb.processResult(rc, path, ctx);
+            }
+        });
+    }
+
+    @Override
+    public void create(final String path, final byte[] data, final List<ACL> acl, final CreateMode mode, final AsyncCallback.StringCallback cb, final Object ctx) {
+        beforeAsync(Operation.CREATE, new Runnable() {
+            @Override
+            public void run() {
+                _connection.create(path, data, acl, mode, new AsyncCallback.StringCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, String name) {
+                        if (loseResponse(rc)) {
+                            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null);
+                        } else {
+                            cb.processResult(rc, path, ctx, name);
+                        }
+                    }
+                }, ctx);
+            }
+        }, new AsyncFailure() {
+            @Override
+            public void fail(int rc) {
+                cb.processResult(rc, path, ctx, null);
+            }
+        });
+    }
+
+    @Override
+    public void readData(final String path, final boolean watch, final AsyncCallback.DataCallback cb, final Object ctx) {
+        beforeAsync(Operation.READ_DATA, new Runnable() {
+            @Override
+            public void run() {
+                _connection.readData(path, watch, new AsyncCallback.DataCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                        if (loseResponse(rc)) {
+                            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null, null);
+                        } else {
+                            cb.processResult(rc, path, ctx, data, stat);
+                        }
+                    }
+                }, ctx);
+            }
+        }, new AsyncFailure() {
+            @Override
+            public void fail(int rc) {
+                cb.processResult(rc, path, ctx, null, null);
+            }
+        });
+    }
+
+    @Override
+    public void stat(final String path, final boolean watch, final AsyncCallback.StatCallback cb, final Object ctx) {
+        beforeAsync(Operation.EXISTS, new Runnable() {
+            @Override
+            public void run() {
+                _connection.stat(path, watch, new AsyncCallback.StatCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, Stat stat) {
+                        if (loseResponse(rc)) {
+                            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null);
+                        } else {
+                            cb.processResult(rc, path, ctx, stat);
+                        }
+                    }
+                }, ctx);
+            }
+        }, new AsyncFailure() {
+            @Override
+            public void fail(int rc) {
+                cb.processResult(rc, path, ctx, null);
+            }
+        });
+    }
+
+    @Override
+    public void addAuthInfo(String scheme, byte[] auth) {
+        _connection.addAuthInfo(scheme, auth);
+    }
+
+    @Override
+    public void setAcl(String path, List<ACL> acl, int version) throws KeeperException, InterruptedException {
+        before(Operation.ACL);
+        _connection.setAcl(path, acl, version);
+        after();
+    }
+
+    @Override
+    public Stat stat(String path, boolean watch) throws KeeperException, InterruptedException {
+        before(Operation.EXISTS);
+        Stat result = _connection.stat(path, watch);
+        after();
+        return result;
+    }
+
+    @Override
+    public void addWatch(String basePath, Watcher watcher, AddWatchMode mode) throws KeeperException, InterruptedException {
+        before(Operation.WATCH);
+        _connection.addWatch(basePath, watcher, mode);
+        after();
+    }
+
+    @Override
+    public void removeWatches(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        before(Operation.WATCH);
+        _connection.removeWatches(path, watcher);
+        after();
+    }
+
+    @Override
+    public Map.Entry<List<ACL>, Stat> getAcl(String path) throws KeeperException, InterruptedException {
+        before(Operation.ACL);
+        Map.Entry<List<ACL>, Stat> result = _connection.getAcl(path);
+        after();
+        return result;
+    }
+}
@@ -1,11 +1,15 @@
-
 package org.phial.zkclient;
 
+import java.util.Collections;
+import java.util.List;
+
 public class Gateway {
 
     private GatewayThread _thread;
     private final int _port;
     private final int _destinationPort;
+    private long _latencyMillis;
+    private long _bytesPerSecond;
 
     public Gateway(int port, int destinationPort) {
         _port = port;
@@ -17,6 +21,8 @@ public class Gateway {
             throw new IllegalStateException("Gateway already running");
         }
         _thread = new GatewayThread(_port, _destinationPort);
+        _thread.setLatency(_latencyMillis);
+        _thread.setBandwidth(_bytesPerSecond);
         _thread.start();
         _thread.awaitUp();
     }
@@ -31,4 +37,60 @@ public class Gateway {
             _thread = null;
         }
     }
+
+    /**
+     * Sets the one-way latency of all connections, also applies after a restart of the gateway.
+     */
+    public synchronized void setLatency(long latencyMillis) {
+        _latencyMillis = latencyMillis;
+        if (_thread != null) {
+            _thread.setLatency(latencyMillis);
+        }
+    }
+
+    /**
+     * Sets the bandwidth of each direction of each connection (a value lesser than 1 means unlimited), also applies
+     * after a restart of the gateway.
+     */
+    public synchronized void setBandwidth(long bytesPerSecond) {
+        _bytesPerSecond = bytesPerSecond;
+        if (_thread != null) {
+            _thread.setBandwidth(bytesPerSecond);
+        }
+    }
+
+    public synchronized List<Integer> getConnectionIds() {
+        if (_thread == null) {
+            return Collections.emptyList();
+        }
+        return _thread.getConnectionIds();
+    }
+
+    public synchronized void pauseConnection(int id) {
+        if (_thread != null) {
+            _thread.pauseConnection(id);
+        }
+    }
+
+    public synchronized void resumeConnection(int id) {
+        if (_thread != null) {
+            _thread.resumeConnection(id);
+        }
+    }
+
+    /**
+     * Stops forwarding on all open connections without closing them, which looks like a network partition to both
+     * sides.
+     */
+    public synchronized void pause() {
+        if (_thread != null) {
+            _thread.pauseAll();
+        }
+    }
+
+    public synchronized void resume() {
+        if (_thread != null) {
+            _thread.resumeAll();
+        }
+    }
 }
@@ -1,16 +1,22 @@
-
 package org.phial.zkclient;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -18,16 +24,173 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A TCP proxy forwarding all connections accepted on a port to a destination port on localhost. All connections are
+ * served by this single thread using a {@link Selector}, data is transferred in buffered chunks.
+ *
+ * The proxy can shape the traffic of all connections with a one-way latency and a per direction bandwidth limit, and
+ * individual connections can be paused (no bytes are forwarded until resumed) to simulate network partitions.
+ */
 public class GatewayThread extends Thread {
 
     protected final static Logger LOG = LoggerFactory.getLogger(GatewayThread.class);
 
+    private static final int BUFFER_SIZE = 128 * 1024;
+
     private final int _port;
     private final int _destinationPort;
-    private ServerSocket _serverSocket;
+    private final Map<Integer, Connection> _connections = new ConcurrentHashMap<Integer, Connection>();
+    private final AtomicInteger _connectionIds = new AtomicInteger(0);
+    private Selector _selector;
+    private ServerSocketChannel _serverChannel;
     private Lock _lock = new ReentrantLock();
     private Condition _runningCondition = _lock.newCondition();
     private boolean _running = false;
+    private boolean _terminated = false;
+
+    private volatile long _latencyNanos;
+    private volatile long _bytesPerSecond;
+
+    /**
+     * One direction of a proxied connection. Bytes read from the source are buffered until they are released (after
+     * the configured latency) and written to the sink (limited by the configured bandwidth).
+     */
+    private class Direction {
+
+        private final SocketChannel _source;
+        private final SocketChannel _sink;
+        private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // {total bytes read when the chunk arrived, nano time the chunk may be sent}
+        private final ArrayDeque<long[]> _chunks = new ArrayDeque<long[]>();
+        private long _read;
+        private long _released;
+        private long _written;
+        private double _tokens;
+        private long _lastRefill = System.nanoTime();
+        private boolean _eof;
+        private boolean _outputShutdown;
+
+        Direction(SocketChannel source, SocketChannel sink) {
+            _source = source;
+            _sink = sink;
+        }
+
+        boolean wantsRead() {
+            return !_eof && _buffer.hasRemaining();
+        }
+
+        void read(long now) throws IOException {
+            int read = _source.read(_buffer);
+            if (read < 0) {
+                _eof = true;
+            } else if (read > 0) {
+                _read += read;
+                _chunks.add(new long[] { _read, now + _latencyNanos });
+            }
+        }
+
+        /**
+         * @return the number of bytes which may be written right now.
+         */
+        long writable(long now) {
+            while (!_chunks.isEmpty() && _chunks.peek()[1] - now <= 0) {
+                _released = _chunks.poll()[0];
+            }
+            long writable = _released - _written;
+            long bytesPerSecond = _bytesPerSecond;
+            if (writable > 0 && bytesPerSecond > 0) {
+                double maxTokens = Math.max(1, bytesPerSecond / 10);
+                _tokens = Math.min(maxTokens, _tokens + (now - _lastRefill) * bytesPerSecond / (double) TimeUnit.SECONDS.toNanos(1));
+                _lastRefill = now;
+                writable = Math.min(writable, (long) _tokens);
+            }
+            return writable;
+        }
+
+        void write(long now) throws IOException {
+            long writable = writable(now);
+            if (writable <= 0) {
+                return;
+            }
+            _buffer.flip();
+            int limit = _buffer.limit();
+            _buffer.limit((int) Math.min(limit, writable));
+            int written = _sink.write(_buffer);
+            _buffer.limit(limit);
+            _buffer.compact();
+            _written += written;
+            if (_bytesPerSecond > 0) {
+                _tokens -= written;
+            }
+        }
+
+        /**
+         * @return nanos until this direction has to be looked at again without any I/O happening, or -1.
+         */
+        long nextTimedEvent(long now) {
+            if (!_chunks.isEmpty() && _released == _written) {
+                return Math.max(0, _chunks.peek()[1] - now);
+            }
+            long bytesPerSecond = _bytesPerSecond;
+            if (_released > _written && bytesPerSecond > 0 && _tokens < 1) {
+                return (long) ((1 - _tokens) * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond) + 1;
+            }
+            return -1;
+        }
+
+        /**
+         * Forwards the end of stream once all buffered bytes have been written.
+         *
+         * @return true if this direction is completely done
+         */
+        boolean finish() throws IOException {
+            if (_eof && !_outputShutdown && _written == _read) {
+                _sink.socket().shutdownOutput();
+                _outputShutdown = true;
+            }
+            return _outputShutdown;
+        }
+    }
+
+    private class Connection {
+
+        private final int _id;
+        private final SocketChannel _incoming;
+        private final SocketChannel _outgoing;
+        private final Direction _upstream;
+        private final Direction _downstream;
+        private volatile boolean _paused;
+
+        Connection(int id, SocketChannel incoming, SocketChannel outgoing) {
+            _id = id;
+            _incoming = incoming;
+            _outgoing = outgoing;
+            _upstream = new Direction(incoming, outgoing);
+            _downstream = new Direction(outgoing, incoming);
+        }
+
+        void close() {
+            _connections.remove(_id);
+            closeQuietly(_incoming);
+            closeQuietly(_outgoing);
+        }
+    }
+
+    /**
+     * Selection key attachment: the channel is the source of one direction and the sink of the other one.
+     */
+    private static class Endpoint {
+
+        private final Connection _connection;
+        private final Direction _in;
+        private final Direction _out;
+
+        Endpoint(Connection connection, Direction in, Direction out) {
+            _connection = connection;
+            _in = in;
+            _out = out;
+        }
+    }
 
     public GatewayThread(int port, int destinationPort) {
         _port = port;
@@ -35,12 +198,73 @@ public class GatewayThread extends Thread {
         setDaemon(true);
     }
 
+    /**
+     * @param latencyMillis
+     *            the delay each forwarded chunk is held back in each direction.
+     */
+    public void setLatency(long latencyMillis) {
+        _latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        wakeup();
+    }
+
+    /**
+     * @param bytesPerSecond
+     *            the maximum bandwidth of each direction of each connection, a value lesser than 1 means unlimited.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        _bytesPerSecond = Math.max(0, bytesPerSecond);
+        wakeup();
+    }
+
+    public List<Integer> getConnectionIds() {
+        return new ArrayList<Integer>(_connections.keySet());
+    }
+
+    public void pauseConnection(int id) {
+        setPaused(id, true);
+    }
+
+    public void resumeConnection(int id) {
+        setPaused(id, false);
+    }
+
+    public void pauseAll() {
+        for (Integer id : getConnectionIds()) {
+            setPaused(id, true);
+        }
+    }
+
+    public void resumeAll() {
+        for (Integer id : getConnectionIds()) {
+            setPaused(id, false);
+        }
+    }
+
+    private void setPaused(int id, boolean paused) {
+        Connection connection = _connections.get(id);
+        if (connection != null) {
+            connection._paused = paused;
+            wakeup();
+        }
+    }
+
+    private void wakeup() {
+        Selector selector = _selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
     @Override
     public void run() {
-        final List<Thread> runningThreads = new Vector<Thread>();
         try {
             LOG.info("Starting gateway on port " + _port + " pointing to port " + _destinationPort);
-            _serverSocket = new ServerSocket(_port);
+            _selector = Selector.open();
+            _serverChannel = ServerSocketChannel.open();
+            _serverChannel.socket().setReuseAddress(true);
+            _serverChannel.socket().bind(new InetSocketAddress(_port));
+            _serverChannel.configureBlocking(false);
+            _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
             _lock.lock();
             try {
                 _running = true;
@@ -48,96 +272,134 @@ public class GatewayThread extends Thread {
             } finally {
                 _lock.unlock();
             }
-            while (true) {
-                final Socket socket = _serverSocket.accept();
-                LOG.info("new client is connected " + socket.getInetAddress());
-                final InputStream incomingInputStream = socket.getInputStream();
-                final OutputStream incomingOutputStream = socket.getOutputStream();
-
-                final Socket outgoingSocket;
-                try {
-                    outgoingSocket = new Socket("localhost", _destinationPort);
-                } catch (Exception e) {
-                    LOG.warn("could not connect to " + _destinationPort);
-                    continue;
+            while (!isInterrupted()) {
+                long timeout = updateInterestOps(System.nanoTime());
+                if (timeout < 0) {
+                    _selector.select();
+                } else if (timeout < TimeUnit.MILLISECONDS.toNanos(1)) {
+                    _selector.selectNow();
+                } else {
+                    _selector.select(TimeUnit.NANOSECONDS.toMillis(timeout));
                 }
-                final InputStream outgoingInputStream = outgoingSocket.getInputStream();
-                final OutputStream outgoingOutputStream = outgoingSocket.getOutputStream();
-
-                Thread writeThread = new Thread() {
-                    @Override
-                    public void run() {
-                        runningThreads.add(this);
-                        try {
-                            int read = -1;
-                            while ((read = incomingInputStream.read()) != -1) {
-                                outgoingOutputStream.write(read);
-                            }
-                        } catch (IOException e) {
-                            // ignore
-                        } finally {
-                            closeQuietly(outgoingOutputStream);
-                            runningThreads.remove(this);
-                        }
-                    }
-
-                    @Override
-                    public void interrupt() {
-                        try {
-                            socket.close();
-                            outgoingSocket.close();
-                        } catch (IOException e) {
-                            LOG.error("error on stopping closing sockets", e);
-                        }
-
-                        super.interrupt();
-                    }
-                };
-
-                Thread readThread = new Thread() {
-                    @Override
-                    public void run() {
-                        runningThreads.add(this);
-                        try {
-                            int read = -1;
-                            while ((read = outgoingInputStream.read()) != -1) {
-                                incomingOutputStream.write(read);
-                            }
-                        } catch (IOException e) {
-                            // ignore
-                        } finally {
-                            closeQuietly(incomingOutputStream);
-                            runningThreads.remove(this);
-                        }
-                    }
-                };
-
-                writeThread.setDaemon(true);
-                readThread.setDaemon(true);
-
-                writeThread.start();
-                readThread.start();
+                processSelectedKeys();
             }
-        } catch (SocketException e) {
+            LOG.info("Stopping gateway");
+        } catch (ClosedSelectorException e) {
+            LOG.info("Stopping gateway");
+        } catch (IOException e) {
             if (!_running) {
                 throw ExceptionUtil.convertToRuntimeException(e);
             }
             LOG.info("Stopping gateway");
         } catch (Exception e) {
             LOG.error("error on gateway execution", e);
+        } finally {
+            for (Connection connection : new ArrayList<Connection>(_connections.values())) {
+                connection.close();
+            }
+            closeQuietly(_serverChannel);
+            closeQuietly(_selector);
+            _lock.lock();
+            try {
+                _terminated = true;
+                _runningCondition.signalAll();
+            } finally {
+                _lock.unlock();
+            }
         }
+    }
 
-        for (Thread thread : new ArrayList<Thread>(runningThreads)) {
-            thread.interrupt();
+    /**
+     * @return nanos until the next timed event (latency or bandwidth), or -1 if there is none.
+     */
+    private long updateInterestOps(long now) {
+        long timeout = -1;
+        for (SelectionKey key : _selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Endpoint)) {
+                continue;
+            }
+            Endpoint endpoint = (Endpoint) key.attachment();
+            int ops = 0;
+            if (!endpoint._connection._paused) {
+                if (endpoint._in.wantsRead()) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                if (endpoint._out.writable(now) > 0) {
+                    ops |= SelectionKey.OP_WRITE;
+                } else {
+                    long next = endpoint._out.nextTimedEvent(now);
+                    if (next >= 0 && (timeout < 0 || next < timeout)) {
+                        timeout = next;
+                    }
+                }
+            }
+            key.interestOps(ops);
+        }
+        return timeout;
+    }
+
+    private void processSelectedKeys() throws IOException {
+        Iterator<SelectionKey> iterator = _selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+            Endpoint endpoint = (Endpoint) key.attachment();
+            Connection connection = endpoint._connection;
             try {
-                thread.join();
-            } catch (InterruptedException e) {
-                // ignore
+                long now = System.nanoTime();
+                if (key.isReadable()) {
+                    endpoint._in.read(now);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    endpoint._out.write(now);
+                }
+                boolean upstreamDone = connection._upstream.finish();
+                boolean downstreamDone = connection._downstream.finish();
+                if (upstreamDone && downstreamDone) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                connection.close();
             }
         }
     }
 
+    private void accept() throws IOException {
+        final SocketChannel incoming = _serverChannel.accept();
+        if (incoming == null) {
+            return;
+        }
+        LOG.info("new client is connected " + incoming.socket().getInetAddress());
+        final SocketChannel outgoing;
+        try {
+            outgoing = SocketChannel.open(new InetSocketAddress("localhost", _destinationPort));
+        } catch (IOException e) {
+            LOG.warn("could not connect to " + _destinationPort);
+            closeQuietly(incoming);
+            return;
+        }
+        incoming.configureBlocking(false);
+        outgoing.configureBlocking(false);
+        incoming.socket().setTcpNoDelay(true);
+        outgoing.socket().setTcpNoDelay(true);
+
+        Connection connection = new Connection(_connectionIds.incrementAndGet(), incoming, outgoing);
+        _connections.put(connection._id, connection);
+        incoming.register(_selector, SelectionKey.OP_READ, new Endpoint(connection, connection._upstream, connection._downstream));
+        outgoing.register(_selector, SelectionKey.OP_READ, new Endpoint(connection, connection._downstream, connection._upstream));
+    }
+
     protected void closeQuietly(Closeable closable) {
+        if (closable == null) {
+            return;
+        }
         try {
             closable.close();
         } catch (IOException e) {
@@ -147,12 +409,8 @@ public class GatewayThread extends Thread {
 
     @Override
     public void interrupt() {
-        try {
-            _serverSocket.close();
-        } catch (Exception cE) {
-            LOG.error("error on stopping gateway", cE);
-        }
         super.interrupt();
+        wakeup();
     }
 
     public void interruptAndJoin() throws InterruptedException {
@@ -163,7 +421,7 @@ public class GatewayThread extends Thread {
     public void awaitUp() {
         _lock.lock();
         try {
-            while (!_running) {
+            while (!_running && !_terminated) {
                 _runningCondition.await();
             }
         } catch (InterruptedException e) {
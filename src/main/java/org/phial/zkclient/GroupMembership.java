@@ -0,0 +1,204 @@
+package org.phial.zkclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The members of a group, the children of the group node. Members {@link #join(String, Object)} with an ephemeral
+ * node, which is kept by an {@link EphemeralNodeManager} across sessions.
+ *
+ * The members are kept as a sorted array, replaced on each change. Instead of the full child list
+ * {@link IGroupMembershipListener}s get the members which joined and left. Child changes arriving while the previous
+ * ones are still queued only replace the children to compare, so a burst of joins is compared and reported once.
+ */
+public final class GroupMembership implements IZkChildListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupMembership.class);
+
+    private static final String[] EMPTY = new String[0];
+
+    private final ZkClient _zkClient;
+    private final String _path;
+    private final EphemeralNodeManager _ephemerals;
+    private final Set<IGroupMembershipListener> _listeners = new CopyOnWriteArraySet<IGroupMembershipListener>();
+    private final Object _membersLock = new Object();
+    // the members the listeners got, sorted
+    private volatile String[] _members = EMPTY;
+    // the children not compared yet, null if the group node was deleted, guarded by _membersLock
+    private List<String> _latest;
+    private boolean _compareQueued;
+    private boolean _changed;
+
+    public GroupMembership(ZkClient zkClient, String path) {
+        _zkClient = zkClient;
+        _path = path;
+        _ephemerals = new EphemeralNodeManager(zkClient);
+    }
+
+    public void start() {
+        _ephemerals.start();
+        List<String> children = _zkClient.subscribeChildChanges(_path, this);
+        String[] sorted = sort(children);
+        synchronized (_membersLock) {
+            // a change delivered in the meantime is more recent
+            if (!_changed) {
+                _members = sorted;
+            }
+        }
+        LOG.debug("Started GroupMembership for " + _path);
+    }
+
+    /**
+     * Stops following the members. The members joined by this instance stay until they leave or the session ends.
+     */
+    public void stop() {
+        _zkClient.unsubscribeChildChanges(_path, this);
+        _ephemerals.stop();
+    }
+
+    /**
+     * Joins the group, the member is created again in a new session.
+     *
+     * @param data
+     *            the data of the member node, may be null
+     */
+    public void join(String member, Object data) {
+        _ephemerals.register(_path + "/" + member, data);
+    }
+
+    /**
+     * Leaves the group with a member joined by {@link #join(String, Object)}.
+     *
+     * @return false if the member was not joined by this instance
+     */
+    public boolean leave(String member) {
+        return _ephemerals.unregister(_path + "/" + member);
+    }
+
+    /**
+     * @return the members at the time the listener was added, the listener gets the changes from these on
+     */
+    public List<String> addListener(IGroupMembershipListener listener) {
+        synchronized (_membersLock) {
+            _listeners.add(listener);
+            return getMembers();
+        }
+    }
+
+    public void removeListener(IGroupMembershipListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * @return the sorted members, the list is not modified by later changes
+     */
+    public List<String> getMembers() {
+        return Collections.unmodifiableList(Arrays.asList(_members));
+    }
+
+    public int size() {
+        return _members.length;
+    }
+
+    public boolean isMember(String member) {
+        return Arrays.binarySearch(_members, member) >= 0;
+    }
+
+    @Override
+    public void handleChildChange(String parentPath, List<String> currentChilds) {
+        synchronized (_membersLock) {
+            _changed = true;
+            _latest = currentChilds;
+            if (_compareQueued) {
+                return;
+            }
+            _compareQueued = true;
+        }
+        // queued behind the child changes already pending, they only replace the children to compare
+        boolean queued = _zkClient.sendEvent(new ZkEventThread.ZkEvent(null, _path, this) {
+
+            @Override
+            public void run() throws Exception {
+                compare();
+            }
+
+            @Override
+            public String toString() {
+                return "ZkEvent[Members of " + _path + " changed]";
+            }
+        });
+        if (!queued) {
+            // the next change queues the compare again
+            synchronized (_membersLock) {
+                _compareQueued = false;
+            }
+            LOG.warn("Dropped the comparison of the members of " + _path + ", they are compared with the next change");
+        }
+    }
+
+    /**
+     * Replaces the members with the latest children under the lock and notifies the listeners outside of it, so a
+     * listener may join, leave or block without stopping the child changes.
+     */
+    private void compare() {
+        List<String> joined = new ArrayList<String>();
+        List<String> left = new ArrayList<String>();
+        List<IGroupMembershipListener> listeners;
+        synchronized (_membersLock) {
+            String[] members = sort(_latest);
+            _latest = null;
+            _compareQueued = false;
+            String[] previous = _members;
+            int i = 0;
+            int j = 0;
+            while (i < previous.length || j < members.length) {
+                int result = i == previous.length ? 1 : j == members.length ? -1 : previous[i].compareTo(members[j]);
+                if (result < 0) {
+                    left.add(previous[i++]);
+                } else if (result > 0) {
+                    joined.add(members[j++]);
+                } else {
+                    i++;
+                    j++;
+                }
+            }
+            _members = members;
+            // listeners added from now on start with the new members
+            listeners = new ArrayList<IGroupMembershipListener>(_listeners);
+        }
+        if (joined.isEmpty() && left.isEmpty()) {
+            return;
+        }
+        LOG.debug("{} members joined and {} left {}", joined.size(), left.size(), _path);
+        joined = Collections.unmodifiableList(joined);
+        left = Collections.unmodifiableList(left);
+        for (IGroupMembershipListener listener : listeners) {
+            try {
+                listener.handleMembershipChange(_path, joined, left);
+            } catch (Exception e) {
+                LOG.error("Failed to notify membership listener " + listener + " of " + _path, e);
+            }
+        }
+    }
+
+    private static String[] sort(List<String> children) {
+        if (children == null || children.isEmpty()) {
+            return EMPTY;
+        }
+        String[] sorted = children.toArray(new String[children.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupMembership[" + _path + "]";
+    }
+}
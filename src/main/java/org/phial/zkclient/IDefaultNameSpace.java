@@ -1,6 +1,8 @@
 
 package org.phial.zkclient;
 
+import java.util.Map;
+
 public interface IDefaultNameSpace {
 
     /**
@@ -10,4 +12,19 @@ public interface IDefaultNameSpace {
      *            The zkclient.
      */
     public void createDefaultNameSpace(ZkClient zkClient);
+
+    /**
+     * Creates a name space which bulk creates the given nodes.
+     *
+     * @param nodes
+     *            the data of each node by path, see {@link ZkClient#createPersistentBulk(Map)}
+     */
+    public static IDefaultNameSpace of(final Map<String, ?> nodes) {
+        return new IDefaultNameSpace() {
+            @Override
+            public void createDefaultNameSpace(ZkClient zkClient) {
+                zkClient.createPersistentBulk(nodes);
+            }
+        };
+    }
 }
@@ -0,0 +1,23 @@
+package org.phial.zkclient;
+
+import java.util.List;
+
+/**
+ * An {@link IGroupMembershipListener} can be registered at a {@link GroupMembership} to get the members which joined
+ * or left the group instead of all members.
+ */
+public interface IGroupMembershipListener {
+
+    /**
+     * Called when members joined or left the group, changes in quick succession are reported by one call.
+     *
+     * @param groupPath
+     *            The path of the group
+     * @param joined
+     *            The members which joined since the last call, sorted
+     * @param left
+     *            The members which left since the last call, sorted
+     * @throws Exception
+     */
+    public void handleMembershipChange(String groupPath, List<String> joined, List<String> left) throws Exception;
+}
@@ -0,0 +1,18 @@
+package org.phial.zkclient;
+
+/**
+ * An {@link ILockRevocationListener} can be registered at a lock of an {@link InterProcessReadWriteLock} to learn that
+ * the lock was lost together with the session holding it.
+ */
+public interface ILockRevocationListener {
+
+    /**
+     * Called on the event thread when the session holding the lock expired. Other processes may hold the lock from now
+     * on, work protected by it has to stop. The lock still has to be unlocked.
+     *
+     * @param lock
+     *            The revoked lock
+     * @throws Exception
+     */
+    public void handleLockRevoked(InterProcessReadWriteLock.Lock lock) throws Exception;
+}
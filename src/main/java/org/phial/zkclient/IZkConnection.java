@@ -4,6 +4,8 @@ package org.phial.zkclient;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.Op;
@@ -12,6 +14,7 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper.States;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
+import org.phial.zkclient.exception.ZkNoNodeException;
 
 public interface IZkConnection {
 
@@ -50,4 +53,158 @@ public interface IZkConnection {
     public void setAcl(final String path, List<ACL> acl, int version) throws KeeperException, InterruptedException;
 
     public Map.Entry<List<ACL>, Stat> getAcl(final String path) throws KeeperException, InterruptedException;
+
+    /**
+     * @return the id of the current session, it is the {@link Stat#getEphemeralOwner()} of the ephemeral nodes the
+     *         session creates. 0 if not connected or the connection does not tell.
+     */
+    public default long getSessionId() {
+        return 0;
+    }
+
+    /**
+     * @return the {@link Stat} of the node or null if it does not exist. The default implementation reads the data of
+     *         the node, connections should override it to get the {@link Stat} alone.
+     */
+    public default Stat stat(String path, boolean watch) throws KeeperException, InterruptedException {
+        if (!exists(path, watch)) {
+            return null;
+        }
+        Stat stat = new Stat();
+        try {
+            readData(path, stat, false);
+        } catch (KeeperException.NoNodeException | ZkNoNodeException e) {
+            return null;
+        }
+        return stat;
+    }
+
+    /**
+     * Adds a persistent watch (ZooKeeper 3.6+) for the given watcher, which stays registered after it was triggered. The
+     * default implementation fails with {@link KeeperException.Code#UNIMPLEMENTED}, callers have to fall back to one
+     * time watches.
+     */
+    public default void addWatch(String basePath, Watcher watcher, AddWatchMode mode) throws KeeperException, InterruptedException {
+        throw KeeperException.create(KeeperException.Code.UNIMPLEMENTED, basePath);
+    }
+
+    /**
+     * Removes all watches, persistent ones included, the given watcher has on the path. Fails with
+     * {@link KeeperException.Code#NOWATCHER} if there are none.
+     */
+    public default void removeWatches(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        throw KeeperException.create(KeeperException.Code.UNIMPLEMENTED, path);
+    }
+
+    // <asynchronous operations>
+    // The callbacks receive the same result codes ZooKeeper passes to its asynchronous callbacks. The default
+    // implementations call the synchronous methods and invoke the callback before returning.
+
+    /**
+     * Asynchronous version of {@link #getChildren(String, boolean)}.
+     */
+    public default void getChildren(String path, boolean watch, AsyncCallback.ChildrenCallback cb, Object ctx) {
+        List<String> children = null;
+        int rc = KeeperException.Code.OK.intValue();
+        try {
+            children = getChildren(path, watch);
+        } catch (Exception e) {
+            rc = ExceptionUtil.toKeeperResultCode(e);
+        }
+        cb.processResult(rc, path, ctx, children);
+    }
+
+    /**
+     * Asynchronous version of {@link #multi(Iterable)}. On failure the results contain the error of each operation if
+     * the connection provides them.
+     */
+    public default void multi(Iterable<Op> ops, AsyncCallback.MultiCallback cb, Object ctx) {
+        List<OpResult> results = null;
+        int rc = KeeperException.Code.OK.intValue();
+        try {
+            results = multi(ops);
+        } catch (KeeperException e) {
+            rc = e.code().intValue();
+            results = e.getResults();
+        } catch (Exception e) {
+            rc = ExceptionUtil.toKeeperResultCode(e);
+        }
+        cb.processResult(rc, null, ctx, results);
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(String, int)}.
+     */
+    public default void delete(String path, int version, AsyncCallback.VoidCallback cb, Object ctx) {
+        int rc = KeeperException.Code.OK.intValue();
+        try {
+            delete(path, version);
+        } catch (Exception e) {
+            rc = ExceptionUtil.toKeeperResultCode(e);
+        }
+        cb.processResult(rc, path, ctx);
+    }
+
+    /**
+     * Asynchronous version of {@link #create(String, byte[], List, CreateMode)}.
+     */
+    public default void create(String path, byte[] data, List<ACL> acl, CreateMode mode, AsyncCallback.StringCallback cb, Object ctx) {
+        String name = null;
+        int rc = KeeperException.Code.OK.intValue();
+        try {
+            name = create(path, data, acl, mode);
+        } catch (Exception e) {
+            rc = ExceptionUtil.toKeeperResultCode(e);
+        }
+        cb.processResult(rc, path, ctx, name);
+    }
+
+    /**
+     * Asynchronous version of {@link #readData(String, Stat, boolean)}.
+     */
+    public default void readData(String path, boolean watch, AsyncCallback.DataCallback cb, Object ctx) {
+        Stat stat = new Stat();
+        byte[] data = null;
+        int rc = KeeperException.Code.OK.intValue();
+        try {
+            data = readData(path, stat, watch);
+        } catch (Exception e) {
+            rc = ExceptionUtil.toKeeperResultCode(e);
+            stat = null;
+        }
+        cb.processResult(rc, path, ctx, data, stat);
+    }
+
+    /**
+     * Asynchronous version of {@link #stat(String, boolean)}, a missing node is reported with
+     * {@link KeeperException.Code#NONODE}.
+     */
+    public default void stat(String path, boolean watch, AsyncCallback.StatCallback cb, Object ctx) {
+        Stat stat = null;
+        int rc = KeeperException.Code.OK.intValue();
+        try {
+            stat = stat(path, watch);
+            if (stat == null) {
+                rc = KeeperException.Code.NONODE.intValue();
+            }
+        } catch (Exception e) {
+            rc = ExceptionUtil.toKeeperResultCode(e);
+        }
+        cb.processResult(rc, path, ctx, stat);
+    }
+
+    /**
+     * Asynchronous version of {@link #addWatch(String, Watcher, AddWatchMode)}.
+     */
+    public default void addWatch(String basePath, Watcher watcher, AddWatchMode mode, AsyncCallback.VoidCallback cb, Object ctx) {
+        int rc = KeeperException.Code.OK.intValue();
+        try {
+            addWatch(basePath, watcher, mode);
+        } catch (Exception e) {
+            rc = ExceptionUtil.toKeeperResultCode(e);
+        }
+        cb.processResult(rc, basePath, ctx);
+    }
+
+    // </asynchronous operations>
 }
@@ -0,0 +1,13 @@
+package org.phial.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * An {@link IZkDataListener} which also gets the {@link Stat} the data was read with, e.g. to tell which of two reads is
+ * more recent by {@link Stat#getMzxid()}. The {@link ZkClient} calls
+ * {@link #handleDataChange(String, Object, Stat)} instead of {@link #handleDataChange(String, Object)} for it.
+ */
+public interface IZkDataStatListener extends IZkDataListener {
+
+    public void handleDataChange(String dataPath, Object data, Stat stat) throws Exception;
+}
@@ -0,0 +1,19 @@
+package org.phial.zkclient;
+
+/**
+ * An {@link IZkSubtreeListener} can be registered at a {@link ZkClient} for listening on all nodes below a path,
+ * including the path itself. It is backed by one persistent recursive watch (ZooKeeper 3.6+), so the watch is not
+ * re-subscribed after each event and no node is read: the listener only gets the path of the node and has to read it
+ * itself if it needs the data.
+ *
+ * Events that happen while the client is disconnected or has no session are not reported, ZooKeeper does not replay
+ * them for persistent watches.
+ */
+public interface IZkSubtreeListener {
+
+    public void handleNodeCreated(String path) throws Exception;
+
+    public void handleNodeDataChanged(String path) throws Exception;
+
+    public void handleNodeDeleted(String path) throws Exception;
+}
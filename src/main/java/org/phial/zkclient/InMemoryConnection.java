@@ -5,6 +5,7 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,6 +15,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.zookeeper.AddWatchMode;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
@@ -50,11 +52,17 @@ public class InMemoryConnection implements IZkConnection {
         private final byte[] _data;
         private final int _version;
         private final List<ACL> _acl;
+        private final long _mzxid;
 
-        public DataAndVersion(byte[] data, int version, List<ACL> acl) {
+        public DataAndVersion(byte[] data, int version, List<ACL> acl, long mzxid) {
             _data = data;
             _version = version;
             _acl = acl;
+            _mzxid = mzxid;
+        }
+
+        public DataAndVersion(byte[] data, int version, List<ACL> acl) {
+            this(data, version, acl, 0);
         }
 
         public DataAndVersion(byte[] data, int version) {
@@ -72,22 +80,37 @@ public class InMemoryConnection implements IZkConnection {
         public List<ACL> getAcl() {
             return _acl;
         }
+
+        /**
+         * @return the transaction id of the last create or write of the data
+         */
+        public long getMzxid() {
+            return _mzxid;
+        }
     }
 
     private final Lock _lock = new ReentrantLock(true);
     private final Map<String, DataAndVersion> _data = new HashMap<>();
+    // the last transaction id handed out, guarded by _lock
+    private long _lastZxid;
     private final Map<String, Long> _creationTime = new HashMap<>();
+    // the session owning each ephemeral node, guarded by _lock
+    private final Map<String, Long> _ephemeralOwners = new HashMap<>();
+    private long _lastSessionId;
+    private volatile long _sessionId;
     private final List<Id> _ids = new ArrayList<>();
     private final AtomicInteger sequence = new AtomicInteger(0);
 
     private final Set<String> _dataWatches = new HashSet<>();
     private final Set<String> _nodeWatches = new HashSet<>();
+    private final Map<String, Map<Watcher, AddWatchMode>> _persistentWatches = new HashMap<>();
     private EventThread _eventThread;
 
     private class EventThread extends Thread {
 
         private final Watcher _watcher;
-        private final BlockingQueue<WatchedEvent> _blockingQueue = new LinkedBlockingDeque<>();
+        private final BlockingQueue<Map.Entry<Watcher, WatchedEvent>> _blockingQueue = new LinkedBlockingDeque<>();
+        private volatile boolean _stopped;
 
         public EventThread(Watcher watcher) {
             _watcher = watcher;
@@ -96,16 +119,35 @@ public class InMemoryConnection implements IZkConnection {
         @Override
         public void run() {
             try {
-                while (true) {
-                    _watcher.process(_blockingQueue.take());
+                while (!_stopped) {
+                    Map.Entry<Watcher, WatchedEvent> entry = _blockingQueue.take();
+                    if (!_stopped) {
+                        entry.getKey().process(entry.getValue());
+                    }
                 }
             } catch (InterruptedException e) {
                 // stop event thread
             }
         }
 
+        /**
+         * Stops delivering events without waiting for the event being delivered. The watcher may hold a lock the
+         * closing thread holds as well, waiting for it would deadlock.
+         */
+        public void shutdown() {
+            _stopped = true;
+            // the watcher closing the connection itself keeps its thread usable until it returns
+            if (this != Thread.currentThread()) {
+                interrupt();
+            }
+        }
+
         public void send(WatchedEvent event) {
-            _blockingQueue.add(event);
+            send(_watcher, event);
+        }
+
+        public void send(Watcher watcher, WatchedEvent event) {
+            _blockingQueue.add(new AbstractMap.SimpleEntry<>(watcher, event));
         }
     }
 
@@ -125,10 +167,22 @@ public class InMemoryConnection implements IZkConnection {
         _lock.lockInterruptibly();
         try {
             if (_eventThread != null) {
-                _eventThread.interrupt();
-                _eventThread.join();
+                _eventThread.shutdown();
                 _eventThread = null;
             }
+            // like an expired session, the ephemeral nodes of the session are gone
+            List<String> ephemerals = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : _ephemeralOwners.entrySet()) {
+                if (entry.getValue() == _sessionId) {
+                    ephemerals.add(entry.getKey());
+                }
+            }
+            for (String path : ephemerals) {
+                _data.remove(path);
+                _creationTime.remove(path);
+                _ephemeralOwners.remove(path);
+            }
+            _sessionId = 0;
         } finally {
             _lock.unlock();
         }
@@ -141,6 +195,7 @@ public class InMemoryConnection implements IZkConnection {
             if (_eventThread != null) {
                 throw new IllegalStateException("Already connected.");
             }
+            _sessionId = ++_lastSessionId;
             _eventThread = new EventThread(watcher);
             _eventThread.start();
             _eventThread.send(new WatchedEvent(null, KeeperState.SyncConnected, null));
@@ -163,10 +218,16 @@ public class InMemoryConnection implements IZkConnection {
                 throw new KeeperException.NodeExistsException();
             }
             String parentPath = getParentPath(path);
+            if (parentPath != null && !exists(parentPath, false)) {
+                throw new KeeperException.NoNodeException(path);
+            }
             checkACL(parentPath, ZooDefs.Perms.CREATE);
 
-            _data.put(path, new DataAndVersion(data, 0, acl));
+            _data.put(path, new DataAndVersion(data, 0, acl, ++_lastZxid));
             _creationTime.put(path, System.currentTimeMillis());
+            if (mode.isEphemeral()) {
+                _ephemeralOwners.put(path, _sessionId);
+            }
             checkWatch(_nodeWatches, path, EventType.NodeCreated);
             // we also need to send a child change event for the parent
             if (parentPath != null) {
@@ -203,6 +264,9 @@ public class InMemoryConnection implements IZkConnection {
             if (!exists(path, false)) {
                 throw new KeeperException.NoNodeException();
             }
+            if (!childrenOf(path).isEmpty()) {
+                throw new KeeperException.NotEmptyException(path);
+            }
             String parentPath = getParentPath(path);
             checkACL(parentPath, ZooDefs.Perms.DELETE);
             // If version isn't -1, check that it mateches
@@ -214,6 +278,7 @@ public class InMemoryConnection implements IZkConnection {
             }
             _data.remove(path);
             _creationTime.remove(path);
+            _ephemeralOwners.remove(path);
             checkWatch(_nodeWatches, path, EventType.NodeDeleted);
             if (parentPath != null) {
                 checkWatch(_nodeWatches, parentPath, EventType.NodeChildrenChanged);
@@ -250,20 +315,19 @@ public class InMemoryConnection implements IZkConnection {
         }
 
         checkACL(path, ZooDefs.Perms.READ);
+        return childrenOf(path);
+    }
+
+    private List<String> childrenOf(String path) {
         ArrayList<String> children = new ArrayList<>();
-        String[] directoryStack = path.split("/");
+        String prefix = path.endsWith("/") ? path : path + "/";
         Set<String> keySet = _data.keySet();
 
         for (String string : keySet) {
-            if (string.startsWith(path)) {
-                String[] stack = string.split("/");
-                // is one folder level below the one we loockig for and starts
-                // with path...
-                if (stack.length == directoryStack.length + 1) {
-                    children.add(stack[stack.length - 1]);
-                }
+            // exactly one level below the path, "/a/b1" is no child of "/a/b"
+            if (string.length() > prefix.length() && string.startsWith(prefix) && string.indexOf('/', prefix.length()) < 0) {
+                children.add(string.substring(prefix.length()));
             }
-
         }
         return children;
     }
@@ -295,7 +359,7 @@ public class InMemoryConnection implements IZkConnection {
             checkACL(path, ZooDefs.Perms.READ);
             byte[] bs = dataAndVersion.getData();
             if (stat != null) {
-                stat.setVersion(dataAndVersion.getVersion());
+                fillStat(path, dataAndVersion, stat);
             }
             return bs;
         } finally {
@@ -319,7 +383,7 @@ public class InMemoryConnection implements IZkConnection {
             }
             checkACL(path, ZooDefs.Perms.WRITE);
             newVersion = _data.get(path).getVersion() + 1;
-            _data.put(path, new DataAndVersion(data, newVersion));
+            _data.put(path, new DataAndVersion(data, newVersion, null, ++_lastZxid));
             String parentPath = getParentPath(path);
             if (parentPath != null) {
                 checkWatch(_nodeWatches, parentPath, EventType.NodeChildrenChanged);
@@ -333,12 +397,113 @@ public class InMemoryConnection implements IZkConnection {
     }
 
     private void checkWatch(Set<String> watches, String path, EventType eventType) {
-        if (watches.contains(path)) {
-            watches.remove(path);
-            _eventThread.send(new WatchedEvent(eventType, KeeperState.SyncConnected, path));
+        if (_eventThread == null) {
+            return;
+        }
+        // like ZooKeeper, every watcher gets an event once, even if several of its watches are triggered
+        Set<Watcher> watchers = new LinkedHashSet<>();
+        if (watches.remove(path)) {
+            watchers.add(_eventThread._watcher);
+        }
+        Map<Watcher, AddWatchMode> persistent = _persistentWatches.get(path);
+        if (persistent != null) {
+            watchers.addAll(persistent.keySet());
+        }
+        if (eventType != EventType.NodeChildrenChanged) {
+            // recursive watches are not triggered for child changes, the created or deleted child triggers them
+            for (String basePath = path; basePath != null; basePath = basePath.equals("/") ? null : getParentOrRoot(basePath)) {
+                persistent = _persistentWatches.get(basePath);
+                if (persistent != null) {
+                    for (Map.Entry<Watcher, AddWatchMode> entry : persistent.entrySet()) {
+                        if (entry.getValue() == AddWatchMode.PERSISTENT_RECURSIVE) {
+                            watchers.add(entry.getKey());
+                        }
+                    }
+                }
+            }
+        }
+        for (Watcher watcher : watchers) {
+            _eventThread.send(watcher, new WatchedEvent(eventType, KeeperState.SyncConnected, path));
+        }
+    }
+
+    private String getParentOrRoot(String path) {
+        String parentPath = getParentPath(path);
+        return parentPath == null ? "/" : parentPath;
+    }
+
+    @Override
+    public void addWatch(String basePath, Watcher watcher, AddWatchMode mode) throws KeeperException, InterruptedException {
+        _lock.lock();
+        try {
+            Map<Watcher, AddWatchMode> watches = _persistentWatches.get(basePath);
+            if (watches == null) {
+                watches = new HashMap<>();
+                _persistentWatches.put(basePath, watches);
+            }
+            watches.put(watcher, mode);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeWatches(String path, Watcher watcher) throws KeeperException {
+        _lock.lock();
+        try {
+            boolean removed = false;
+            Map<Watcher, AddWatchMode> watches = _persistentWatches.get(path);
+            if (watches != null && watches.remove(watcher) != null) {
+                removed = true;
+                if (watches.isEmpty()) {
+                    _persistentWatches.remove(path);
+                }
+            }
+            if (_eventThread != null && watcher == _eventThread._watcher) {
+                removed |= _dataWatches.remove(path);
+                removed |= _nodeWatches.remove(path);
+            }
+            if (!removed) {
+                throw KeeperException.create(Code.NOWATCHER, path);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public Stat stat(String path, boolean watch) {
+        _lock.lock();
+        try {
+            if (watch) {
+                installWatch(_nodeWatches, path);
+            }
+            DataAndVersion dataAndVersion = _data.get(path);
+            if (dataAndVersion == null) {
+                return null;
+            }
+            Stat stat = new Stat();
+            fillStat(path, dataAndVersion, stat);
+            return stat;
+        } finally {
+            _lock.unlock();
         }
     }
 
+    private void fillStat(String path, DataAndVersion dataAndVersion, Stat stat) {
+        Long creationTime = _creationTime.get(path);
+        if (creationTime != null) {
+            stat.setCtime(creationTime);
+            stat.setMtime(creationTime);
+        }
+        stat.setVersion(dataAndVersion.getVersion());
+        stat.setMzxid(dataAndVersion.getMzxid());
+        Long owner = _ephemeralOwners.get(path);
+        stat.setEphemeralOwner(owner != null ? owner : 0);
+        stat.setDataLength(dataAndVersion.getData() == null ? 0 : dataAndVersion.getData().length);
+        stat.setNumChildren(childrenOf(path).size());
+    }
+
     @Override
     public long getCreateTime(String path) {
         Long time = _creationTime.get(path);
@@ -353,6 +518,11 @@ public class InMemoryConnection implements IZkConnection {
         return "mem";
     }
 
+    @Override
+    public long getSessionId() {
+        return _sessionId;
+    }
+
     @Override
     public List<OpResult> multi(Iterable<Op> ops) throws KeeperException, InterruptedException {
         List<OpResult> opResults = new ArrayList<>();
@@ -398,7 +568,7 @@ public class InMemoryConnection implements IZkConnection {
 
         _lock.lock();
         try {
-            _data.put(path, new DataAndVersion(dataAndVersion.getData(), dataAndVersion.getVersion() + 1, acl));
+            _data.put(path, new DataAndVersion(dataAndVersion.getData(), dataAndVersion.getVersion() + 1, acl, dataAndVersion.getMzxid()));
         } finally {
             _lock.unlock();
         }
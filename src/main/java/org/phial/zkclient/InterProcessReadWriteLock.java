@@ -0,0 +1,434 @@
+package org.phial.zkclient;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs;
+import org.phial.zkclient.exception.ZkInterruptedException;
+import org.phial.zkclient.exception.ZkNoNodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-write lock shared by processes. Any number of readers or a single writer hold the lock.
+ *
+ * Each acquisition creates an ephemeral sequential node {@code read-} or {@code write-} below the lock path, the
+ * acquisitions are served in the order of these nodes. A reader waits for the writers before it, a writer for all
+ * nodes before it. Each waiter watches only the node immediately blocking it, so releasing the lock wakes the next
+ * waiters instead of all.
+ *
+ * The node name contains an id of the acquisition. A create retried after a connection loss looks for a node with the
+ * id first, so a create applied by the server whose response was lost does not leave a second node behind.
+ *
+ * A lock is lost when the session holding it expires. The lock is revoked then, see {@link Lock#isRevoked()} and
+ * {@link ILockRevocationListener}. While the client is disconnected the lock is still held as long as the session
+ * does not expire.
+ */
+public final class InterProcessReadWriteLock {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InterProcessReadWriteLock.class);
+
+    static final String READ_PREFIX = "read-";
+    static final String WRITE_PREFIX = "write-";
+
+    private final ZkClient _zkClient;
+    private final String _path;
+    private final Lock _readLock = new Lock(READ_PREFIX, true);
+    private final Lock _writeLock = new Lock(WRITE_PREFIX, false);
+
+    public InterProcessReadWriteLock(ZkClient zkClient, String path) {
+        _zkClient = zkClient;
+        _path = path;
+    }
+
+    public Lock readLock() {
+        return _readLock;
+    }
+
+    public Lock writeLock() {
+        return _writeLock;
+    }
+
+    /**
+     * One side of the read-write lock. It is not reentrant and is held by one acquisition at a time, each thread
+     * needing the lock on its own has to use an {@link InterProcessReadWriteLock} of its own.
+     */
+    public final class Lock implements IZkStateListener {
+
+        private final String _prefix;
+        private final boolean _shared;
+        private final Set<ILockRevocationListener> _revocationListeners = new CopyOnWriteArraySet<ILockRevocationListener>();
+        // not a monitor, so waiting does not pin virtual threads
+        private final ReentrantLock _lock = new ReentrantLock();
+        private final Condition _changedCondition = _lock.newCondition();
+
+        // guarded by _lock
+        private String _id;
+        private String _node;
+        private boolean _held;
+        private boolean _revoked;
+        // incremented whenever the waiting acquisition has to look at the nodes again
+        private int _changes;
+
+        private final IZkDataListener _blockerListener = new IZkDataListener() {
+
+            @Override
+            public void handleDataChange(String dataPath, Object data) {
+                // still blocking
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+                wake();
+            }
+        };
+
+        Lock(String prefix, boolean shared) {
+            _prefix = prefix;
+            _shared = shared;
+        }
+
+        /**
+         * Waits until the lock is acquired.
+         *
+         * @throws ZkInterruptedException
+         *             if interrupted while waiting, the lock is not acquired then
+         */
+        public void lock() {
+            acquire(-1);
+        }
+
+        /**
+         * Waits until the lock is acquired or the time elapsed.
+         *
+         * @return true if the lock was acquired
+         * @throws ZkInterruptedException
+         *             if interrupted while waiting, the lock is not acquired then
+         */
+        public boolean tryLock(long time, TimeUnit unit) {
+            return acquire(Math.max(0, unit.toNanos(time)));
+        }
+
+        /**
+         * Releases the lock, a revoked lock as well.
+         *
+         * @throws IllegalMonitorStateException
+         *             if the lock is not held
+         */
+        public void unlock() {
+            _lock.lock();
+            try {
+                if (!_held) {
+                    throw new IllegalMonitorStateException("Lock " + this + " is not held");
+                }
+            } finally {
+                _lock.unlock();
+            }
+            release();
+        }
+
+        /**
+         * @return true if the lock was acquired and neither unlocked nor revoked
+         */
+        public boolean isHeld() {
+            _lock.lock();
+            try {
+                return _held && !_revoked;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        /**
+         * @return true if the lock was lost with the session holding it and was not unlocked yet
+         */
+        public boolean isRevoked() {
+            _lock.lock();
+            try {
+                return _revoked;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        public boolean isShared() {
+            return _shared;
+        }
+
+        public void addRevocationListener(ILockRevocationListener listener) {
+            _revocationListeners.add(listener);
+        }
+
+        public void removeRevocationListener(ILockRevocationListener listener) {
+            _revocationListeners.remove(listener);
+        }
+
+        private boolean acquire(long timeoutNanos) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            _lock.lock();
+            try {
+                if (_node != null || _held) {
+                    throw new IllegalStateException("Lock " + this + " is already held or being acquired");
+                }
+                _id = UUID.randomUUID().toString();
+                _revoked = false;
+            } finally {
+                _lock.unlock();
+            }
+            _zkClient.subscribeStateChanges(this);
+            boolean acquired = false;
+            try {
+                acquired = waitForLock(timeoutNanos >= 0 ? deadline : -1, timeoutNanos >= 0);
+                return acquired;
+            } finally {
+                if (!acquired) {
+                    release();
+                }
+            }
+        }
+
+        private boolean waitForLock(long deadline, boolean timed) {
+            while (true) {
+                String name = createNode();
+                List<String> children = _zkClient.getChildren(_path);
+                if (!children.contains(name)) {
+                    // lost with the session, queue up again
+                    setNode(null);
+                    continue;
+                }
+                String blocker = getBlocker(children, name);
+                if (blocker == null) {
+                    _lock.lock();
+                    try {
+                        _held = true;
+                    } finally {
+                        _lock.unlock();
+                    }
+                    LOG.debug("Acquired lock " + _path + "/" + name);
+                    return true;
+                }
+
+                String blockerPath = _path + "/" + blocker;
+                int changes;
+                _lock.lock();
+                try {
+                    changes = _changes;
+                } finally {
+                    _lock.unlock();
+                }
+                _zkClient.subscribeDataChanges(blockerPath, _blockerListener);
+                try {
+                    // it might have been deleted before the subscription
+                    if (_zkClient.exists(blockerPath) && !await(changes, deadline, timed)) {
+                        return false;
+                    }
+                } finally {
+                    _zkClient.unsubscribeDataChanges(blockerPath, _blockerListener);
+                }
+            }
+        }
+
+        /**
+         * @return the name of the node of this acquisition, created if there is none
+         */
+        private String createNode() {
+            String prefix;
+            _lock.lock();
+            try {
+                if (_node != null) {
+                    return _node.substring(_path.length() + 1);
+                }
+                prefix = _prefix + _id + "-";
+            } finally {
+                _lock.unlock();
+            }
+            String node;
+            try {
+                node = createProtected(prefix);
+            } catch (ZkNoNodeException e) {
+                _zkClient.createPersistent(_path, true);
+                node = createProtected(prefix);
+            }
+            setNode(node);
+            return node.substring(_path.length() + 1);
+        }
+
+        /**
+         * Creates the node of the acquisition. A retry looks for the node first, the server may have applied an attempt
+         * whose response was lost: a second node would sit behind that one and wait for it forever.
+         */
+        private String createProtected(final String prefix) {
+            return _zkClient.retryUntilConnected(new Callable<String>() {
+                private boolean _retry;
+
+                @Override
+                public String call() throws Exception {
+                    if (_retry) {
+                        for (String child : _zkClient._connection.getChildren(_path, false)) {
+                            if (child.startsWith(prefix)) {
+                                return _path + "/" + child;
+                            }
+                        }
+                    }
+                    _retry = true;
+                    return _zkClient._connection.create(_path + "/" + prefix, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+                }
+            });
+        }
+
+        private void setNode(String node) {
+            _lock.lock();
+            try {
+                _node = node;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        /**
+         * @return the node immediately before the node of this acquisition which keeps it from holding the lock, null
+         *         if there is none
+         */
+        private String getBlocker(List<String> children, String name) {
+            long sequence = getSequence(name);
+            String blocker = null;
+            long blockerSequence = -1;
+            for (String child : children) {
+                boolean write = child.startsWith(WRITE_PREFIX);
+                if (!write && (_shared || !child.startsWith(READ_PREFIX))) {
+                    // readers do not block readers
+                    continue;
+                }
+                long childSequence = getSequence(child);
+                if (childSequence < sequence && childSequence > blockerSequence) {
+                    blocker = child;
+                    blockerSequence = childSequence;
+                }
+            }
+            return blocker;
+        }
+
+        /**
+         * @return false if the time elapsed
+         */
+        private boolean await(int changes, long deadline, boolean timed) {
+            _lock.lock();
+            try {
+                while (_changes == changes) {
+                    if (!timed) {
+                        _changedCondition.await();
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    _changedCondition.awaitNanos(remaining);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                throw new ZkInterruptedException(e);
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        private void wake() {
+            _lock.lock();
+            try {
+                _changes++;
+                _changedCondition.signalAll();
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        private void release() {
+            String node;
+            _lock.lock();
+            try {
+                node = _node;
+                _node = null;
+                _held = false;
+                _revoked = false;
+            } finally {
+                _lock.unlock();
+            }
+            _zkClient.unsubscribeStateChanges(this);
+            if (node != null) {
+                // an interrupted acquisition has to delete its node as well, a node left behind blocks all later ones
+                boolean interrupted = Thread.interrupted();
+                try {
+                    // gone already if the session expired
+                    _zkClient.delete(node);
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                LOG.debug("Released lock " + node);
+            }
+        }
+
+        @Override
+        public void handleStateChanged(KeeperState state) {
+            if (state == KeeperState.Expired) {
+                revoke();
+            }
+        }
+
+        @Override
+        public void handleNewSession() {
+            revoke();
+        }
+
+        @Override
+        public void handleSessionEstablishmentError(Throwable error) {
+            revoke();
+        }
+
+        /**
+         * The node of the acquisition is gone with the expired session: a held lock is lost, a waiting acquisition
+         * creates its node again.
+         */
+        private void revoke() {
+            String node;
+            _lock.lock();
+            try {
+                wake();
+                if (!_held || _revoked) {
+                    return;
+                }
+                _revoked = true;
+                node = _node;
+            } finally {
+                _lock.unlock();
+            }
+            LOG.warn("Lock " + node + " was revoked, its session expired");
+            for (ILockRevocationListener listener : _revocationListeners) {
+                try {
+                    listener.handleLockRevoked(this);
+                } catch (Exception e) {
+                    LOG.error("Failed to notify revocation listener " + listener + " of lock " + node, e);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "InterProcessReadWriteLock.Lock[" + _path + "/" + _prefix + "]";
+        }
+    }
+
+    private static long getSequence(String name) {
+        return Long.parseLong(name.substring(name.length() - 10));
+    }
+}
@@ -0,0 +1,67 @@
+package org.phial.zkclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long the callbacks of one listener took, tracked by the {@link ZkClient} once a slow listener threshold is
+ * {@link ZkClient#setSlowListenerThreshold(long, TimeUnit) set}.
+ */
+public final class ListenerStats {
+
+    private long _calls;
+    private long _slowCalls;
+    private long _totalNanos;
+    private long _maxNanos;
+    private volatile boolean _isolated;
+
+    /**
+     * @return the number of slow calls so far
+     */
+    synchronized long record(long nanos, boolean slow) {
+        _calls++;
+        _totalNanos += nanos;
+        if (nanos > _maxNanos) {
+            _maxNanos = nanos;
+        }
+        if (slow) {
+            _slowCalls++;
+        }
+        return _slowCalls;
+    }
+
+    void isolate() {
+        _isolated = true;
+    }
+
+    public synchronized long getCalls() {
+        return _calls;
+    }
+
+    /**
+     * @return the number of calls which took longer than the threshold
+     */
+    public synchronized long getSlowCalls() {
+        return _slowCalls;
+    }
+
+    public synchronized long getTotalTime(TimeUnit unit) {
+        return unit.convert(_totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized long getMaxTime(TimeUnit unit) {
+        return unit.convert(_maxNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if the listener is notified on the isolated executor
+     */
+    public boolean isIsolated() {
+        return _isolated;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ListenerStats[calls=" + _calls + ", slowCalls=" + _slowCalls + ", totalMillis=" + TimeUnit.NANOSECONDS.toMillis(_totalNanos) + ", maxMillis="
+                + TimeUnit.NANOSECONDS.toMillis(_maxNanos) + ", isolated=" + _isolated + "]";
+    }
+}
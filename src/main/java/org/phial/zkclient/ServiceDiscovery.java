@@ -0,0 +1,171 @@
+package org.phial.zkclient;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.phial.zkclient.serialize.ZkDataDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the instances of services registered by a {@link ServiceRegistry}. The instances of a service are kept in
+ * memory from the first request for the service on. A change of the instances only reads the added instances, with
+ * pipelined requests, and replaces an immutable snapshot, so reading the instances does not lock.
+ *
+ * The data of an instance is read once, when it appears.
+ *
+ * @param <T>
+ *            The instance type.
+ */
+public class ServiceDiscovery<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceDiscovery.class);
+
+    private final ZkClient _zkClient;
+    private final String _basePath;
+    private final ZkDataDecoder<? extends T> _decoder;
+    // services are added under the lock of the map, so each is started once
+    private final Map<String, ServiceCache> _services = new ConcurrentHashMap<String, ServiceCache>();
+
+    /**
+     * The instances of a service at one time.
+     */
+    private static final class Snapshot<T> {
+
+        private final Map<String, T> _instances;
+        private final List<T> _list;
+
+        Snapshot(Map<String, T> instances) {
+            _instances = Collections.unmodifiableMap(instances);
+            _list = Collections.unmodifiableList(new ArrayList<T>(instances.values()));
+        }
+    }
+
+    private final class ServiceCache implements IZkChildListener {
+
+        private final String _path;
+        private volatile Snapshot<T> _snapshot = new Snapshot<T>(new TreeMap<String, T>());
+        private boolean _changed;
+
+        ServiceCache(String service) {
+            _path = _basePath + "/" + service;
+        }
+
+        void start() {
+            List<String> children = _zkClient.subscribeChildChanges(_path, this);
+            synchronized (this) {
+                // a change delivered in the meantime is more recent
+                if (!_changed) {
+                    update(children);
+                }
+            }
+        }
+
+        void stop() {
+            _zkClient.unsubscribeChildChanges(_path, this);
+        }
+
+        @Override
+        public synchronized void handleChildChange(String parentPath, List<String> currentChilds) {
+            _changed = true;
+            update(currentChilds);
+        }
+
+        private synchronized void update(List<String> children) {
+            Map<String, T> current = _snapshot._instances;
+            Set<String> ids = children != null ? new HashSet<String>(children) : Collections.<String> emptySet();
+            List<String> added = new ArrayList<String>();
+            for (String id : ids) {
+                if (!current.containsKey(id)) {
+                    added.add(_path + "/" + id);
+                }
+            }
+            if (added.isEmpty() && ids.size() == current.size()) {
+                return;
+            }
+            Map<String, T> instances = new TreeMap<String, T>(current);
+            instances.keySet().retainAll(ids);
+            for (Entry<String, T> instance : _zkClient.decodeDataAll(added, new InstanceDecoder()).entrySet()) {
+                // null if removed in the meantime or not readable
+                if (instance.getValue() != null) {
+                    instances.put(instance.getKey().substring(_path.length() + 1), instance.getValue());
+                }
+            }
+            _snapshot = new Snapshot<T>(instances);
+            LOG.debug("{} instances of {}, {} added", instances.size(), _path, added.size());
+        }
+    }
+
+    /**
+     * Skips instances which cannot be decoded instead of failing the whole update.
+     */
+    private final class InstanceDecoder implements ZkDataDecoder<T> {
+
+        @Override
+        public T decode(ByteBuffer data) {
+            try {
+                return _decoder.decode(data);
+            } catch (RuntimeException e) {
+                // a pluggable decoder may fail with any exception
+                LOG.error("Failed to decode a service instance, skipping it", e);
+                return null;
+            }
+        }
+    }
+
+    public ServiceDiscovery(ZkClient zkClient, String basePath, ZkDataDecoder<? extends T> decoder) {
+        _zkClient = zkClient;
+        _basePath = basePath;
+        _decoder = decoder;
+    }
+
+    /**
+     * Stops keeping the instances of all services.
+     */
+    public void stop() {
+        synchronized (_services) {
+            for (ServiceCache service : _services.values()) {
+                service.stop();
+            }
+            _services.clear();
+        }
+    }
+
+    /**
+     * @return the instances of the service, sorted by their id. The list is not modified by later changes.
+     */
+    public List<T> getInstances(String service) {
+        return getService(service)._snapshot._list;
+    }
+
+    /**
+     * @return the instances of the service by their id. The map is not modified by later changes.
+     */
+    public Map<String, T> getInstanceMap(String service) {
+        return getService(service)._snapshot._instances;
+    }
+
+    private ServiceCache getService(String service) {
+        ServiceCache cache = _services.get(service);
+        if (cache != null) {
+            return cache;
+        }
+        synchronized (_services) {
+            cache = _services.get(service);
+            if (cache == null) {
+                cache = new ServiceCache(service);
+                cache.start();
+                _services.put(service, cache);
+            }
+            return cache;
+        }
+    }
+}
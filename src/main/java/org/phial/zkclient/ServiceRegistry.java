@@ -0,0 +1,75 @@
+package org.phial.zkclient;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.phial.zkclient.serialize.ZkTypedSerializer;
+
+/**
+ * Registers the instances of services for a {@link ServiceDiscovery}. Each instance is an ephemeral node
+ * {@code <basePath>/<service>/<instanceId>} holding the instance serialized with the given serializer. The nodes are
+ * kept by an {@link EphemeralNodeManager}, so they are created again in a new session.
+ *
+ * @param <T>
+ *            The instance type.
+ */
+public class ServiceRegistry<T> {
+
+    private final String _basePath;
+    private final ZkTypedSerializer<? super T> _serializer;
+    private final EphemeralNodeManager _nodes;
+
+    public ServiceRegistry(ZkClient zkClient, String basePath, ZkTypedSerializer<? super T> serializer) {
+        _basePath = basePath;
+        _serializer = serializer;
+        _nodes = new EphemeralNodeManager(zkClient);
+    }
+
+    /**
+     * Starts registering the instances again in new sessions.
+     */
+    public void start() {
+        _nodes.start();
+    }
+
+    /**
+     * Stops registering the instances again in new sessions, the registered instances are left until the session ends.
+     */
+    public void stop() {
+        _nodes.stop();
+    }
+
+    /**
+     * Registers an instance. Discovery reads an instance once, to change it register it under another id.
+     */
+    public void register(String service, String instanceId, T instance) {
+        registerAll(service, Collections.singletonMap(instanceId, instance));
+    }
+
+    /**
+     * Registers many instances of a service in pipelined batches.
+     *
+     * @param instances
+     *            the instances by id
+     */
+    public void registerAll(String service, Map<String, ? extends T> instances) {
+        Map<String, byte[]> data = new LinkedHashMap<String, byte[]>();
+        for (Entry<String, ? extends T> instance : instances.entrySet()) {
+            data.put(getInstancePath(service, instance.getKey()), _serializer.serialize(instance.getValue()));
+        }
+        _nodes.registerAllRaw(data);
+    }
+
+    /**
+     * @return false if the instance was not registered
+     */
+    public boolean unregister(String service, String instanceId) {
+        return _nodes.unregister(getInstancePath(service, instanceId));
+    }
+
+    private String getInstancePath(String service, String instanceId) {
+        return _basePath + "/" + service + "/" + instanceId;
+    }
+}
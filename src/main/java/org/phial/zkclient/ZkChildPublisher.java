@@ -0,0 +1,56 @@
+package org.phial.zkclient;
+
+import java.util.List;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+/**
+ * Publishes the children of a node as a reactive stream, conflating changes the same way as {@link ZkDataPublisher}:
+ * a subscriber without outstanding demand only gets the latest list of children once it requests more. The stream
+ * does not complete, cancel the subscription to unsubscribe from the client.
+ */
+public class ZkChildPublisher implements Publisher<ZkNodeState<List<String>>> {
+
+    private final ZkClient _zkClient;
+    private final String _path;
+
+    public ZkChildPublisher(ZkClient zkClient, String path) {
+        _zkClient = zkClient;
+        _path = path;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ZkNodeState<List<String>>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        new ChildSubscription(_zkClient, _path, subscriber).start();
+    }
+
+    private static class ChildSubscription extends ConflatingSubscription<List<String>> implements IZkChildListener {
+
+        ChildSubscription(ZkClient zkClient, String path, Subscriber<? super ZkNodeState<List<String>>> subscriber) {
+            super(zkClient, path, subscriber);
+        }
+
+        @Override
+        protected ZkNodeState<List<String>> subscribe() {
+            return toState(_path, _zkClient.subscribeChildChanges(_path, this));
+        }
+
+        @Override
+        protected void unsubscribe() {
+            _zkClient.unsubscribeChildChanges(_path, this);
+        }
+
+        @Override
+        public void handleChildChange(String parentPath, List<String> currentChilds) {
+            offer(toState(parentPath, currentChilds));
+        }
+
+        private static ZkNodeState<List<String>> toState(String path, List<String> children) {
+            return new ZkNodeState<List<String>>(path, children, children != null);
+        }
+    }
+}
@@ -3,7 +3,15 @@ package org.phial.zkclient;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,16 +19,22 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.security.auth.login.Configuration;
 
 import org.phial.zkclient.exception.*;
 import org.phial.zkclient.serialize.SerializableSerializer;
+import org.phial.zkclient.serialize.ZkDataDecoder;
 import org.phial.zkclient.serialize.ZkSerializer;
+import org.phial.zkclient.serialize.ZkTypedSerializer;
 import org.phial.zkclient.util.ZkPathUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
@@ -44,12 +58,41 @@ public class ZkClient implements Watcher {
     protected static final String JAVA_LOGIN_CONFIG_PARAM = "java.security.auth.login.config";
     protected static final String ZK_SASL_CLIENT = "zookeeper.sasl.client";
     protected static final String ZK_LOGIN_CONTEXT_NAME_KEY = "zookeeper.sasl.clientconfig";
+    static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int MAX_BULK_ATTEMPTS = 10;
 
     protected final IZkConnection _connection;
     protected final long _operationRetryTimeoutInMillis;
     private final Map<String, Set<IZkChildListener>> _childListener = new ConcurrentHashMap<String, Set<IZkChildListener>>();
     private final ConcurrentHashMap<String, Set<IZkDataListener>> _dataListener = new ConcurrentHashMap<String, Set<IZkDataListener>>();
     private final Set<IZkStateListener> _stateListener = new CopyOnWriteArraySet<IZkStateListener>();
+    private final ConcurrentHashMap<String, Set<IZkSubtreeListener>> _subtreeListener = new ConcurrentHashMap<String, Set<IZkSubtreeListener>>();
+    // paths of data and child listeners having a persistent watch, their events need no re-subscription
+    private final Set<String> _persistentWatches = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // paths of subtree listeners having their persistent recursive watch
+    private final Set<String> _recursiveWatches = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // held while the watch mode of a path is changed, ZooKeeper keeps one mode per path and session
+    private final ReentrantLock _watchModeLock = new ReentrantLock();
+    private volatile boolean _persistentWatchesUnsupported;
+    private volatile long _lastWatchRecoveryMillis = -1;
+    // the states being read by restoreWatches, marked when a change event of their path is queued meanwhile
+    private volatile Map<String, RestoredState> _restoredStates = Collections.emptyMap();
+    private volatile long _disconnectedNanos;
+    private volatile Executor _eventExecutor;
+    private volatile int _eventQueueCapacity = Integer.MAX_VALUE;
+    private volatile EventOverflowPolicy _eventOverflowPolicy = EventOverflowPolicy.BLOCK;
+    private volatile long _slowListenerNanos;
+    private volatile int _isolateAfterSlowCalls;
+    private volatile Executor _isolatedListenerExecutor;
+    private final ContentWatcherRegistry _contentWatchers = new ContentWatcherRegistry(this);
+    private final Watcher _subtreeWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            ZkEventThread.markWatcherThread();
+            processSubtreeEvent(event);
+            processCoveredEvent(event);
+        }
+    };
     private KeeperState _currentState;
     private final ZkLock _zkEventLock = new ZkLock();
     private boolean _shutdownTriggered;
@@ -139,6 +182,107 @@ public class ZkClient implements Watcher {
         _zkSerializer = zkSerializer;
     }
 
+    /**
+     * Notifies the listeners on the given executor instead of the single event thread of the client. The notifications
+     * of a path (of a subscription for subtree listeners) are still delivered one after another in order, those of
+     * different paths may be delivered concurrently, so a listener blocking in its callback does not hold up the others.
+     * State notifications share one lane of their own.
+     *
+     * With Java 21+ {@link org.phial.zkclient.util.VirtualThreads#newVirtualThreadPerTaskExecutor()} runs every lane on a virtual thread.
+     *
+     * @param executor
+     *            the executor, null to use the event thread again. The client does not shut it down.
+     */
+    public void setEventExecutor(Executor executor) {
+        _eventExecutor = executor;
+        ZkEventThread eventThread = _eventThread;
+        if (eventThread != null) {
+            eventThread.setExecutor(executor);
+        }
+    }
+
+    /**
+     * Bounds the number of listener notifications waiting to be delivered, by default they are not bounded. During a
+     * watch storm, e.g. after a reconnect, the queue otherwise grows as long as the listeners are behind.
+     *
+     * @param capacity
+     *            the number of notifications queued at most, for all paths together
+     * @param overflowPolicy
+     *            what happens to a notification when the queue is full
+     */
+    public void setEventQueue(int capacity, EventOverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        _eventQueueCapacity = capacity;
+        _eventOverflowPolicy = overflowPolicy;
+        ZkEventThread eventThread = _eventThread;
+        if (eventThread != null) {
+            eventThread.setQueue(capacity, overflowPolicy);
+        }
+    }
+
+    /**
+     * @return the number of listener notifications dropped by {@link EventOverflowPolicy#DROP_OLDEST} since the client
+     *         connected
+     */
+    public long getDroppedEventCount() {
+        ZkEventThread eventThread = _eventThread;
+        return eventThread != null ? eventThread.getDroppedEvents() : 0;
+    }
+
+    /**
+     * Tracks the time each listener takes to handle its notifications and logs a warning for each notification which
+     * took longer than the threshold, see {@link #getListenerStats()}.
+     *
+     * @param time
+     *            the threshold, 0 to stop tracking the listeners
+     */
+    public void setSlowListenerThreshold(long time, TimeUnit unit) {
+        _slowListenerNanos = unit.toNanos(time);
+        ZkEventThread eventThread = _eventThread;
+        if (eventThread != null) {
+            eventThread.setSlowListenerThreshold(_slowListenerNanos);
+        }
+    }
+
+    /**
+     * Moves listeners which were repeatedly slow to another executor, so they no longer delay the notifications of the
+     * other listeners. The notifications of an isolated listener are still delivered one after another in the order
+     * they were sent. Requires a {@link #setSlowListenerThreshold(long, TimeUnit) slow listener threshold}.
+     *
+     * @param slowCalls
+     *            the number of slow notifications after which a listener is isolated
+     * @param executor
+     *            notifies the isolated listeners, null not to isolate listeners. The client does not shut it down.
+     */
+    public void setSlowListenerIsolation(int slowCalls, Executor executor) {
+        if (slowCalls < 1) {
+            throw new IllegalArgumentException("slowCalls must be positive: " + slowCalls);
+        }
+        _isolateAfterSlowCalls = slowCalls;
+        _isolatedListenerExecutor = executor;
+        ZkEventThread eventThread = _eventThread;
+        if (eventThread != null) {
+            eventThread.setIsolation(slowCalls, executor);
+        }
+    }
+
+    /**
+     * @return the time taken by each listener notified since a slow listener threshold was set, keyed by the listener
+     */
+    public Map<Object, ListenerStats> getListenerStats() {
+        ZkEventThread eventThread = _eventThread;
+        return eventThread != null ? eventThread.getListenerStats() : Collections.<Object, ListenerStats> emptyMap();
+    }
+
+    /**
+     * @return the registry sharing one {@link ContentWatcher} per path between all consumers of this client
+     */
+    public ContentWatcherRegistry getContentWatchers() {
+        return _contentWatchers;
+    }
+
     public List<String> subscribeChildChanges(String path, IZkChildListener listener) {
         synchronized (_childListener) {
             Set<IZkChildListener> listeners = _childListener.get(path);
@@ -148,6 +292,7 @@ public class ZkClient implements Watcher {
             }
             listeners.add(listener);
         }
+        addPersistentWatch(path);
         return watchForChilds(path);
     }
 
@@ -158,6 +303,7 @@ public class ZkClient implements Watcher {
                 listeners.remove(childListener);
             }
         }
+        removePersistentWatchIfUnused(path);
     }
 
     public void subscribeDataChanges(String path, IZkDataListener listener) {
@@ -170,6 +316,7 @@ public class ZkClient implements Watcher {
             }
             listeners.add(listener);
         }
+        addPersistentWatch(path);
         watchForData(path);
         LOG.debug("Subscribed data changes for " + path);
     }
@@ -184,6 +331,61 @@ public class ZkClient implements Watcher {
                 _dataListener.remove(path);
             }
         }
+        removePersistentWatchIfUnused(path);
+    }
+
+    /**
+     * Subscribes the listener for creations, data changes and deletions of the given path and all nodes below it. One
+     * persistent recursive watch is registered for the path, no matter how many nodes are below it, and it is never
+     * re-subscribed, so no event between two others is missed. Requires a ZooKeeper 3.6+ server.
+     *
+     * @throws ZkException
+     *             if the connection does not support persistent watches
+     */
+    public void subscribeSubtreeChanges(final String path, IZkSubtreeListener listener) {
+        boolean first;
+        synchronized (_subtreeListener) {
+            Set<IZkSubtreeListener> listeners = _subtreeListener.get(path);
+            first = listeners == null;
+            if (first) {
+                listeners = new CopyOnWriteArraySet<IZkSubtreeListener>();
+                _subtreeListener.put(path, listeners);
+            }
+            listeners.add(listener);
+        }
+        // not holding the monitor while waiting for the server, that would pin a virtual thread
+        if (first) {
+            try {
+                updateSubtreeWatch(path);
+            } catch (RuntimeException e) {
+                removeSubtreeListener(path, listener);
+                throw e;
+            }
+        }
+        LOG.debug("Subscribed subtree changes for " + path);
+    }
+
+    public void unsubscribeSubtreeChanges(String path, IZkSubtreeListener listener) {
+        if (removeSubtreeListener(path, listener)) {
+            updateSubtreeWatch(path);
+        }
+    }
+
+    /**
+     * @return true if the path has no listeners left
+     */
+    private boolean removeSubtreeListener(String path, IZkSubtreeListener listener) {
+        synchronized (_subtreeListener) {
+            final Set<IZkSubtreeListener> listeners = _subtreeListener.get(path);
+            if (listeners != null) {
+                listeners.remove(listener);
+                if (listeners.isEmpty()) {
+                    _subtreeListener.remove(path);
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     public void subscribeStateChanges(final IZkStateListener listener) {
@@ -208,6 +410,126 @@ public class ZkClient implements Watcher {
         synchronized (_stateListener) {
             _stateListener.clear();
         }
+        List<String> subtreePaths;
+        synchronized (_subtreeListener) {
+            subtreePaths = new ArrayList<String>(_subtreeListener.keySet());
+            _subtreeListener.clear();
+        }
+        for (String path : subtreePaths) {
+            updateSubtreeWatch(path);
+        }
+        for (String path : _persistentWatches) {
+            removePersistentWatchIfUnused(path);
+        }
+    }
+
+    private void addWatch(final String path, final Watcher watcher, final AddWatchMode mode) {
+        retryUntilConnected(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                _connection.addWatch(path, watcher, mode);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Removes the watches without waiting for a connection: ZooKeeper drops them on the client anyway and a server
+     * sending one more event does no harm.
+     */
+    private void removeWatches(String path, Watcher watcher) {
+        try {
+            _connection.removeWatches(path, watcher);
+        } catch (KeeperException.NoWatcherException e) {
+            // already gone, e.g. after a session expiry
+        } catch (Exception e) {
+            LOG.warn("Failed to remove watches of " + path, e);
+        }
+    }
+
+    /**
+     * Replaces the one time watches of data and child listeners by a persistent watch which does not have to be
+     * re-subscribed after each event. Connections without persistent watches keep using one time watches.
+     */
+    private void addPersistentWatch(String path) {
+        if (_persistentWatchesUnsupported || _persistentWatches.contains(path)) {
+            return;
+        }
+        _watchModeLock.lock();
+        try {
+            if (_persistentWatches.contains(path)) {
+                return;
+            }
+            // a path with a subtree listener already has a recursive watch, a second mode would replace it
+            if (!_recursiveWatches.contains(path)) {
+                addWatch(path, this, AddWatchMode.PERSISTENT);
+            }
+            _persistentWatches.add(path);
+        } catch (ZkException e) {
+            if (!(e.getCause() instanceof KeeperException.UnimplementedException)) {
+                throw e;
+            }
+            LOG.info("Persistent watches are not supported by " + _connection.getServers() + ", using one time watches");
+            _persistentWatchesUnsupported = true;
+        } finally {
+            _watchModeLock.unlock();
+        }
+    }
+
+    private void removePersistentWatchIfUnused(String path) {
+        if (!_persistentWatches.contains(path) || hasListeners(path)) {
+            return;
+        }
+        _watchModeLock.lock();
+        try {
+            if (_persistentWatches.remove(path) && !_recursiveWatches.contains(path)) {
+                removeWatches(path, this);
+            }
+        } finally {
+            _watchModeLock.unlock();
+        }
+    }
+
+    /**
+     * Sets or removes the recursive watch of a path as its subtree listeners require. ZooKeeper keeps one watch mode per
+     * path and session, so the data and child listeners of the path drop their persistent watch while it has a
+     * recursive one and are served from its events, see {@link #processCoveredEvent(WatchedEvent)}. They get their
+     * persistent watch back before the recursive one is removed.
+     */
+    private void updateSubtreeWatch(String path) {
+        _watchModeLock.lock();
+        try {
+            boolean subscribed = _subtreeListener.containsKey(path);
+            if (subscribed && !_recursiveWatches.contains(path)) {
+                addWatch(path, _subtreeWatcher, AddWatchMode.PERSISTENT_RECURSIVE);
+                _recursiveWatches.add(path);
+                if (_persistentWatches.contains(path)) {
+                    removeWatches(path, this);
+                }
+            } else if (!subscribed && _recursiveWatches.contains(path)) {
+                if (_persistentWatches.contains(path) && hasListeners(path)) {
+                    addWatch(path, this, AddWatchMode.PERSISTENT);
+                } else {
+                    _persistentWatches.remove(path);
+                }
+                _recursiveWatches.remove(path);
+                removeWatches(path, _subtreeWatcher);
+            }
+        } finally {
+            _watchModeLock.unlock();
+        }
+    }
+
+    private boolean hasPersistentWatch(String path) {
+        return _persistentWatches.contains(path);
+    }
+
+    /**
+     * ZooKeeper keeps one watch per path and watcher: a one time watch set on a path with a persistent watch replaces
+     * it, so paths with a persistent watch must not get one time watches.
+     */
+    private boolean needsWatch(String path) {
+        return hasListeners(path) && !hasPersistentWatch(path);
     }
 
     // </listeners>
@@ -284,6 +606,199 @@ public class ZkClient implements Watcher {
         }
     }
 
+    public void createPersistentBulk(Map<String, ?> nodes) {
+        createPersistentBulk(nodes, ZooDefs.Ids.OPEN_ACL_UNSAFE, DEFAULT_BATCH_SIZE, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates many persistent nodes, together with their missing parents, with far less round trips than
+     * {@link #createPersistent(String, Object)}. The nodes are ordered by depth and created in pipelined
+     * {@link #multi(Iterable)} batches. Parents shared by several nodes are only created once, without data.
+     *
+     * Nodes that exist already are left unchanged, like {@link #createPersistent(String, boolean)} does. The existing
+     * parents are looked up first with {@link #statAll(Collection)} and not created again, a batch containing an
+     * existing node is created node by node.
+     *
+     * @param nodes
+     *            the data of each node by path, the data may be null
+     * @param acl
+     *            the ACL of all created nodes
+     * @param batchSize
+     *            the maximum number of creates in one multi request
+     * @param maxInFlight
+     *            the maximum number of requests sent without having their response
+     * @throws ZkException
+     *             with {@link KeeperException.Code#NONODE} if parents kept being deleted concurrently
+     */
+    public void createPersistentBulk(Map<String, ?> nodes, List<ACL> acl, int batchSize, int maxInFlight) {
+        Map<String, byte[]> data = new HashMap<String, byte[]>();
+        for (Entry<String, ?> node : nodes.entrySet()) {
+            data.put(node.getKey(), node.getValue() == null ? null : serialize(node.getValue()));
+        }
+        createPersistentBulkRaw(data, acl, batchSize, maxInFlight);
+    }
+
+    /**
+     * {@link #createPersistentBulk(Map, List, int, int)} for data which is already serialized.
+     */
+    void createPersistentBulkRaw(Map<String, byte[]> data, List<ACL> acl, int batchSize, int maxInFlight) {
+        createPersistentBulkRaw(data, acl, batchSize, maxInFlight, new HashSet<String>());
+    }
+
+    /**
+     * @param existingPaths
+     *            paths known to exist, they are not created. The created paths are added, so consecutive calls for parts
+     *            of one tree create each parent once.
+     */
+    void createPersistentBulkRaw(final Map<String, byte[]> data, List<ACL> acl, int batchSize, int maxInFlight, Set<String> existingPaths) {
+        if (acl == null || acl.size() == 0) {
+            throw new NullPointerException("Missing value for ACL");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        for (String path : data.keySet()) {
+            if (path == null) {
+                throw new NullPointerException("Missing value for path");
+            }
+        }
+        existingPaths.add("/");
+        addExistingParents(data.keySet(), existingPaths, maxInFlight);
+        Set<String> knownPaths = new HashSet<String>(existingPaths);
+        List<String> paths = new ArrayList<String>();
+        for (String path : data.keySet()) {
+            // the node and those of its parents no other node has in common
+            while (path.length() > 0 && knownPaths.add(path)) {
+                paths.add(path);
+                path = path.substring(0, path.lastIndexOf('/'));
+            }
+        }
+        List<String> created = new ArrayList<String>(paths);
+        for (int attempt = 0; attempt < MAX_BULK_ATTEMPTS; attempt++) {
+            Collections.sort(paths, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    int result = Integer.compare(depth(a), depth(b));
+                    return result != 0 ? result : a.compareTo(b);
+                }
+            });
+            paths = createTopDown(paths, data, acl, batchSize, maxInFlight);
+            if (paths.isEmpty()) {
+                existingPaths.addAll(created);
+                return;
+            }
+            LOG.debug("Parents of " + paths.size() + " nodes were missing, retrying");
+        }
+        throw ZkException.create(KeeperException.create(KeeperException.Code.NONODE, paths.get(0)));
+    }
+
+    /**
+     * Adds the parents of the paths which exist to the existing paths. A batch containing one of them would be rolled
+     * back, together with all batches below it already sent. The parents are read level by level upwards until one
+     * exists, its ancestors exist as well.
+     */
+    private void addExistingParents(Collection<String> paths, Set<String> existingPaths, int maxInFlight) {
+        Set<String> parents = new HashSet<String>();
+        for (String path : paths) {
+            String parent = parentOf(path);
+            if (parent != null && !existingPaths.contains(parent)) {
+                parents.add(parent);
+            }
+        }
+        while (!parents.isEmpty()) {
+            Set<String> missing = new HashSet<String>();
+            for (Entry<String, Stat> entry : statAll(parents, maxInFlight).entrySet()) {
+                String parent = entry.getKey();
+                if (entry.getValue() != null) {
+                    String path = parent;
+                    while (path != null && existingPaths.add(path)) {
+                        path = parentOf(path);
+                    }
+                } else if (parentOf(parent) != null) {
+                    missing.add(parentOf(parent));
+                }
+            }
+            missing.removeAll(existingPaths);
+            parents = missing;
+        }
+    }
+
+    /**
+     * Creates the paths (ordered parents first) in batches. Since ZooKeeper processes the requests of a session in
+     * order, a batch is only sent after the batches containing the parents of its nodes.
+     *
+     * @return the paths which could not be created because their parent was missing
+     */
+    private List<String> createTopDown(List<String> paths, final Map<String, byte[]> data, final List<ACL> acl, int batchSize, int maxInFlight) {
+        final List<String> missingParent = new ArrayList<String>();
+        final ZkPipeline pipeline = new ZkPipeline(this, maxInFlight);
+        for (int i = 0; i < paths.size(); i += batchSize) {
+            final List<String> batch = paths.subList(i, Math.min(paths.size(), i + batchSize));
+            pipeline.submit(new ZkPipeline.Request(batch.get(0)) {
+                @Override
+                void send(IZkConnection connection) {
+                    List<Op> ops = new ArrayList<Op>(batch.size());
+                    for (String path : batch) {
+                        ops.add(Op.create(path, data.get(path), acl, CreateMode.PERSISTENT));
+                    }
+                    connection.multi(ops, new AsyncCallback.MultiCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, List<OpResult> results) {
+                            done(rc);
+                        }
+                    }, null);
+                }
+
+                @Override
+                void completed(KeeperException.Code code) throws KeeperException {
+                    if (code == KeeperException.Code.NODEEXISTS || code == KeeperException.Code.NONODE) {
+                        // the batch is rolled back, create its nodes one by one
+                        for (String path : batch) {
+                            pipeline.submit(new CreateRequest(path, data.get(path), acl, missingParent));
+                        }
+                        return;
+                    }
+                    super.completed(code);
+                }
+            });
+        }
+        pipeline.execute();
+        return missingParent;
+    }
+
+    private static final class CreateRequest extends ZkPipeline.Request {
+
+        private final byte[] _data;
+        private final List<ACL> _acl;
+        private final List<String> _missingParent;
+
+        CreateRequest(String path, byte[] data, List<ACL> acl, List<String> missingParent) {
+            super(path);
+            _data = data;
+            _acl = acl;
+            _missingParent = missingParent;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            connection.create(_path, _data, _acl, CreateMode.PERSISTENT, new AsyncCallback.StringCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, String name) {
+                    done(rc);
+                }
+            }, null);
+        }
+
+        @Override
+        void completed(KeeperException.Code code) throws KeeperException {
+            if (code == KeeperException.Code.NONODE) {
+                _missingParent.add(_path);
+            } else if (code != KeeperException.Code.NODEEXISTS) {
+                super.completed(code);
+            }
+        }
+    }
+
     /**
      * Sets the acl on path
      *
@@ -590,8 +1105,9 @@ public class ZkClient implements Watcher {
 
     @Override
     public void process(WatchedEvent event) {
-        LOG.debug("Received event: " + event);
+        LOG.debug("Received event: {}", event);
         _zookeeperEventThread = Thread.currentThread();
+        ZkEventThread.markWatcherThread();
 
         boolean stateChanged = event.getPath() == null;
         boolean znodeChanged = event.getPath() != null;
@@ -603,7 +1119,7 @@ public class ZkClient implements Watcher {
 
             // We might have to install child change event listener if a new node was created
             if (getShutdownTrigger()) {
-                LOG.debug("ignoring event '{" + event.getType() + " | " + event.getPath() + "}' since shutdown triggered");
+                LOG.debug("ignoring event '{{} | {}}' since shutdown triggered", event.getType(), event.getPath());
                 return;
             }
             if (stateChanged) {
@@ -639,104 +1155,539 @@ public class ZkClient implements Watcher {
     }
 
     private void fireAllEvents() {
-        for (Entry<String, Set<IZkChildListener>> entry : _childListener.entrySet()) {
-            fireChildChangedEvents(entry.getKey(), entry.getValue());
-        }
-        for (Entry<String, Set<IZkDataListener>> entry : _dataListener.entrySet()) {
-            fireDataChangedEvents(entry.getKey(), entry.getValue());
-        }
-    }
+        final long expiredNanos = System.nanoTime();
+        _eventThread.send(new ZkEventThread.ZkEvent("Re-establishing watches after session expiry") {
 
-    public List<String> getChildren(String path) {
-        return getChildren(path, hasListeners(path));
-    }
-
-    protected List<String> getChildren(final String path, final boolean watch) {
-        return retryUntilConnected(new Callable<List<String>>() {
             @Override
-            public List<String> call() throws Exception {
-                return _connection.getChildren(path, watch);
+            public void run() throws Exception {
+                try {
+                    restoreWatches(true, expiredNanos);
+                } catch (ZkException e) {
+                    LOG.warn("Failed to re-establish watches with pipelined requests, re-subscribing one by one", e);
+                    restorePersistentWatches();
+                    for (Entry<String, Set<IZkChildListener>> entry : _childListener.entrySet()) {
+                        fireChildChangedEvents(entry.getKey(), entry.getValue());
+                    }
+                    for (Entry<String, Set<IZkDataListener>> entry : _dataListener.entrySet()) {
+                        fireDataChangedEvents(entry.getKey(), entry.getValue());
+                    }
+                }
             }
         });
     }
 
     /**
-     * Counts number of children for the given path.
-     *
-     * @param path
-     * @return number of children or 0 if path does not exist.
+     * Sets the persistent watches of a new session one by one. The listeners of a path whose watch fails fall back to
+     * one time watches, which they set again when notified.
      */
-    public int countChildren(String path) {
+    private void restorePersistentWatches() {
+        _watchModeLock.lock();
         try {
-            return getChildren(path).size();
-        } catch (ZkNoNodeException e) {
-            return 0;
+            for (String path : _recursiveWatches) {
+                try {
+                    addWatch(path, _subtreeWatcher, AddWatchMode.PERSISTENT_RECURSIVE);
+                } catch (ZkException e) {
+                    LOG.warn("Failed to re-establish subtree watch of " + path, e);
+                    _persistentWatches.remove(path);
+                }
+            }
+            for (String path : _persistentWatches) {
+                if (_recursiveWatches.contains(path)) {
+                    continue;
+                }
+                try {
+                    addWatch(path, this, AddWatchMode.PERSISTENT);
+                } catch (ZkException e) {
+                    LOG.warn("Failed to re-establish persistent watch of " + path + ", using one time watches", e);
+                    _persistentWatches.remove(path);
+                }
+            }
+        } finally {
+            _watchModeLock.unlock();
         }
     }
 
-    protected boolean exists(final String path, final boolean watch) {
-        return retryUntilConnected(new Callable<Boolean>() {
+    /**
+     * ZooKeeper sets the watches of the session again after a reconnect and reports the changes missed by one time
+     * watches, but not those missed by persistent watches. The listeners of paths with a persistent watch are caught up
+     * here.
+     */
+    private void fireReconnectEvents() {
+        final long disconnectedNanos = _disconnectedNanos;
+        if (_persistentWatches.isEmpty()) {
+            return;
+        }
+        _eventThread.send(new ZkEventThread.ZkEvent("Catching up persistent watches after reconnect") {
+
             @Override
-            public Boolean call() throws Exception {
-                return _connection.exists(path, watch);
+            public void run() throws Exception {
+                restoreWatches(false, disconnectedNanos);
             }
         });
     }
 
-    public boolean exists(final String path) {
-        return exists(path, hasListeners(path));
-    }
-
-    private void processStateChanged(WatchedEvent event) {
-        LOG.info("zookeeper state changed (" + event.getState() + ")");
-        setCurrentState(event.getState());
-        if (getShutdownTrigger()) {
-            return;
+    /**
+     * A new session has none of the watches of the expired one. They are all set again with pipelined requests,
+     * persistent watches first, then the paths with the most listeners. After a reconnect within the same session only
+     * the paths with a persistent watch are read. Every listener is notified once with the state read, as anything
+     * might have changed in between. A listener having a change event of the path queued while the state was read
+     * reads the path again instead, the state read might be older than the change.
+     */
+    private void restoreWatches(boolean newSession, long startNanos) {
+        final Map<String, RestoredState> states = new HashMap<String, RestoredState>();
+        List<String> paths = new ArrayList<String>();
+        for (Entry<String, Set<IZkChildListener>> entry : _childListener.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                paths.add(entry.getKey());
+            }
         }
-        fireStateChangedEvent(event.getState());
-        if (event.getState() == KeeperState.Expired) {
-            try {
-                reconnect();
-                fireNewSessionEvents();
-            } catch (final Exception e) {
-                LOG.info("Unable to re-establish connection. Notifying consumer of the following exception: ", e);
-                fireSessionEstablishmentError(e);
+        for (String path : _dataListener.keySet()) {
+            if (!_childListener.containsKey(path) || _childListener.get(path).isEmpty()) {
+                paths.add(path);
             }
         }
-    }
+        if (!newSession) {
+            paths.retainAll(_persistentWatches);
+        }
+        Collections.sort(paths, new Comparator<String>() {
+            @Override
+            public int compare(String path1, String path2) {
+                int diff = listenerCount(path2) - listenerCount(path1);
+                return diff != 0 ? diff : path1.compareTo(path2);
+            }
+        });
 
-    private void fireNewSessionEvents() {
-        for (final IZkStateListener stateListener : _stateListener) {
-            _eventThread.send(new ZkEventThread.ZkEvent("New session event sent to " + stateListener) {
+        ZkPipeline pipeline = new ZkPipeline(this, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+        if (newSession) {
+            // ZooKeeper applies the requests in order, so the watches are set before the nodes are read
+            for (String path : _persistentWatches) {
+                if (!_recursiveWatches.contains(path)) {
+                    pipeline.submit(new AddWatchRequest(path, this, AddWatchMode.PERSISTENT));
+                }
+            }
+            for (String path : _recursiveWatches) {
+                pipeline.submit(new AddWatchRequest(path, _subtreeWatcher, AddWatchMode.PERSISTENT_RECURSIVE));
+            }
+        }
+        for (String path : paths) {
+            final boolean watch = !hasPersistentWatch(path);
+            final RestoredState state = new RestoredState();
+            states.put(path, state);
+            if (watch) {
+                // an exists watch is set even if the node is missing and reports its creation
+                pipeline.submit(new ZkPipeline.Request(path) {
+                    @Override
+                    void send(IZkConnection connection) {
+                        connection.stat(_path, true, new AsyncCallback.StatCallback() {
+                            @Override
+                            public void processResult(int rc, String path, Object ctx, Stat stat) {
+                                done(rc);
+                            }
+                        }, null);
+                    }
+
+                    @Override
+                    void completed(KeeperException.Code code) throws KeeperException {
+                        if (code != KeeperException.Code.NONODE) {
+                            super.completed(code);
+                        }
+                    }
+                });
+            }
+            if (_dataListener.containsKey(path)) {
+                pipeline.submit(new ZkPipeline.Request(path) {
+                    private volatile byte[] _data;
+                    private volatile Stat _stat;
+
+                    @Override
+                    void send(IZkConnection connection) {
+                        connection.readData(_path, false, new AsyncCallback.DataCallback() {
+                            @Override
+                            public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                                _data = data;
+                                _stat = stat;
+                                done(rc);
+                            }
+                        }, null);
+                    }
+
+                    @Override
+                    void completed(KeeperException.Code code) throws KeeperException {
+                        if (code != KeeperException.Code.NONODE) {
+                            super.completed(code);
+                            state._exists = true;
+                            state._data = _data;
+                            state._stat = _stat;
+                        }
+                    }
+                });
+            }
+            if (_childListener.containsKey(path)) {
+                pipeline.submit(new ZkPipeline.Request(path) {
+                    private volatile List<String> _children;
+
+                    @Override
+                    void send(IZkConnection connection) {
+                        connection.getChildren(_path, watch, new AsyncCallback.ChildrenCallback() {
+                            @Override
+                            public void processResult(int rc, String path, Object ctx, List<String> children) {
+                                _children = children;
+                                done(rc);
+                            }
+                        }, null);
+                    }
+
+                    @Override
+                    void completed(KeeperException.Code code) throws KeeperException {
+                        if (code != KeeperException.Code.NONODE) {
+                            super.completed(code);
+                            state._children = _children;
+                        }
+                    }
+                });
+            }
+        }
+        _restoredStates = states;
+        try {
+            pipeline.execute();
+            sendRestoredStates(states);
+        } finally {
+            // change events queued from now on run after the catch-up notifications
+            _restoredStates = Collections.emptyMap();
+        }
+        _lastWatchRecoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        LOG.info("Re-established watches of " + paths.size() + " paths in " + _lastWatchRecoveryMillis + " ms after " + (newSession ? "session expiry" : "disconnect"));
+    }
+
+    /**
+     * Notifies every listener of the paths once with the state read.
+     */
+    private void sendRestoredStates(Map<String, RestoredState> states) {
+        for (Entry<String, RestoredState> entry : states.entrySet()) {
+            final String path = entry.getKey();
+            final RestoredState state = entry.getValue();
+            Set<IZkChildListener> childListeners = _childListener.get(path);
+            if (childListeners != null) {
+                for (final IZkChildListener listener : childListeners) {
+                    _eventThread.send(new ZkEventThread.ZkEvent(null, path, listener) {
+
+                        @Override
+                        public void run() throws Exception {
+                            if (state._superseded) {
+                                new ChildChangedEvent(path, listener).run();
+                            } else {
+                                listener.handleChildChange(path, state._children);
+                            }
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "ZkEvent[Children of " + path + " caught up sent to " + listener + "]";
+                        }
+                    });
+                }
+            }
+            Set<IZkDataListener> dataListeners = _dataListener.get(path);
+            if (dataListeners != null) {
+                for (final IZkDataListener listener : dataListeners) {
+                    _eventThread.send(new ZkEventThread.ZkEvent(null, path, listener) {
+
+                        @Override
+                        public void run() throws Exception {
+                            if (state._superseded) {
+                                new DataChangedEvent(path, listener).run();
+                            } else if (state._exists && listener instanceof IZkDataStatListener) {
+                                ((IZkDataStatListener) listener).handleDataChange(path, derializable(state._data), state._stat);
+                            } else if (state._exists) {
+                                listener.handleDataChange(path, derializable(state._data));
+                            } else {
+                                listener.handleDataDeleted(path);
+                            }
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "ZkEvent[Data of " + path + " caught up sent to " + listener + "]";
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    private int listenerCount(String path) {
+        Set<IZkChildListener> childListeners = _childListener.get(path);
+        Set<IZkDataListener> dataListeners = _dataListener.get(path);
+        return (childListeners == null ? 0 : childListeners.size()) + (dataListeners == null ? 0 : dataListeners.size());
+    }
+
+    /**
+     * The state of a path read while re-establishing its watches.
+     */
+    private static final class RestoredState {
+
+        private volatile boolean _exists;
+        private volatile byte[] _data;
+        private volatile Stat _stat;
+        private volatile List<String> _children;
+        private volatile boolean _superseded;
+    }
+
+    private static final class AddWatchRequest extends ZkPipeline.Request {
+
+        private final Watcher _watcher;
+        private final AddWatchMode _mode;
+
+        AddWatchRequest(String path, Watcher watcher, AddWatchMode mode) {
+            super(path);
+            _watcher = watcher;
+            _mode = mode;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            connection.addWatch(_path, _watcher, _mode, new AsyncCallback.VoidCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    done(rc);
+                }
+            }, null);
+        }
+    }
+
+    /**
+     * @return the time in milliseconds from the last session expiry or disconnect until all watches were set again and
+     *         their listeners caught up, -1 if that did not happen so far
+     */
+    public long getLastWatchRecoveryMillis() {
+        return _lastWatchRecoveryMillis;
+    }
+
+    public List<String> getChildren(String path) {
+        return getChildren(path, needsWatch(path));
+    }
+
+    protected List<String> getChildren(final String path, final boolean watch) {
+        return retryUntilConnected(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                return _connection.getChildren(path, watch);
+            }
+        });
+    }
+
+    /**
+     * Counts number of children for the given path. The count is taken from the {@link Stat} of the node, the names of
+     * the children are not transferred. See {@link ChildCountWatcher} for a cached count.
+     *
+     * @param path
+     * @return number of children or 0 if path does not exist.
+     */
+    public int countChildren(String path) {
+        Stat stat = stat(path);
+        return stat == null ? 0 : stat.getNumChildren();
+    }
+
+    protected boolean exists(final String path, final boolean watch) {
+        return retryUntilConnected(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return _connection.exists(path, watch);
+            }
+        });
+    }
+
+    public boolean exists(final String path) {
+        return exists(path, needsWatch(path));
+    }
+
+    protected Stat stat(final String path, final boolean watch) {
+        return retryUntilConnected(new Callable<Stat>() {
+            @Override
+            public Stat call() throws Exception {
+                return _connection.stat(path, watch);
+            }
+        });
+    }
+
+    /**
+     * Reads the {@link Stat} of a node without transferring its data.
+     *
+     * @return the {@link Stat} or null if the node does not exist
+     */
+    public Stat stat(final String path) {
+        return stat(path, needsWatch(path));
+    }
+
+    public Map<String, Stat> statAll(Collection<String> paths) {
+        return statAll(paths, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Reads the {@link Stat}s of many nodes with pipelined requests, so this costs about one round trip instead of one
+     * per node.
+     *
+     * @param maxInFlight
+     *            the maximum number of requests sent without having their response
+     * @return the {@link Stat} of each path in the order of the paths, null for nodes which do not exist
+     */
+    public Map<String, Stat> statAll(Collection<String> paths, int maxInFlight) {
+        final Map<String, Stat> stats = new LinkedHashMap<String, Stat>();
+        ZkPipeline pipeline = new ZkPipeline(this, maxInFlight);
+        for (final String path : paths) {
+            if (stats.containsKey(path)) {
+                continue;
+            }
+            stats.put(path, null);
+            pipeline.submit(new ZkPipeline.Request(path) {
+                private volatile Stat _stat;
+
+                @Override
+                void send(IZkConnection connection) {
+                    connection.stat(_path, needsWatch(_path), new AsyncCallback.StatCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, Stat stat) {
+                            _stat = stat;
+                            done(rc);
+                        }
+                    }, null);
+                }
+
+                @Override
+                void completed(KeeperException.Code code) throws KeeperException {
+                    if (code != KeeperException.Code.NONODE) {
+                        super.completed(code);
+                        stats.put(_path, _stat);
+                    }
+                }
+            });
+        }
+        pipeline.execute();
+        return stats;
+    }
+
+    public <T> Map<String, T> decodeDataAll(Collection<String> paths, ZkDataDecoder<? extends T> decoder) {
+        return decodeDataAll(paths, decoder, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Reads and decodes the data of many nodes with pipelined requests, like {@link #decodeData(String, ZkDataDecoder)}
+     * does for a single node.
+     *
+     * @param maxInFlight
+     *            the maximum number of requests sent without having their response
+     * @return the decoded data of each path in the order of the paths, null for nodes which do not exist or have no
+     *         data
+     */
+    public <T> Map<String, T> decodeDataAll(Collection<String> paths, final ZkDataDecoder<? extends T> decoder, int maxInFlight) {
+        final Map<String, T> values = new LinkedHashMap<String, T>();
+        ZkPipeline pipeline = new ZkPipeline(this, maxInFlight);
+        for (final String path : paths) {
+            if (values.containsKey(path)) {
+                continue;
+            }
+            values.put(path, null);
+            pipeline.submit(new ZkPipeline.Request(path) {
+                private volatile byte[] _data;
+
+                @Override
+                void send(IZkConnection connection) {
+                    connection.readData(_path, needsWatch(_path), new AsyncCallback.DataCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                            _data = data;
+                            done(rc);
+                        }
+                    }, null);
+                }
+
+                @Override
+                void completed(KeeperException.Code code) throws KeeperException {
+                    if (code != KeeperException.Code.NONODE) {
+                        super.completed(code);
+                        if (_data != null) {
+                            values.put(_path, decoder.decode(ByteBuffer.wrap(_data).asReadOnlyBuffer()));
+                        }
+                    }
+                }
+            });
+        }
+        pipeline.execute();
+        return values;
+    }
+
+    private void processStateChanged(WatchedEvent event) {
+        LOG.info("zookeeper state changed (" + event.getState() + ")");
+        KeeperState previousState = _currentState;
+        setCurrentState(event.getState());
+        if (getShutdownTrigger()) {
+            return;
+        }
+        fireStateChangedEvent(event.getState());
+        if (event.getState() == KeeperState.Disconnected && previousState != KeeperState.Disconnected) {
+            _disconnectedNanos = System.nanoTime();
+        }
+        if (event.getState() == KeeperState.SyncConnected && previousState == KeeperState.Disconnected) {
+            fireReconnectEvents();
+        }
+        if (event.getState() == KeeperState.Expired) {
+            try {
+                reconnect();
+                fireNewSessionEvents();
+            } catch (final Exception e) {
+                LOG.info("Unable to re-establish connection. Notifying consumer of the following exception: ", e);
+                fireSessionEstablishmentError(e);
+            }
+        }
+    }
+
+    private void fireNewSessionEvents() {
+        for (final IZkStateListener stateListener : _stateListener) {
+            _eventThread.send(new ZkEventThread.ZkEvent(null, "", stateListener) {
 
                 @Override
                 public void run() throws Exception {
                     stateListener.handleNewSession();
                 }
+
+                @Override
+                public String toString() {
+                    return "ZkEvent[New session event sent to " + stateListener + "]";
+                }
             });
         }
     }
 
     private void fireStateChangedEvent(final KeeperState state) {
         for (final IZkStateListener stateListener : _stateListener) {
-            _eventThread.send(new ZkEventThread.ZkEvent("State changed to " + state + " sent to " + stateListener) {
+            _eventThread.send(new ZkEventThread.ZkEvent(null, "", stateListener) {
 
                 @Override
                 public void run() throws Exception {
                     stateListener.handleStateChanged(state);
                 }
+
+                @Override
+                public String toString() {
+                    return "ZkEvent[State changed to " + state + " sent to " + stateListener + "]";
+                }
             });
         }
     }
 
     private void fireSessionEstablishmentError(final Throwable error) {
         for (final IZkStateListener stateListener : _stateListener) {
-            _eventThread.send(new ZkEventThread.ZkEvent("Session establishment error(" + error + ") sent to " + stateListener) {
+            _eventThread.send(new ZkEventThread.ZkEvent(null, "", stateListener) {
 
                 @Override
                 public void run() throws Exception {
                     stateListener.handleSessionEstablishmentError(error);
                 }
+
+                @Override
+                public String toString() {
+                    return "ZkEvent[Session establishment error(" + error + ") sent to " + stateListener + "]";
+                }
             });
         }
     }
@@ -770,8 +1721,284 @@ public class ZkClient implements Watcher {
         return delete(path);
     }
 
+    public boolean deleteRecursivePipelined(String path) {
+        return deleteRecursivePipelined(path, DEFAULT_BATCH_SIZE, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Deletes a subtree like {@link #deleteRecursive(String)} but with far less round trips: the tree is read breadth
+     * first with pipelined asynchronous getChildren calls and then deleted bottom up in {@link #multi(Iterable)} batches.
+     *
+     * Nodes deleted concurrently are ignored. If nodes are created concurrently the failed batch is deleted node by node
+     * and the whole subtree is read again, until it is gone or {@value #MAX_BULK_ATTEMPTS} attempts failed.
+     *
+     * @param path
+     *            the root of the subtree
+     * @param batchSize
+     *            the maximum number of deletes in one multi request
+     * @param maxInFlight
+     *            the maximum number of requests sent without having their response
+     * @return true, the subtree does not exist anymore
+     * @throws ZkException
+     *             with {@link KeeperException.Code#NOTEMPTY} if nodes kept being added to the subtree
+     */
+    public boolean deleteRecursivePipelined(String path, int batchSize, int maxInFlight) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        for (int attempt = 0; attempt < MAX_BULK_ATTEMPTS; attempt++) {
+            List<String> paths = collectSubtree(path, maxInFlight);
+            if (paths.isEmpty()) {
+                return true;
+            }
+            if (deleteBottomUp(paths, batchSize, maxInFlight)) {
+                return true;
+            }
+            LOG.debug("Subtree of " + path + " changed while deleting it, retrying");
+        }
+        throw ZkException.create(KeeperException.create(KeeperException.Code.NOTEMPTY, path));
+    }
+
+    /**
+     * @return all paths of the subtree in breadth first order, empty if the root does not exist.
+     */
+    private List<String> collectSubtree(String path, int maxInFlight) {
+        final List<String> paths = new ArrayList<String>();
+        final ZkPipeline pipeline = new ZkPipeline(this, maxInFlight);
+        paths.add(path);
+        pipeline.submit(new GetChildrenRequest(pipeline, path, paths));
+        pipeline.execute();
+        if (paths.size() == 1 && !exists(path)) {
+            return Collections.emptyList();
+        }
+        return paths;
+    }
+
+    private static final class GetChildrenRequest extends ZkPipeline.Request {
+
+        private final ZkPipeline _owner;
+        private final List<String> _paths;
+        private volatile List<String> _children;
+
+        GetChildrenRequest(ZkPipeline owner, String path, List<String> paths) {
+            super(path);
+            _owner = owner;
+            _paths = paths;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            connection.getChildren(_path, false, new AsyncCallback.ChildrenCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, List<String> children) {
+                    _children = children;
+                    done(rc);
+                }
+            }, null);
+        }
+
+        @Override
+        void completed(KeeperException.Code code) throws KeeperException {
+            if (code == KeeperException.Code.NONODE) {
+                // deleted concurrently
+                return;
+            }
+            super.completed(code);
+            for (String child : _children) {
+                String childPath = _path.endsWith("/") ? _path + child : _path + "/" + child;
+                _paths.add(childPath);
+                _owner.submit(new GetChildrenRequest(_owner, childPath, _paths));
+            }
+        }
+    }
+
+    /**
+     * Deletes the paths (given in breadth first order) deepest first. Since ZooKeeper processes the requests of a
+     * session in order, a batch is only sent after the batches containing the children of its nodes.
+     *
+     * @return false if some node had children which were not part of the paths
+     */
+    private boolean deleteBottomUp(List<String> paths, int batchSize, int maxInFlight) {
+        final List<String> ordered = new ArrayList<String>(paths);
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.compare(depth(b), depth(a));
+            }
+        });
+        final boolean[] notEmpty = new boolean[1];
+        final ZkPipeline pipeline = new ZkPipeline(this, maxInFlight);
+        for (int i = 0; i < ordered.size(); i += batchSize) {
+            final List<String> batch = ordered.subList(i, Math.min(ordered.size(), i + batchSize));
+            pipeline.submit(new ZkPipeline.Request(batch.get(0)) {
+                @Override
+                void send(IZkConnection connection) {
+                    List<Op> ops = new ArrayList<Op>(batch.size());
+                    for (String path : batch) {
+                        ops.add(Op.delete(path, -1));
+                    }
+                    connection.multi(ops, new AsyncCallback.MultiCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, List<OpResult> results) {
+                            done(rc);
+                        }
+                    }, null);
+                }
+
+                @Override
+                void completed(KeeperException.Code code) throws KeeperException {
+                    if (code == KeeperException.Code.NONODE || code == KeeperException.Code.NOTEMPTY) {
+                        // the tree changed, the batch is rolled back so delete its nodes one by one
+                        for (String path : batch) {
+                            pipeline.submit(new DeleteRequest(path, notEmpty));
+                        }
+                        return;
+                    }
+                    super.completed(code);
+                }
+            });
+        }
+        pipeline.execute();
+        return !notEmpty[0];
+    }
+
+    private static final class DeleteRequest extends ZkPipeline.Request {
+
+        private final boolean[] _notEmpty;
+
+        DeleteRequest(String path, boolean[] notEmpty) {
+            super(path);
+            _notEmpty = notEmpty;
+        }
+
+        @Override
+        void send(IZkConnection connection) {
+            connection.delete(_path, -1, new AsyncCallback.VoidCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    done(rc);
+                }
+            }, null);
+        }
+
+        @Override
+        void completed(KeeperException.Code code) throws KeeperException {
+            if (code == KeeperException.Code.NOTEMPTY) {
+                _notEmpty[0] = true;
+            } else if (code != KeeperException.Code.NONODE) {
+                super.completed(code);
+            }
+        }
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    boolean isClosed() {
+        return _closed;
+    }
+
+    /**
+     * Queues an event for the event thread. It runs after the events queued before with the same key.
+     *
+     * @return false if the event was dropped, see {@link ZkEventThread#send(ZkEventThread.ZkEvent)}
+     */
+    boolean sendEvent(ZkEventThread.ZkEvent event) {
+        return _eventThread.send(event);
+    }
+
+    boolean isZkEventThread() {
+        return _zookeeperEventThread != null && Thread.currentThread() == _zookeeperEventThread;
+    }
+
+    private void processSubtreeEvent(WatchedEvent event) {
+        final String path = event.getPath();
+        final EventType type = event.getType();
+        if (path == null || getShutdownTrigger()) {
+            return;
+        }
+        if (type != EventType.NodeCreated && type != EventType.NodeDataChanged && type != EventType.NodeDeleted) {
+            return;
+        }
+        // one event per watcher: listeners of all subscribed ancestors are served from it
+        for (String basePath = path; basePath != null; basePath = parentOf(basePath)) {
+            Set<IZkSubtreeListener> listeners = _subtreeListener.get(basePath);
+            if (listeners == null) {
+                continue;
+            }
+            // keyed by the subscription, so a listener gets the events of its subtree in order
+            final String subscribedPath = basePath;
+            for (final IZkSubtreeListener listener : listeners) {
+                _eventThread.send(new ZkEventThread.ZkEvent(null, subscribedPath, listener) {
+
+                    @Override
+                    public void run() throws Exception {
+                        if (type == EventType.NodeCreated) {
+                            listener.handleNodeCreated(path);
+                        } else if (type == EventType.NodeDataChanged) {
+                            listener.handleNodeDataChanged(path);
+                        } else {
+                            listener.handleNodeDeleted(path);
+                        }
+                    }
+
+                    @Override
+                    boolean isDroppable() {
+                        return true;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "ZkEvent[" + type + " of " + path + " sent to " + listener + "]";
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Passes the events of a path with a recursive watch to its data and child listeners, and the creations and
+     * deletions below it to its child listeners. The recursive watch reports no child changes of its own.
+     */
+    private void processCoveredEvent(WatchedEvent event) {
+        final String path = event.getPath();
+        if (path == null) {
+            return;
+        }
+        if (_recursiveWatches.contains(path) && hasListeners(path)) {
+            process(event);
+        }
+        String parent = parentOf(path);
+        if (parent == null || !_recursiveWatches.contains(parent)) {
+            return;
+        }
+        Set<IZkChildListener> childListeners = _childListener.get(parent);
+        if ((event.getType() == EventType.NodeCreated || event.getType() == EventType.NodeDeleted) && childListeners != null && !childListeners.isEmpty()) {
+            process(new WatchedEvent(EventType.NodeChildrenChanged, event.getState(), parent));
+        }
+    }
+
+    private static String parentOf(String path) {
+        if (path.equals("/")) {
+            return null;
+        }
+        int index = path.lastIndexOf('/');
+        return index == 0 ? "/" : path.substring(0, index);
+    }
+
     private void processDataOrChildChange(WatchedEvent event) {
         final String path = event.getPath();
+        RestoredState restoredState = _restoredStates.get(path);
+        if (restoredState != null) {
+            restoredState._superseded = true;
+        }
 
         if (event.getType() == EventType.NodeChildrenChanged || event.getType() == EventType.NodeCreated || event.getType() == EventType.NodeDeleted) {
             Set<IZkChildListener> childListeners = _childListener.get(path);
@@ -790,20 +2017,7 @@ public class ZkClient implements Watcher {
 
     private void fireDataChangedEvents(final String path, Set<IZkDataListener> listeners) {
         for (final IZkDataListener listener : listeners) {
-            _eventThread.send(new ZkEventThread.ZkEvent("Data of " + path + " changed sent to " + listener) {
-
-                @Override
-                public void run() throws Exception {
-                    // reinstall watch
-                    exists(path, true);
-                    try {
-                        Object data = readData(path, null, true);
-                        listener.handleDataChange(path, data);
-                    } catch (ZkNoNodeException e) {
-                        listener.handleDataDeleted(path);
-                    }
-                }
-            });
+            _eventThread.send(new DataChangedEvent(path, listener));
         }
     }
 
@@ -811,26 +2025,138 @@ public class ZkClient implements Watcher {
         try {
             // reinstall the watch
             for (final IZkChildListener listener : childListeners) {
-                _eventThread.send(new ZkEventThread.ZkEvent("Children of " + path + " changed sent to " + listener) {
-
-                    @Override
-                    public void run() throws Exception {
-                        try {
-                            // if the node doesn't exist we should listen for the root node to reappear
-                            exists(path);
-                            List<String> children = getChildren(path);
-                            listener.handleChildChange(path, children);
-                        } catch (ZkNoNodeException e) {
-                            listener.handleChildChange(path, null);
-                        }
-                    }
-                });
+                _eventThread.send(new ChildChangedEvent(path, listener));
             }
         } catch (Exception e) {
             LOG.error("Failed to fire child changed event. Unable to getChildren.  ", e);
         }
     }
 
+    /**
+     * Reads the data of a path when run and passes it to a listener. Such events coalesce since a queued one reads the
+     * latest data anyway.
+     */
+    private final class DataChangedEvent extends ZkEventThread.ZkEvent {
+
+        private final String _path;
+        private final IZkDataListener _listener;
+
+        DataChangedEvent(String path, IZkDataListener listener) {
+            super(null, path, listener);
+            _path = path;
+            _listener = listener;
+        }
+
+        @Override
+        public void run() throws Exception {
+            // reinstall watch
+            boolean watch = !hasPersistentWatch(_path);
+            if (watch) {
+                exists(_path, true);
+            }
+            try {
+                if (_listener instanceof IZkDataStatListener) {
+                    Stat stat = new Stat();
+                    Object data = readData(_path, stat, watch);
+                    ((IZkDataStatListener) _listener).handleDataChange(_path, data, stat);
+                } else {
+                    Object data = readData(_path, null, watch);
+                    _listener.handleDataChange(_path, data);
+                }
+            } catch (ZkNoNodeException e) {
+                _listener.handleDataDeleted(_path);
+            }
+        }
+
+        @Override
+        boolean isCoalescible() {
+            return true;
+        }
+
+        @Override
+        boolean isDroppable() {
+            // an event re-arming a one time watch is the only one which would report the next change
+            return hasPersistentWatch(_path);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DataChangedEvent)) {
+                return false;
+            }
+            DataChangedEvent other = (DataChangedEvent) obj;
+            return _listener == other._listener && _path.equals(other._path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * _path.hashCode() + System.identityHashCode(_listener);
+        }
+
+        @Override
+        public String toString() {
+            return "ZkEvent[Data of " + _path + " changed sent to " + _listener + "]";
+        }
+    }
+
+    /**
+     * Lists the children of a path when run and passes them to a listener, coalescing like {@link DataChangedEvent}.
+     */
+    private final class ChildChangedEvent extends ZkEventThread.ZkEvent {
+
+        private final String _path;
+        private final IZkChildListener _listener;
+
+        ChildChangedEvent(String path, IZkChildListener listener) {
+            super(null, path, listener);
+            _path = path;
+            _listener = listener;
+        }
+
+        @Override
+        public void run() throws Exception {
+            try {
+                // if the node doesn't exist we should listen for the root node to reappear
+                boolean watch = !hasPersistentWatch(_path);
+                exists(_path, watch);
+                List<String> children = getChildren(_path, watch);
+                _listener.handleChildChange(_path, children);
+            } catch (ZkNoNodeException e) {
+                _listener.handleChildChange(_path, null);
+            }
+        }
+
+        @Override
+        boolean isCoalescible() {
+            return true;
+        }
+
+        @Override
+        boolean isDroppable() {
+            // an event re-arming a one time watch is the only one which would report the next change
+            return hasPersistentWatch(_path);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ChildChangedEvent)) {
+                return false;
+            }
+            ChildChangedEvent other = (ChildChangedEvent) obj;
+            return _listener == other._listener && _path.equals(other._path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * _path.hashCode() + System.identityHashCode(_listener);
+        }
+
+        @Override
+        public String toString() {
+            return "ZkEvent[Children of " + _path + " changed sent to " + _listener + "]";
+        }
+    }
+
     public boolean waitUntilExists(String path, TimeUnit timeUnit, long time) throws ZkInterruptedException {
         Date timeout = new Date(System.currentTimeMillis() + timeUnit.toMillis(time));
         LOG.debug("Waiting until znode '" + path + "' becomes available.");
@@ -839,7 +2165,7 @@ public class ZkClient implements Watcher {
         }
         acquireEventLock();
         try {
-            while (!exists(path, true)) {
+            while (!exists(path, !hasPersistentWatch(path))) {
                 boolean gotSignal = getEventLock().getZNodeEventCondition().awaitUntil(timeout);
                 if (!gotSignal) {
                     return false;
@@ -989,7 +2315,7 @@ public class ZkClient implements Watcher {
         }
     }
 
-    private void waitForRetry() {
+    void waitForRetry() {
         if (_operationRetryTimeoutInMillis < 0) {
             waitUntilConnected();
             return;
@@ -1038,7 +2364,7 @@ public class ZkClient implements Watcher {
         }
     }
 
-    private byte[] serialize(Object data) {
+    byte[] serialize(Object data) {
         return _zkSerializer.serialize(data);
     }
 
@@ -1070,25 +2396,75 @@ public class ZkClient implements Watcher {
 
     @SuppressWarnings("unchecked")
     public <T extends Object> T readData(String path, Stat stat) {
-        return (T) readData(path, stat, hasListeners(path));
+        return (T) readData(path, stat, needsWatch(path));
     }
 
     @SuppressWarnings("unchecked")
     protected <T extends Object> T readData(final String path, final Stat stat, final boolean watch) {
-        byte[] data = retryUntilConnected(new Callable<byte[]>() {
+        byte[] data = readRawData(path, stat, watch);
+        return (T) derializable(data);
+    }
+
+    private byte[] readRawData(final String path, final Stat stat, final boolean watch) {
+        return retryUntilConnected(new Callable<byte[]>() {
 
             @Override
             public byte[] call() throws Exception {
                 return _connection.readData(path, stat, watch);
             }
         });
-        return (T) derializable(data);
+    }
+
+    /**
+     * Reads the data of a znode and passes it to the given decoder as a read-only {@link ByteBuffer} view of the
+     * received bytes. The {@link ZkSerializer} of this client is not involved, so neither an intermediate object nor a
+     * cast is needed.
+     *
+     * @param path
+     *            The path of the znode.
+     * @param decoder
+     *            Decodes the data.
+     * @return the decoded data or null if the znode has no data.
+     * @throws ZkNoNodeException
+     *             if the znode does not exist
+     */
+    public <T> T decodeData(String path, ZkDataDecoder<? extends T> decoder) {
+        return decodeData(path, null, decoder);
+    }
+
+    /**
+     * Same as {@link #decodeData(String, ZkDataDecoder)} but also fills in the {@link Stat} of the znode.
+     */
+    public <T> T decodeData(String path, Stat stat, ZkDataDecoder<? extends T> decoder) {
+        byte[] data = readRawData(path, stat, needsWatch(path));
+        if (data == null) {
+            return null;
+        }
+        return decoder.decode(ByteBuffer.wrap(data).asReadOnlyBuffer());
     }
 
     public void writeData(String path, Object object) {
         writeData(path, object, -1);
     }
 
+    /**
+     * Writes data serialized with the given typed serializer instead of the {@link ZkSerializer} of this client.
+     */
+    public <T> void writeData(String path, T data, ZkTypedSerializer<? super T> serializer) {
+        writeData(path, data, serializer, -1);
+    }
+
+    public <T> Stat writeData(final String path, T data, ZkTypedSerializer<? super T> serializer, final int expectedVersion) {
+        final byte[] bytes = data == null ? null : serializer.serialize(data);
+        return retryUntilConnected(new Callable<Stat>() {
+
+            @Override
+            public Stat call() throws Exception {
+                return _connection.writeDataReturnStat(path, bytes, expectedVersion);
+            }
+        });
+    }
+
     /**
      * Updates data of an existing znode. The current content of the znode is passed to the {@link DataUpdater} that is
      * passed into this method, which returns the new content. The new content is only written back to ZooKeeper if
@@ -1137,7 +2513,7 @@ public class ZkClient implements Watcher {
         retryUntilConnected(new Callable<Object>() {
             @Override
             public Object call() throws Exception {
-                _connection.exists(path, true);
+                _connection.exists(path, !hasPersistentWatch(path));
                 return null;
             }
         });
@@ -1156,9 +2532,10 @@ public class ZkClient implements Watcher {
         return retryUntilConnected(new Callable<List<String>>() {
             @Override
             public List<String> call() throws Exception {
-                exists(path, true);
+                boolean watch = !hasPersistentWatch(path);
+                exists(path, watch);
                 try {
-                    return getChildren(path, true);
+                    return getChildren(path, watch);
                 } catch (ZkNoNodeException e) {
                     // ignore, the "exists" watch will listen for the parent node to appear
                 }
@@ -1202,6 +2579,10 @@ public class ZkClient implements Watcher {
         try {
             setShutdownTrigger(false);
             _eventThread = new ZkEventThread(_connection.getServers());
+            _eventThread.setExecutor(_eventExecutor);
+            _eventThread.setQueue(_eventQueueCapacity, _eventOverflowPolicy);
+            _eventThread.setSlowListenerThreshold(_slowListenerNanos);
+            _eventThread.setIsolation(_isolateAfterSlowCalls, _isolatedListenerExecutor);
             _eventThread.start();
             _connection.connect(watcher);
 
@@ -1235,6 +2616,14 @@ public class ZkClient implements Watcher {
         }
     }
 
+    /**
+     * @return the id of the current session, the {@link Stat#getEphemeralOwner()} of the ephemeral nodes created by
+     *         this client. 0 if not connected.
+     */
+    public long getSessionId() {
+        return _connection.getSessionId();
+    }
+
     /**
      * Close the client.
      *
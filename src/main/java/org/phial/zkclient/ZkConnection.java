@@ -8,6 +8,8 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.phial.zkclient.exception.ZkException;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.Op;
@@ -28,7 +30,7 @@ public class ZkConnection implements IZkConnection {
     /** It is recommended to use quite large sessions timeouts for ZooKeeper. */
     private static final int DEFAULT_SESSION_TIMEOUT = 30000;
 
-    private ZooKeeper _zk = null;
+    private volatile ZooKeeper _zk = null;
     private final Lock _zookeeperLock = new ReentrantLock();
 
     private final String _servers;
@@ -133,6 +135,12 @@ public class ZkConnection implements IZkConnection {
         return _zk;
     }
 
+    @Override
+    public long getSessionId() {
+        ZooKeeper zk = _zk;
+        return zk != null ? zk.getSessionId() : 0;
+    }
+
     @Override
     public long getCreateTime(String path) throws KeeperException, InterruptedException {
         Stat stat = _zk.exists(path, false);
@@ -142,6 +150,22 @@ public class ZkConnection implements IZkConnection {
         return -1;
     }
 
+    @Override
+    public Stat stat(String path, boolean watch) throws KeeperException, InterruptedException {
+        return _zk.exists(path, watch);
+    }
+
+    @Override
+    public void addWatch(String basePath, Watcher watcher, AddWatchMode mode) throws KeeperException, InterruptedException {
+        _zk.addWatch(basePath, watcher, mode);
+    }
+
+    @Override
+    public void removeWatches(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        // local: the watches are removed on the client even if the server cannot be reached
+        _zk.removeWatches(path, watcher, Watcher.WatcherType.Any, true);
+    }
+
     @Override
     public String getServers() {
         return _servers;
@@ -169,4 +193,74 @@ public class ZkConnection implements IZkConnection {
         return new SimpleEntry(acl, stat);
     }
 
+    @Override
+    public void getChildren(String path, boolean watch, AsyncCallback.ChildrenCallback cb, Object ctx) {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null);
+            return;
+        }
+        zk.getChildren(path, watch, cb, ctx);
+    }
+
+    @Override
+    public void multi(Iterable<Op> ops, AsyncCallback.MultiCallback cb, Object ctx) {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), null, ctx, null);
+            return;
+        }
+        zk.multi(ops, cb, ctx);
+    }
+
+    @Override
+    public void delete(String path, int version, AsyncCallback.VoidCallback cb, Object ctx) {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx);
+            return;
+        }
+        zk.delete(path, version, cb, ctx);
+    }
+
+    @Override
+    public void create(String path, byte[] data, List<ACL> acl, CreateMode mode, AsyncCallback.StringCallback cb, Object ctx) {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null);
+            return;
+        }
+        zk.create(path, data, acl, mode, cb, ctx);
+    }
+
+    @Override
+    public void readData(String path, boolean watch, AsyncCallback.DataCallback cb, Object ctx) {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null, null);
+            return;
+        }
+        zk.getData(path, watch, cb, ctx);
+    }
+
+    @Override
+    public void stat(String path, boolean watch, AsyncCallback.StatCallback cb, Object ctx) {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), path, ctx, null);
+            return;
+        }
+        zk.exists(path, watch, cb, ctx);
+    }
+
+    @Override
+    public void addWatch(String basePath, Watcher watcher, AddWatchMode mode, AsyncCallback.VoidCallback cb, Object ctx) {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            cb.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), basePath, ctx);
+            return;
+        }
+        zk.addWatch(basePath, watcher, mode, cb, ctx);
+    }
+
 }
@@ -0,0 +1,64 @@
+package org.phial.zkclient;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+/**
+ * Publishes the data of a node as a reactive stream: each subscriber first gets the current data and then every change,
+ * as far as it has requested them. Changes arriving without outstanding demand are conflated, the subscriber gets the
+ * latest data once it requests more and intermediate values are skipped, so a slow subscriber buffers one value at
+ * most. The stream does not complete, cancel the subscription to unsubscribe from the client.
+ *
+ * On Java 9+ {@code org.reactivestreams.FlowAdapters} turns this into a {@code java.util.concurrent.Flow.Publisher}.
+ */
+public class ZkDataPublisher<T> implements Publisher<ZkNodeState<T>> {
+
+    private final ZkClient _zkClient;
+    private final String _path;
+
+    public ZkDataPublisher(ZkClient zkClient, String path) {
+        _zkClient = zkClient;
+        _path = path;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ZkNodeState<T>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        new DataSubscription<T>(_zkClient, _path, subscriber).start();
+    }
+
+    private static class DataSubscription<T> extends ConflatingSubscription<T> implements IZkDataListener {
+
+        DataSubscription(ZkClient zkClient, String path, Subscriber<? super ZkNodeState<T>> subscriber) {
+            super(zkClient, path, subscriber);
+        }
+
+        @Override
+        protected ZkNodeState<T> subscribe() {
+            _zkClient.subscribeDataChanges(_path, this);
+            if (!_zkClient.exists(_path)) {
+                return new ZkNodeState<T>(_path, null, false);
+            }
+            T data = _zkClient.<T> readData(_path, true);
+            return new ZkNodeState<T>(_path, data, true);
+        }
+
+        @Override
+        protected void unsubscribe() {
+            _zkClient.unsubscribeDataChanges(_path, this);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void handleDataChange(String dataPath, Object data) {
+            offer(new ZkNodeState<T>(dataPath, (T) data, true));
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) {
+            offer(new ZkNodeState<T>(dataPath, null, false));
+        }
+    }
+}
@@ -1,8 +1,19 @@
 package org.phial.zkclient;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.phial.zkclient.exception.ZkInterruptedException;
 import org.slf4j.Logger;
@@ -15,25 +26,107 @@ import org.slf4j.LoggerFactory;
  * would stop the ZkClient from receiving events from {@link ZooKeeper} as soon as one of the listeners blocks (because
  * it is waiting for something). {@link ZkClient} would then for instance not be able to maintain it's connection state
  * anymore.
+ *
+ * With an {@link #setExecutor(Executor) executor} the events are run there instead, in one lane per key: the events
+ * of a key are run one after another in the order they were sent, events of different keys may run concurrently. So a
+ * listener blocking in its callback only delays the events of its own path.
+ *
+ * The queue is unbounded unless a capacity is {@link #setQueue(int, EventOverflowPolicy) set}, it counts the events
+ * waiting for this thread and in all lanes together.
+ *
+ * With a {@link #setSlowListenerThreshold(long) threshold} the time each listener takes is tracked. A listener which
+ * was slow too often can be {@link #setIsolation(int, Executor) isolated}: its events still pass the queue in order,
+ * but are handed to a lane of its own on the isolated executor instead of being run, so it no longer delays the others.
+ * The events of isolated listeners do not count towards the capacity.
  */
 class ZkEventThread extends Thread {
 
     private static final Logger LOG = LoggerFactory.getLogger(ZkEventThread.class);
 
-    private BlockingQueue<ZkEvent> _events = new LinkedBlockingQueue<ZkEvent>();
+    // set while an event runs, such a thread must not wait for room in the queue it is draining
+    private static final ThreadLocal<Boolean> DELIVERING = new ThreadLocal<Boolean>();
+    // set on the threads ZooKeeper delivers watch events and async responses on, see markWatcherThread()
+    private static final ThreadLocal<Boolean> WATCHER_THREAD = new ThreadLocal<Boolean>();
 
     private static AtomicInteger _eventId = new AtomicInteger(0);
 
+    private volatile Executor _executor;
+
+    // guards all of the queue state below, not a monitor so waiting senders do not pin virtual threads
+    private final ReentrantLock _lock = new ReentrantLock();
+    // signalled whenever events are queued or dequeued
+    private final Condition _changed = _lock.newCondition();
+    // the events waiting for this thread
+    private final ArrayDeque<ZkEvent> _events = new ArrayDeque<ZkEvent>();
+    // the lanes having events queued or running
+    private final Map<Object, Lane> _lanes = new HashMap<Object, Lane>();
+    // the coalescible events queued, if the policy is COALESCE
+    private final Set<ZkEvent> _pending = new HashSet<ZkEvent>();
+    // the events queued for this thread and in all lanes
+    private int _size;
+    private int _capacity = Integer.MAX_VALUE;
+    private EventOverflowPolicy _overflowPolicy = EventOverflowPolicy.BLOCK;
+    private volatile long _droppedEvents;
+    private boolean _terminated;
+    // the lanes of isolated listeners, keyed by the listener
+    private final Map<Object, Lane> _isolatedLanes = new HashMap<Object, Lane>();
+
+    private volatile long _slowThresholdNanos;
+    private volatile int _isolateAfterSlowCalls;
+    private volatile Executor _isolatedExecutor;
+    // weak, the listeners are not referenced after they were unsubscribed
+    private final Map<Object, ListenerStats> _listenerStats = Collections.synchronizedMap(new WeakHashMap<Object, ListenerStats>());
+
+    /**
+     * An event is sent for each listener and change, so it should not build its description up front: events with a
+     * description depending on the change pass null and override {@link #toString()}, which is only called for logging.
+     */
     static abstract class ZkEvent {
 
-        private String _description;
+        private final String _description;
+        private final String _key;
+        private final Object _listener;
 
         public ZkEvent(String description) {
+            this(description, "");
+        }
+
+        /**
+         * @param key
+         *            the events of a key are run in order, usually the path the event is about
+         */
+        public ZkEvent(String description, String key) {
+            this(description, key, null);
+        }
+
+        /**
+         * @param listener
+         *            the listener the event notifies, its time is tracked if slow listeners are detected
+         */
+        public ZkEvent(String description, String key, Object listener) {
             _description = description;
+            _key = key;
+            _listener = listener;
         }
 
         public abstract void run() throws Exception;
 
+        /**
+         * @return true if a queued event {@link #equals(Object) equal} to this one makes this one redundant, it has to
+         *         implement equals and hashCode then
+         */
+        boolean isCoalescible() {
+            return false;
+        }
+
+        /**
+         * @return true if the event is a listener notification which {@link EventOverflowPolicy#DROP_OLDEST} may drop.
+         *         Other events are queued beyond the capacity instead.
+         */
+        boolean isDroppable() {
+            return false;
+        }
+
         @Override
         public String toString() {
             return "ZkEvent[" + _description + "]";
@@ -45,32 +138,422 @@ class ZkEventThread extends Thread {
         setName("ZkClient-EventThread-" + getId() + "-" + name);
     }
 
+    /**
+     * @param executor
+     *            runs the events from now on, null to run them on this thread again
+     */
+    void setExecutor(Executor executor) {
+        _executor = executor;
+    }
+
+    /**
+     * @param capacity
+     *            the number of events queued at most, for this thread and all lanes together
+     */
+    void setQueue(int capacity, EventOverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        _lock.lock();
+        try {
+            _capacity = capacity;
+            _overflowPolicy = overflowPolicy;
+            if (overflowPolicy != EventOverflowPolicy.COALESCE) {
+                _pending.clear();
+            }
+            _changed.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    long getDroppedEvents() {
+        return _droppedEvents;
+    }
+
+    /**
+     * @param nanos
+     *            the time a listener may take without being reported as slow, 0 not to track the listeners
+     */
+    void setSlowListenerThreshold(long nanos) {
+        _slowThresholdNanos = nanos;
+    }
+
+    /**
+     * @param slowCalls
+     *            the number of slow calls after which a listener is isolated
+     * @param executor
+     *            runs the events of isolated listeners, null not to isolate listeners
+     */
+    void setIsolation(int slowCalls, Executor executor) {
+        _isolateAfterSlowCalls = slowCalls;
+        _isolatedExecutor = executor;
+    }
+
+    Map<Object, ListenerStats> getListenerStats() {
+        synchronized (_listenerStats) {
+            return new HashMap<Object, ListenerStats>(_listenerStats);
+        }
+    }
+
     @Override
     public void run() {
         LOG.info("Starting ZkClient event thread.");
         try {
             while (!isInterrupted()) {
-                ZkEvent zkEvent = _events.take();
-                int eventId = _eventId.incrementAndGet();
-                LOG.debug("Delivering event #" + eventId + " " + zkEvent);
-                try {
-                    zkEvent.run();
-                } catch (InterruptedException | ZkInterruptedException e) {
+                ZkEvent zkEvent = take();
+                if (!process(zkEvent)) {
                     interrupt();
-                } catch (Throwable e) {
-                    LOG.error("Error handling event " + zkEvent, e);
                 }
-                LOG.debug("Delivering event #" + eventId + " done");
             }
         } catch (InterruptedException e) {
             LOG.info("Terminate ZkClient event thread.");
+        } finally {
+            _lock.lock();
+            try {
+                // release senders waiting for room
+                _terminated = true;
+                _changed.signalAll();
+            } finally {
+                _lock.unlock();
+            }
+        }
+    }
+
+    private ZkEvent take() throws InterruptedException {
+        _lock.lockInterruptibly();
+        try {
+            ZkEvent event;
+            while ((event = _events.poll()) == null) {
+                _changed.await();
+            }
+            dequeued(event);
+            return event;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the event, unless its listener is isolated, then it is handed to the lane of the listener.
+     *
+     * @return false if the event was interrupted
+     */
+    private boolean process(ZkEvent zkEvent) {
+        if (_slowThresholdNanos <= 0 || zkEvent._listener == null) {
+            return deliver(zkEvent);
+        }
+        ListenerStats stats = statsOf(zkEvent._listener);
+        Executor isolatedExecutor = _isolatedExecutor;
+        if (stats.isIsolated() && isolatedExecutor != null) {
+            isolate(isolatedExecutor, zkEvent);
+            return true;
+        }
+        return deliverTimed(zkEvent, stats);
+    }
+
+    private ListenerStats statsOf(Object listener) {
+        synchronized (_listenerStats) {
+            ListenerStats stats = _listenerStats.get(listener);
+            if (stats == null) {
+                stats = new ListenerStats();
+                _listenerStats.put(listener, stats);
+            }
+            return stats;
+        }
+    }
+
+    private boolean deliverTimed(ZkEvent zkEvent, ListenerStats stats) {
+        long start = System.nanoTime();
+        boolean delivered = deliver(zkEvent);
+        long nanos = System.nanoTime() - start;
+        boolean slow = nanos > _slowThresholdNanos;
+        long slowCalls = stats.record(nanos, slow);
+        if (slow) {
+            LOG.warn("Slow listener " + zkEvent._listener + " took " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms handling " + zkEvent + " (" + slowCalls + " slow calls)");
+            int isolateAfter = _isolateAfterSlowCalls;
+            if (_isolatedExecutor != null && isolateAfter > 0 && slowCalls >= isolateAfter && !stats.isIsolated()) {
+                LOG.warn("Isolating listener " + zkEvent._listener + " after " + slowCalls + " slow calls, notifying it on a separate executor from now on");
+                stats.isolate();
+            }
+        }
+        return delivered;
+    }
+
+    private void isolate(Executor executor, ZkEvent event) {
+        Lane newLane = null;
+        _lock.lock();
+        try {
+            Lane lane = _isolatedLanes.get(event._listener);
+            if (lane == null) {
+                lane = new Lane(_isolatedLanes, event._listener, true);
+                _isolatedLanes.put(event._listener, lane);
+                newLane = lane;
+            }
+            lane._queue.add(event);
+        } finally {
+            _lock.unlock();
+        }
+        if (newLane != null) {
+            start(executor, newLane);
+        }
+    }
+
+    /**
+     * @return false if the event was interrupted
+     */
+    private static boolean deliver(ZkEvent zkEvent) {
+        // the event is only numbered for the log, nothing is built for it unless debug logging is on
+        boolean debug = LOG.isDebugEnabled();
+        int eventId = 0;
+        if (debug) {
+            eventId = _eventId.incrementAndGet();
+            LOG.debug("Delivering event #" + eventId + " " + zkEvent);
+        }
+        DELIVERING.set(Boolean.TRUE);
+        try {
+            zkEvent.run();
+        } catch (InterruptedException | ZkInterruptedException e) {
+            return false;
+        } catch (Throwable e) {
+            LOG.error("Error handling event " + zkEvent, e);
+        } finally {
+            DELIVERING.set(Boolean.FALSE);
+        }
+        if (debug) {
+            LOG.debug("Delivering event #" + eventId + " done");
         }
+        return true;
     }
 
-    public void send(ZkEvent event) {
-        if (!isInterrupted()) {
-            LOG.debug("New event: " + event);
-            _events.add(event);
+    /**
+     * Marks the calling thread as one ZooKeeper delivers watch events on. It never waits for room in the queue: the
+     * responses of asynchronous requests are delivered on the same thread, and a listener or a re-established watch
+     * may be waiting for them. Once the queue is full its coalescible events are coalesced as with
+     * {@link EventOverflowPolicy#COALESCE}, the others are queued beyond the capacity.
+     */
+    static void markWatcherThread() {
+        WATCHER_THREAD.set(Boolean.TRUE);
+    }
+
+    /**
+     * Queues the event. If the queue is full what happens depends on the {@link EventOverflowPolicy}.
+     *
+     * @return false if the event was dropped instead, since the queue was full, this thread terminated or the executor
+     *         rejected it
+     * @throws ZkInterruptedException
+     *             if interrupted while waiting for room
+     */
+    public boolean send(ZkEvent event) {
+        if (isInterrupted()) {
+            return false;
+        }
+        LOG.debug("New event: {}", event);
+        Executor executor = _executor;
+        Lane newLane = null;
+        _lock.lock();
+        try {
+            boolean coalesce = event.isCoalescible() && (_overflowPolicy == EventOverflowPolicy.COALESCE
+                    || _overflowPolicy == EventOverflowPolicy.BLOCK && WATCHER_THREAD.get() == Boolean.TRUE && _size >= _capacity);
+            if (coalesce && _pending.contains(event)) {
+                // the queued one runs instead
+                return true;
+            }
+            if (!makeRoom(event)) {
+                return false;
+            }
+            if (coalesce) {
+                _pending.add(event);
+            }
+            _size++;
+            if (executor == null) {
+                _events.add(event);
+                _changed.signalAll();
+            } else {
+                Lane lane = _lanes.get(event._key);
+                if (lane == null) {
+                    lane = new Lane(_lanes, event._key, false);
+                    _lanes.put(event._key, lane);
+                    newLane = lane;
+                }
+                lane._queue.add(event);
+            }
+        } finally {
+            _lock.unlock();
+        }
+        return newLane == null || start(executor, newLane);
+    }
+
+    /**
+     * Waits for or makes room for the event as the policy says, with the lock held.
+     *
+     * @return false if the event is to be dropped, since this thread terminated or no older notification could be
+     *         dropped for it
+     */
+    private boolean makeRoom(ZkEvent event) {
+        while (_size >= _capacity) {
+            if (_terminated) {
+                return false;
+            }
+            if (_overflowPolicy == EventOverflowPolicy.DROP_OLDEST) {
+                if (!event.isDroppable()) {
+                    // state changes, watch re-arming and the client's own events must not get lost
+                    return true;
+                }
+                if (!dropOldest(event._key)) {
+                    countDropped(event);
+                    return false;
+                }
+            } else if (Thread.currentThread() == this || DELIVERING.get() == Boolean.TRUE || WATCHER_THREAD.get() == Boolean.TRUE) {
+                return true;
+            } else {
+                try {
+                    _changed.await();
+                } catch (InterruptedException e) {
+                    throw new ZkInterruptedException(e);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the oldest droppable event, with an executor preferably one of the same key.
+     *
+     * @return false if no droppable event is queued
+     */
+    private boolean dropOldest(String key) {
+        ZkEvent dropped = pollDroppable(_events);
+        if (dropped == null) {
+            Lane lane = _lanes.get(key);
+            if (lane != null) {
+                dropped = pollDroppable(lane._queue);
+            }
+            Iterator<Lane> lanes = _lanes.values().iterator();
+            while (dropped == null && lanes.hasNext()) {
+                dropped = pollDroppable(lanes.next()._queue);
+            }
+        }
+        if (dropped == null) {
+            return false;
+        }
+        dequeued(dropped);
+        countDropped(dropped);
+        return true;
+    }
+
+    private static ZkEvent pollDroppable(ArrayDeque<ZkEvent> queue) {
+        for (Iterator<ZkEvent> events = queue.iterator(); events.hasNext();) {
+            ZkEvent event = events.next();
+            if (event.isDroppable()) {
+                events.remove();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private void countDropped(ZkEvent dropped) {
+        long droppedEvents = ++_droppedEvents;
+        if (droppedEvents % 1000 == 1) {
+            LOG.warn("Event queue full (" + _capacity + " events), dropped " + droppedEvents + " events so far, latest " + dropped);
+        }
+    }
+
+    private void dequeued(ZkEvent event) {
+        _size--;
+        if (!_pending.isEmpty()) {
+            _pending.remove(event);
+        }
+        _changed.signalAll();
+    }
+
+    /**
+     * @return false if the executor rejected the lane, its events are dropped then
+     */
+    private boolean start(Executor executor, Lane lane) {
+        try {
+            executor.execute(lane);
+            return true;
+        } catch (RejectedExecutionException e) {
+            LOG.error("Executor rejected events of " + lane._key + ", dropping them", e);
+            _lock.lock();
+            try {
+                lane.drop();
+            } finally {
+                _lock.unlock();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Runs the queued events of a key until none is left.
+     */
+    private final class Lane implements Runnable {
+
+        private final Map<Object, Lane> _owner;
+        private final Object _key;
+        // the events of isolated listeners are not counted in the size of the queue
+        private final boolean _isolated;
+        private final ArrayDeque<ZkEvent> _queue = new ArrayDeque<ZkEvent>();
+
+        Lane(Map<Object, Lane> owner, Object key, boolean isolated) {
+            _owner = owner;
+            _key = key;
+            _isolated = isolated;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ZkEvent event;
+                _lock.lock();
+                try {
+                    event = _queue.poll();
+                    if (event == null) {
+                        _owner.remove(_key);
+                        return;
+                    }
+                    if (!_isolated) {
+                        dequeued(event);
+                    }
+                } finally {
+                    _lock.unlock();
+                }
+                if (!(_isolated ? deliverIsolated(event) : process(event))) {
+                    // the executor is shutting down
+                    Thread.currentThread().interrupt();
+                    _lock.lock();
+                    try {
+                        LOG.info("Event delivery interrupted, dropping " + _queue.size() + " events of " + _key);
+                        drop();
+                    } finally {
+                        _lock.unlock();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private boolean deliverIsolated(ZkEvent event) {
+            if (_slowThresholdNanos <= 0) {
+                return deliver(event);
+            }
+            return deliverTimed(event, statsOf(event._listener));
+        }
+
+        /**
+         * Drops the queued events, with the lock held.
+         */
+        void drop() {
+            _owner.remove(_key);
+            ZkEvent event;
+            while ((event = _queue.poll()) != null) {
+                if (!_isolated) {
+                    dequeued(event);
+                }
+            }
         }
     }
 }
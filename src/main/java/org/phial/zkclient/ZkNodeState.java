@@ -0,0 +1,38 @@
+package org.phial.zkclient;
+
+/**
+ * The state of a node as emitted by {@link ZkDataPublisher} and {@link ZkChildPublisher}. Reactive streams do not allow
+ * null elements, so a missing node is emitted as a state with {@link #exists()} false.
+ */
+public final class ZkNodeState<T> {
+
+    private final String _path;
+    private final T _value;
+    private final boolean _exists;
+
+    public ZkNodeState(String path, T value, boolean exists) {
+        _path = path;
+        _value = value;
+        _exists = exists;
+    }
+
+    public String getPath() {
+        return _path;
+    }
+
+    /**
+     * @return the data or the children of the node, null if it does not exist.
+     */
+    public T getValue() {
+        return _value;
+    }
+
+    public boolean exists() {
+        return _exists;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkNodeState[path=" + _path + ", exists=" + _exists + ", value=" + _value + "]";
+    }
+}
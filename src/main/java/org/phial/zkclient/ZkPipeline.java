@@ -0,0 +1,176 @@
+package org.phial.zkclient;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.phial.zkclient.exception.ZkException;
+import org.phial.zkclient.exception.ZkInterruptedException;
+import org.phial.zkclient.exception.ZkTimeoutException;
+
+/**
+ * Sends asynchronous requests through the {@link IZkConnection} of a {@link ZkClient} with a bounded number of requests
+ * in flight, so many requests cost about one round trip instead of one round trip each.
+ *
+ * All results are processed by the thread calling {@link #execute()}, never by the ZooKeeper event thread. Requests
+ * failing with a connection loss or session expiry are sent again once the client is connected, the same way
+ * {@link ZkClient#retryUntilConnected(java.util.concurrent.Callable)} retries synchronous calls.
+ *
+ * Requests are sent in submission order and ZooKeeper applies the requests of a session in order, so (apart from
+ * retries) a request sees the effect of all requests submitted before it.
+ */
+final class ZkPipeline {
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 100;
+
+    /**
+     * A single asynchronous request.
+     */
+    abstract static class Request {
+
+        final String _path;
+        private ZkPipeline _pipeline;
+        private volatile int _resultCode;
+        private long _retryStart = -1;
+
+        Request(String path) {
+            _path = path;
+        }
+
+        /**
+         * Sends the asynchronous request. Its callback has to hand the result code to {@link #done(int)}.
+         */
+        abstract void send(IZkConnection connection);
+
+        /**
+         * Processes the result on the thread executing the pipeline, follow-up requests may be submitted from here.
+         * Fails on anything but {@link Code#OK} by default.
+         */
+        void completed(Code code) throws KeeperException {
+            if (code != Code.OK) {
+                throw KeeperException.create(code, _path);
+            }
+        }
+
+        final void done(int resultCode) {
+            _resultCode = resultCode;
+            _pipeline._completed.add(this);
+        }
+    }
+
+    private final ZkClient _client;
+    private final int _maxInFlight;
+    private final ArrayDeque<Request> _pending = new ArrayDeque<Request>();
+    private final BlockingQueue<Request> _completed = new LinkedBlockingQueue<Request>();
+    private int _inFlight;
+
+    ZkPipeline(ZkClient client, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        _client = client;
+        _maxInFlight = maxInFlight;
+    }
+
+    void submit(Request request) {
+        _pending.add(request);
+    }
+
+    /**
+     * Submits a request to be sent before all other pending requests. Traversals pushing the requests for the children
+     * of a node go depth first, which keeps the pending requests bounded by the depth and fan-out of the tree instead
+     * of its size.
+     */
+    void push(Request request) {
+        _pending.addFirst(request);
+    }
+
+    int getPendingCount() {
+        return _pending.size() + _inFlight;
+    }
+
+    /**
+     * Sends all submitted requests and processes their results, including the requests submitted while processing,
+     * until nothing is left.
+     *
+     * @throws ZkException
+     *             the first failure of a request, after all requests in flight have completed
+     */
+    void execute() throws ZkInterruptedException, ZkException {
+        if (_client.isZkEventThread()) {
+            throw new IllegalArgumentException("Must not be done in the zookeeper event thread.");
+        }
+        RuntimeException failure = null;
+        try {
+            while (true) {
+                while (failure == null && _inFlight < _maxInFlight && !_pending.isEmpty()) {
+                    failure = send(_pending.poll());
+                }
+                if (_inFlight == 0) {
+                    break;
+                }
+                Request request = _completed.take();
+                _inFlight--;
+                if (failure != null) {
+                    // just wait for the requests in flight
+                    continue;
+                }
+                try {
+                    Code code = Code.get(request._resultCode);
+                    if (code == Code.CONNECTIONLOSS || code == Code.SESSIONEXPIRED) {
+                        retry(request);
+                    } else {
+                        request._retryStart = -1;
+                        request.completed(code);
+                    }
+                } catch (KeeperException e) {
+                    failure = ZkException.create(e);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new ZkInterruptedException(e);
+        }
+        if (failure != null) {
+            _pending.clear();
+            throw failure;
+        }
+    }
+
+    private RuntimeException send(Request request) {
+        if (_client.isClosed()) {
+            return new IllegalStateException("ZkClient already closed!");
+        }
+        request._pipeline = this;
+        _inFlight++;
+        try {
+            request.send(_client._connection);
+            return null;
+        } catch (RuntimeException e) {
+            // the callback will not be called
+            _inFlight--;
+            return e;
+        }
+    }
+
+    private void retry(Request request) {
+        long now = System.currentTimeMillis();
+        if (request._retryStart < 0) {
+            request._retryStart = now;
+        }
+        long retryTimeout = _client._operationRetryTimeoutInMillis;
+        if (retryTimeout > -1 && now - request._retryStart >= retryTimeout) {
+            throw new ZkTimeoutException("Operation cannot be retried because of retry timeout (" + retryTimeout + " milli seconds)");
+        }
+        // we give the event thread some time to update the status to 'Disconnected'
+        Thread.yield();
+        _client.waitForRetry();
+        RuntimeException failure = send(request);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.phial.zkclient;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Streams a subtree with its data and {@link Stat}s into a compact binary format and back. The tree is read by a
+ * {@link ZkTreeWalker} and each node is written as soon as it is read, so memory use depends on the depth and fan-out of
+ * the tree but not on its size.
+ *
+ * The export is no point in time snapshot: nodes changed while exporting are exported in any of their states, nodes
+ * deleted are skipped. Parents are always written before their children. ACLs are not exported.
+ *
+ * Format: the magic number, then per node a record marker, the path relative to the exported root (empty for the root
+ * itself), the {@link Stat} fields and the data (length -1 for null), finally an end marker.
+ */
+public final class ZkTreeExport {
+
+    private static final int MAGIC = 0x5A4B5431; // "ZKT1"
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+
+    private static final int IMPORT_CHUNK_SIZE = 10000;
+
+    private ZkTreeExport() {
+    }
+
+    /**
+     * A node read from an export.
+     */
+    public static final class Node {
+
+        private final String _path;
+        private final Stat _stat;
+        private final byte[] _data;
+
+        Node(String path, Stat stat, byte[] data) {
+            _path = path;
+            _stat = stat;
+            _data = data;
+        }
+
+        /**
+         * @return the path relative to the exported root, empty for the root itself.
+         */
+        public String getPath() {
+            return _path;
+        }
+
+        public Stat getStat() {
+            return _stat;
+        }
+
+        public byte[] getData() {
+            return _data;
+        }
+    }
+
+    public static long exportTree(ZkClient client, String path, OutputStream out) throws IOException {
+        return exportTree(client, path, out, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxInFlight
+     *            the maximum number of reads sent without having their response
+     * @return the number of exported nodes, 0 if the path does not exist
+     */
+    public static long exportTree(ZkClient client, final String path, OutputStream out, int maxInFlight) throws IOException {
+        final DataOutputStream output = new DataOutputStream(out);
+        output.writeInt(MAGIC);
+        ZkTreeWalker walker = new ZkTreeWalker(client);
+        walker.setParallelism(maxInFlight);
+        long count;
+        try {
+            count = walker.walk(path, new ZkTreeWalker.Visitor() {
+                @Override
+                public void visit(String nodePath, Stat stat, byte[] data) throws IOException {
+                    output.writeByte(RECORD);
+                    output.writeUTF(relativePath(path, nodePath));
+                    writeStat(output, stat);
+                    if (data == null) {
+                        output.writeInt(-1);
+                    } else {
+                        output.writeInt(data.length);
+                        output.write(data);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        output.writeByte(END);
+        output.flush();
+        return count;
+    }
+
+    private static String relativePath(String root, String path) {
+        if (root.equals("/")) {
+            return path.equals("/") ? "" : path;
+        }
+        return path.substring(root.length());
+    }
+
+    private static void writeStat(DataOutputStream output, Stat stat) throws IOException {
+        output.writeLong(stat.getCzxid());
+        output.writeLong(stat.getMzxid());
+        output.writeLong(stat.getCtime());
+        output.writeLong(stat.getMtime());
+        output.writeInt(stat.getVersion());
+        output.writeInt(stat.getCversion());
+        output.writeInt(stat.getAversion());
+        output.writeLong(stat.getEphemeralOwner());
+        output.writeInt(stat.getDataLength());
+        output.writeInt(stat.getNumChildren());
+        output.writeLong(stat.getPzxid());
+    }
+
+    private static Stat readStat(DataInputStream input) throws IOException {
+        Stat stat = new Stat();
+        stat.setCzxid(input.readLong());
+        stat.setMzxid(input.readLong());
+        stat.setCtime(input.readLong());
+        stat.setMtime(input.readLong());
+        stat.setVersion(input.readInt());
+        stat.setCversion(input.readInt());
+        stat.setAversion(input.readInt());
+        stat.setEphemeralOwner(input.readLong());
+        stat.setDataLength(input.readInt());
+        stat.setNumChildren(input.readInt());
+        stat.setPzxid(input.readLong());
+        return stat;
+    }
+
+    /**
+     * Reads the nodes of an export one by one.
+     */
+    public static final class Reader {
+
+        private final DataInputStream _input;
+        private boolean _finished;
+
+        public Reader(InputStream in) throws IOException {
+            _input = new DataInputStream(in);
+            int magic = _input.readInt();
+            if (magic != MAGIC) {
+                throw new IOException("Not a tree export, magic number " + Integer.toHexString(magic));
+            }
+        }
+
+        /**
+         * @return the next node or null after the last one
+         */
+        public Node next() throws IOException {
+            if (_finished) {
+                return null;
+            }
+            byte marker = _input.readByte();
+            if (marker == END) {
+                _finished = true;
+                return null;
+            }
+            if (marker != RECORD) {
+                throw new IOException("Corrupt tree export, unknown record " + marker);
+            }
+            String path = _input.readUTF();
+            Stat stat = readStat(_input);
+            int length = _input.readInt();
+            byte[] data = null;
+            if (length >= 0) {
+                data = new byte[length];
+                _input.readFully(data);
+            } else if (length != -1) {
+                throw new IOException("Corrupt tree export, data length " + length);
+            }
+            return new Node(path, stat, data);
+        }
+    }
+
+    public static long importTree(ZkClient client, InputStream in, String path) throws IOException {
+        return importTree(client, in, path, ZooDefs.Ids.OPEN_ACL_UNSAFE, ZkClient.DEFAULT_BATCH_SIZE, ZkPipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates the exported nodes below the given path, using {@link ZkClient#createPersistentBulk(Map, List, int, int)}
+     * for chunks of the export. Existing nodes are kept unchanged.
+     *
+     * @return the number of imported records
+     */
+    public static long importTree(ZkClient client, InputStream in, String path, List<ACL> acl, int batchSize, int maxInFlight) throws IOException {
+        return importTree(client, in, path, acl, batchSize, maxInFlight, IMPORT_CHUNK_SIZE);
+    }
+
+    static long importTree(ZkClient client, InputStream in, String path, List<ACL> acl, int batchSize, int maxInFlight, int chunkSize) throws IOException {
+        Reader reader = new Reader(in);
+        Map<String, byte[]> chunk = new LinkedHashMap<String, byte[]>();
+        // known to exist, so later chunks neither send nor look up the target path and the nodes created before again
+        Set<String> existingPaths = new HashSet<String>();
+        long count = 0;
+        Node node;
+        while ((node = reader.next()) != null) {
+            String nodePath;
+            if (node.getPath().isEmpty()) {
+                nodePath = path;
+            } else {
+                nodePath = path.equals("/") ? node.getPath() : path + node.getPath();
+            }
+            chunk.put(nodePath, node.getData());
+            count++;
+            if (chunk.size() >= chunkSize) {
+                client.createPersistentBulkRaw(chunk, acl, batchSize, maxInFlight, existingPaths);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            client.createPersistentBulkRaw(chunk, acl, batchSize, maxInFlight, existingPaths);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,166 @@
+package org.phial.zkclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.phial.zkclient.exception.ZkException;
+import org.phial.zkclient.exception.ZkInterruptedException;
+import org.phial.zkclient.util.ZkPathUtil.PathFilter;
+
+/**
+ * Visits every node of a subtree with its data and {@link Stat}. The nodes are read with pipelined asynchronous
+ * requests, at most {@link #setParallelism(int) parallelism} of them in flight, so a walk over a large tree is bounded
+ * by the throughput of the server rather than by round trips.
+ *
+ * The visitor is called on the walking thread, one node at a time. Further requests are only sent while the visitor is
+ * not busy, so a slow visitor throttles the walk instead of piling up responses. The tree is walked depth first, which
+ * keeps the pending requests bounded by the depth and fan-out of the tree. A node is always visited before its children,
+ * siblings may be visited in any order.
+ *
+ * The walk is no point in time snapshot: nodes deleted while walking are skipped, nodes created may or may not be
+ * visited.
+ */
+public class ZkTreeWalker {
+
+    /**
+     * Called for each node of the walked tree.
+     */
+    public interface Visitor {
+
+        public void visit(String path, Stat stat, byte[] data) throws Exception;
+    }
+
+    private final ZkClient _client;
+    private int _parallelism = ZkPipeline.DEFAULT_MAX_IN_FLIGHT;
+    private PathFilter _pathFilter = PathFilter.ALL;
+
+    public ZkTreeWalker(ZkClient client) {
+        if (client == null) {
+            throw new NullPointerException("ZkClient is null!");
+        }
+        _client = client;
+    }
+
+    /**
+     * @param parallelism
+     *            the maximum number of requests sent without having their response
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        _parallelism = parallelism;
+    }
+
+    /**
+     * Prunes the walk: the children of paths the filter does not show are neither read nor visited.
+     */
+    public void setPathFilter(PathFilter pathFilter) {
+        _pathFilter = pathFilter == null ? PathFilter.ALL : pathFilter;
+    }
+
+    /**
+     * Visits the subtree of the given path.
+     *
+     * @return the number of visited nodes, 0 if the path does not exist
+     * @throws RuntimeException
+     *             the exception of the visitor, wrapped if it is checked, the remaining nodes are not visited
+     */
+    public long walk(String path, Visitor visitor) throws ZkInterruptedException, ZkException, RuntimeException {
+        Walk walk = new Walk(new ZkPipeline(_client, _parallelism), visitor, _pathFilter);
+        walk._pipeline.submit(walk.new ReadDataRequest(path));
+        walk._pipeline.execute();
+        return walk._visited;
+    }
+
+    private static final class Walk {
+
+        private final ZkPipeline _pipeline;
+        private final Visitor _visitor;
+        private final PathFilter _pathFilter;
+        private long _visited;
+
+        Walk(ZkPipeline pipeline, Visitor visitor, PathFilter pathFilter) {
+            _pipeline = pipeline;
+            _visitor = visitor;
+            _pathFilter = pathFilter;
+        }
+
+        private final class ReadDataRequest extends ZkPipeline.Request {
+
+            private volatile byte[] _data;
+            private volatile Stat _stat;
+
+            ReadDataRequest(String path) {
+                super(path);
+            }
+
+            @Override
+            void send(IZkConnection connection) {
+                connection.readData(_path, false, new AsyncCallback.DataCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                        _data = data;
+                        _stat = stat;
+                        done(rc);
+                    }
+                }, null);
+            }
+
+            @Override
+            void completed(KeeperException.Code code) throws KeeperException {
+                if (code == KeeperException.Code.NONODE) {
+                    return;
+                }
+                super.completed(code);
+                try {
+                    _visitor.visit(_path, _stat, _data);
+                } catch (Exception e) {
+                    throw ExceptionUtil.convertToRuntimeException(e);
+                }
+                _visited++;
+                // the children are only read once the node is visited, so parents are always visited first
+                if (_pathFilter.showChilds(_path)) {
+                    _pipeline.push(new GetChildrenRequest(_path));
+                }
+            }
+        }
+
+        private final class GetChildrenRequest extends ZkPipeline.Request {
+
+            private volatile List<String> _children;
+
+            GetChildrenRequest(String path) {
+                super(path);
+            }
+
+            @Override
+            void send(IZkConnection connection) {
+                connection.getChildren(_path, false, new AsyncCallback.ChildrenCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, List<String> children) {
+                        _children = children;
+                        done(rc);
+                    }
+                }, null);
+            }
+
+            @Override
+            void completed(KeeperException.Code code) throws KeeperException {
+                if (code == KeeperException.Code.NONODE) {
+                    return;
+                }
+                super.completed(code);
+                List<String> children = new ArrayList<String>(_children);
+                Collections.sort(children);
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    _pipeline.push(new ReadDataRequest(_path.endsWith("/") ? _path + children.get(i) : _path + "/" + children.get(i)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.phial.zkclient.serialize;
+
+/**
+ * Writes and reads one user type for the {@link BinarySerializer}. Codecs are registered with
+ * {@link BinarySerializer#register(int, Class, BinaryCodec)} and have to be thread safe.
+ *
+ * @param <T>
+ *            The type handled by the codec.
+ */
+public interface BinaryCodec<T> {
+
+    public void write(T value, BinaryOutput output);
+
+    public T read(BinaryInput input);
+}
@@ -0,0 +1,122 @@
+package org.phial.zkclient.serialize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.phial.zkclient.exception.ZkMarshallingError;
+
+/**
+ * Reads the values written by a {@link BinaryOutput} from a byte array.
+ */
+public final class BinaryInput {
+
+    private final byte[] _buffer;
+    private final int _limit;
+    private int _position;
+
+    public BinaryInput(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public BinaryInput(byte[] buffer, int offset, int length) {
+        _buffer = buffer;
+        _position = offset;
+        _limit = offset + length;
+    }
+
+    public int remaining() {
+        return _limit - _position;
+    }
+
+    private void require(int length) {
+        if (length < 0 || _limit - _position < length) {
+            throw new ZkMarshallingError("Unexpected end of data, " + length + " bytes required but only " + remaining() + " available");
+        }
+    }
+
+    public byte readByte() {
+        require(1);
+        return _buffer[_position++];
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public short readShort() {
+        require(2);
+        return (short) (((_buffer[_position++] & 0xFF) << 8) | (_buffer[_position++] & 0xFF));
+    }
+
+    public int readInt() {
+        require(4);
+        return ((_buffer[_position++] & 0xFF) << 24) | ((_buffer[_position++] & 0xFF) << 16) | ((_buffer[_position++] & 0xFF) << 8) | (_buffer[_position++] & 0xFF);
+    }
+
+    public long readLong() {
+        require(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (_buffer[_position++] & 0xFF);
+        }
+        return value;
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ZkMarshallingError("Malformed variable length int");
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ZkMarshallingError("Malformed variable length long");
+    }
+
+    public int readSignedVarInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public byte[] readBytes() {
+        int length = readVarInt();
+        require(length);
+        byte[] bytes = Arrays.copyOfRange(_buffer, _position, _position + length);
+        _position += length;
+        return bytes;
+    }
+
+    public String readString() {
+        int length = readVarInt();
+        require(length);
+        String value = new String(_buffer, _position, length, StandardCharsets.UTF_8);
+        _position += length;
+        return value;
+    }
+}
@@ -0,0 +1,143 @@
+package org.phial.zkclient.serialize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer the {@link BinarySerializer} and {@link BinaryCodec}s write to. Integers can be written in a
+ * variable length encoding which keeps small values small.
+ */
+public final class BinaryOutput {
+
+    private byte[] _buffer;
+    private int _position;
+
+    public BinaryOutput(int initialCapacity) {
+        _buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    void reset() {
+        _position = 0;
+    }
+
+    int capacity() {
+        return _buffer.length;
+    }
+
+    public int size() {
+        return _position;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(_buffer, _position);
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = _position + additional;
+        if (required > _buffer.length) {
+            _buffer = Arrays.copyOf(_buffer, Math.max(required, _buffer.length << 1));
+        }
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        _buffer[_position++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeShort(int value) {
+        ensureCapacity(2);
+        _buffer[_position++] = (byte) (value >>> 8);
+        _buffer[_position++] = (byte) value;
+    }
+
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        _buffer[_position++] = (byte) (value >>> 24);
+        _buffer[_position++] = (byte) (value >>> 16);
+        _buffer[_position++] = (byte) (value >>> 8);
+        _buffer[_position++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            _buffer[_position++] = (byte) (value >>> shift);
+        }
+    }
+
+    public void writeFloat(float value) {
+        writeInt(Float.floatToRawIntBits(value));
+    }
+
+    public void writeDouble(double value) {
+        writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Writes an unsigned variable length int (1 - 5 bytes).
+     */
+    public void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            _buffer[_position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _buffer[_position++] = (byte) value;
+    }
+
+    /**
+     * Writes an unsigned variable length long (1 - 10 bytes).
+     */
+    public void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            _buffer[_position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _buffer[_position++] = (byte) value;
+    }
+
+    /**
+     * Writes a signed variable length int using zig-zag encoding, so small negative values stay small.
+     */
+    public void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeBytes(byte[] bytes) {
+        writeVarInt(bytes.length);
+        writeRawBytes(bytes, 0, bytes.length);
+    }
+
+    public void writeRawBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, _buffer, _position, length);
+        _position += length;
+    }
+
+    /**
+     * Writes the UTF-8 length and bytes of the string. Pure ASCII strings are copied without an intermediate array.
+     */
+    public void writeString(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                writeBytes(value.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        writeVarInt(length);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            _buffer[_position++] = (byte) value.charAt(i);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.phial.zkclient.serialize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.phial.zkclient.exception.ZkMarshallingError;
+
+/**
+ * A compact binary {@link ZkSerializer}. Each value is written as a one byte type tag followed by its payload.
+ * Supported out of the box are <code>null</code>, the boxed primitives, {@link String}, <code>byte[]</code> and
+ * {@link List}s, {@link Set}s and {@link Map}s of supported values. Any other type has to be registered with a
+ * {@link BinaryCodec} under an id that must not change as long as data written with it is stored in ZooKeeper.
+ *
+ * In contrast to the {@link SerializableSerializer} no class descriptors are written and no reflection is used. The
+ * write buffer is reused per thread, so serializing only allocates the returned byte array.
+ */
+public class BinarySerializer implements ZkSerializer {
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte CHAR = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTES = 11;
+    private static final byte LIST = 12;
+    private static final byte SET = 13;
+    private static final byte MAP = 14;
+    private static final byte CUSTOM = 15;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    // buffers grown beyond this size are not kept for the next call
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<BinaryOutput> BUFFERS = new ThreadLocal<BinaryOutput>() {
+        @Override
+        protected BinaryOutput initialValue() {
+            return new BinaryOutput(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    private static class Registration {
+        private final int _id;
+        private final BinaryCodec<Object> _codec;
+
+        Registration(int id, BinaryCodec<Object> codec) {
+            _id = id;
+            _codec = codec;
+        }
+    }
+
+    private volatile Map<Class<?>, Registration> _codecsByClass = new HashMap<Class<?>, Registration>();
+    private volatile Map<Integer, Registration> _codecsById = new HashMap<Integer, Registration>();
+
+    /**
+     * Registers a codec for the given type. Only instances of exactly this class are written with the codec.
+     *
+     * @param id
+     *            a non negative id which is stored with each value instead of the class name.
+     * @return this serializer
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> BinarySerializer register(int id, Class<T> type, BinaryCodec<T> codec) {
+        if (id < 0) {
+            throw new IllegalArgumentException("codec id must not be negative: " + id);
+        }
+        if (_codecsById.containsKey(id)) {
+            throw new IllegalArgumentException("codec id " + id + " already registered");
+        }
+        if (_codecsByClass.containsKey(type)) {
+            throw new IllegalArgumentException("codec for " + type.getName() + " already registered");
+        }
+        Registration registration = new Registration(id, (BinaryCodec<Object>) codec);
+        Map<Class<?>, Registration> byClass = new HashMap<Class<?>, Registration>(_codecsByClass);
+        byClass.put(type, registration);
+        Map<Integer, Registration> byId = new HashMap<Integer, Registration>(_codecsById);
+        byId.put(id, registration);
+        _codecsByClass = byClass;
+        _codecsById = byId;
+        return this;
+    }
+
+    @Override
+    public byte[] serialize(Object data) throws ZkMarshallingError {
+        BinaryOutput output = BUFFERS.get();
+        output.reset();
+        writeObject(data, output);
+        byte[] bytes = output.toByteArray();
+        if (output.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            BUFFERS.remove();
+        }
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws ZkMarshallingError {
+        BinaryInput input = new BinaryInput(bytes);
+        Object value = readObject(input);
+        if (input.remaining() != 0) {
+            throw new ZkMarshallingError(input.remaining() + " unexpected trailing bytes");
+        }
+        return value;
+    }
+
+    /**
+     * Writes a tagged value. Codecs may use this to write nested values.
+     */
+    public void writeObject(Object value, BinaryOutput output) {
+        if (value == null) {
+            output.writeByte(NULL);
+            return;
+        }
+        Registration registration = _codecsByClass.get(value.getClass());
+        if (registration != null) {
+            output.writeByte(CUSTOM);
+            output.writeVarInt(registration._id);
+            registration._codec.write(value, output);
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            output.writeString((String) value);
+        } else if (value instanceof Integer) {
+            output.writeByte(INT);
+            output.writeSignedVarInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeSignedVarLong((Long) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof byte[]) {
+            output.writeByte(BYTES);
+            output.writeBytes((byte[]) value);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            output.writeByte(SHORT);
+            output.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            output.writeByte(CHAR);
+            output.writeShort((Character) value);
+        } else if (value instanceof List) {
+            output.writeByte(LIST);
+            writeCollection((List<?>) value, output);
+        } else if (value instanceof Set) {
+            output.writeByte(SET);
+            writeCollection((Set<?>) value, output);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            output.writeByte(MAP);
+            output.writeVarInt(map.size());
+            for (Entry<?, ?> entry : map.entrySet()) {
+                writeObject(entry.getKey(), output);
+                writeObject(entry.getValue(), output);
+            }
+        } else {
+            throw new ZkMarshallingError("No codec registered for " + value.getClass().getName());
+        }
+    }
+
+    private void writeCollection(Collection<?> collection, BinaryOutput output) {
+        output.writeVarInt(collection.size());
+        for (Object element : collection) {
+            writeObject(element, output);
+        }
+    }
+
+    /**
+     * Reads a tagged value. Codecs may use this to read nested values.
+     */
+    public Object readObject(BinaryInput input) {
+        byte tag = input.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case FALSE:
+            return Boolean.FALSE;
+        case TRUE:
+            return Boolean.TRUE;
+        case BYTE:
+            return input.readByte();
+        case SHORT:
+            return input.readShort();
+        case INT:
+            return input.readSignedVarInt();
+        case LONG:
+            return input.readSignedVarLong();
+        case FLOAT:
+            return input.readFloat();
+        case DOUBLE:
+            return input.readDouble();
+        case CHAR:
+            return (char) input.readShort();
+        case STRING:
+            return input.readString();
+        case BYTES:
+            return input.readBytes();
+        case LIST: {
+            int size = readSize(input);
+            List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readObject(input));
+            }
+            return list;
+        }
+        case SET: {
+            int size = readSize(input);
+            Set<Object> set = new HashSet<Object>(capacity(size));
+            for (int i = 0; i < size; i++) {
+                set.add(readObject(input));
+            }
+            return set;
+        }
+        case MAP: {
+            int size = readSize(input);
+            Map<Object, Object> map = new HashMap<Object, Object>(capacity(size));
+            for (int i = 0; i < size; i++) {
+                map.put(readObject(input), readObject(input));
+            }
+            return map;
+        }
+        case CUSTOM: {
+            int id = input.readVarInt();
+            Registration registration = _codecsById.get(id);
+            if (registration == null) {
+                throw new ZkMarshallingError("No codec registered for id " + id);
+            }
+            return registration._codec.read(input);
+        }
+        default:
+            throw new ZkMarshallingError("Unknown type tag " + tag);
+        }
+    }
+
+    private static int readSize(BinaryInput input) {
+        int size = input.readVarInt();
+        // every element takes at least one byte, this protects against allocating huge collections for corrupt data
+        if (size < 0 || size > input.remaining()) {
+            throw new ZkMarshallingError("Invalid collection size " + size);
+        }
+        return size;
+    }
+
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+}
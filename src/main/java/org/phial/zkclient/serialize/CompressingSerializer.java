@@ -0,0 +1,194 @@
+package org.phial.zkclient.serialize;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.phial.zkclient.exception.ZkMarshallingError;
+
+/**
+ * A {@link ZkSerializer} decorator that deflates large payloads of another serializer. This keeps big znodes below
+ * <code>jute.maxbuffer</code> and reduces the transfer time of every read.
+ *
+ * Each payload starts with a header byte telling whether it is stored as is or deflated, followed in the latter case by
+ * the uncompressed length. Payloads smaller than the threshold, or which would not get smaller, are stored as is. The
+ * header bytes (0xC0, 0xC1) can neither start UTF-8 text, a Java serialization stream nor a {@link BinarySerializer}
+ * value, so data written by one of these serializers alone is still readable and passed to it unchanged.
+ *
+ * This does not hold for serializers writing arbitrary bytes, like {@link BytesPushThroughSerializer} or protobuf
+ * payloads: data they wrote without this decorator may start with a header byte and is misread then. Their data has to
+ * be written with this decorator from the start.
+ */
+public class CompressingSerializer implements ZkSerializer {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final byte STORED = (byte) 0xC0;
+    private static final byte DEFLATED = (byte) 0xC1;
+
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
+    private final ZkSerializer _serializer;
+    private final int _threshold;
+    private final ThreadLocal<Deflater> _deflaters;
+
+    public CompressingSerializer(ZkSerializer serializer) {
+        this(serializer, DEFAULT_THRESHOLD);
+    }
+
+    public CompressingSerializer(ZkSerializer serializer, int threshold) {
+        this(serializer, threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param serializer
+     *            The serializer creating the payload.
+     * @param threshold
+     *            Payloads with less bytes are not compressed.
+     * @param level
+     *            The {@link Deflater} compression level.
+     */
+    public CompressingSerializer(ZkSerializer serializer, int threshold, final int level) {
+        if (serializer == null) {
+            throw new NullPointerException("serializer must not be null");
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("invalid compression level " + level);
+        }
+        _serializer = serializer;
+        _threshold = threshold;
+        _deflaters = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(level);
+            }
+        };
+    }
+
+    @Override
+    public byte[] serialize(Object data) throws ZkMarshallingError {
+        byte[] bytes = _serializer.serialize(data);
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length >= _threshold) {
+            byte[] compressed = deflate(bytes);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+        byte[] stored = new byte[bytes.length + 1];
+        stored[0] = STORED;
+        System.arraycopy(bytes, 0, stored, 1, bytes.length);
+        return stored;
+    }
+
+    /**
+     * @return the header, length and deflated bytes or null if this would not be smaller than storing the payload.
+     */
+    private byte[] deflate(byte[] bytes) {
+        Deflater deflater = _deflaters.get();
+        byte[] buffer = buffer(bytes.length + 1);
+        int position = writeHeader(buffer, bytes.length);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            while (!deflater.finished() && position < bytes.length) {
+                position += deflater.deflate(buffer, position, bytes.length - position);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            return Arrays.copyOf(buffer, position);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static int writeHeader(byte[] buffer, int length) {
+        int position = 0;
+        buffer[position++] = DEFLATED;
+        while ((length & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        buffer[position++] = (byte) length;
+        return position;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws ZkMarshallingError {
+        if (bytes == null || bytes.length == 0) {
+            return _serializer.deserialize(bytes);
+        }
+        switch (bytes[0]) {
+        case STORED:
+            return _serializer.deserialize(Arrays.copyOfRange(bytes, 1, bytes.length));
+        case DEFLATED:
+            return _serializer.deserialize(inflate(bytes));
+        default:
+            // written without this decorator
+            return _serializer.deserialize(bytes);
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) {
+        BinaryInput input = new BinaryInput(bytes, 1, bytes.length - 1);
+        int length = input.readVarInt();
+        int offset = bytes.length - input.remaining();
+        // deflate can not compress better than about 1:1032, this guards against allocating huge arrays for corrupt data
+        if (length < 0 || length / 1032 > bytes.length) {
+            throw new ZkMarshallingError("Invalid uncompressed length " + length);
+        }
+        Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(bytes, offset, bytes.length - offset);
+            byte[] result = new byte[length];
+            int position = 0;
+            while (position < length) {
+                int inflated = inflater.inflate(result, position, length - position);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += inflated;
+            }
+            if (position != length) {
+                throw new ZkMarshallingError("Corrupt compressed data, expected " + length + " bytes but got " + position);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new ZkMarshallingError("Corrupt compressed data", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * @return the thread's scratch buffer, buffers exceeding the pool size are not kept.
+     */
+    private static byte[] buffer(int size) {
+        byte[] buffer = BUFFERS.get();
+        if (buffer.length < size) {
+            buffer = new byte[size];
+            if (size <= MAX_POOLED_BUFFER_SIZE) {
+                BUFFERS.set(buffer);
+            }
+        }
+        return buffer;
+    }
+}
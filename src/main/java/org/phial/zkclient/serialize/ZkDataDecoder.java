@@ -0,0 +1,24 @@
+package org.phial.zkclient.serialize;
+
+import java.nio.ByteBuffer;
+
+import org.phial.zkclient.exception.ZkMarshallingError;
+
+/**
+ * Decodes the data of a znode directly from the bytes received from ZooKeeper. This is used together with
+ * {@link org.phial.zkclient.ZkClient#decodeData(String, ZkDataDecoder)}.
+ *
+ * @param <T>
+ *            The decoded type.
+ */
+@FunctionalInterface
+public interface ZkDataDecoder<T> {
+
+    /**
+     * @param data
+     *            A read-only view of the znode data, positioned at its first byte. The buffer must not be used after
+     *            this method returned.
+     * @return the decoded value
+     */
+    public T decode(ByteBuffer data) throws ZkMarshallingError;
+}
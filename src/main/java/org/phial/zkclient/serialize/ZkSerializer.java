@@ -10,6 +10,7 @@ import org.phial.zkclient.exception.ZkMarshallingError;
  * 
  * @see BytesPushThroughSerializer
  * @see SerializableSerializer
+ * @see BinarySerializer
  */
 public interface ZkSerializer {
 
@@ -0,0 +1,17 @@
+package org.phial.zkclient.serialize;
+
+import org.phial.zkclient.exception.ZkMarshallingError;
+
+/**
+ * A {@link ZkSerializer} counterpart for a single type. In contrast to {@link ZkSerializer} it reads from a
+ * {@link java.nio.ByteBuffer} view of the znode data and needs no casts.
+ *
+ * @param <T>
+ *            The serialized type.
+ * @see org.phial.zkclient.ZkClient#decodeData(String, ZkDataDecoder)
+ * @see org.phial.zkclient.ZkClient#writeData(String, Object, ZkTypedSerializer)
+ */
+public interface ZkTypedSerializer<T> extends ZkDataDecoder<T> {
+
+    public byte[] serialize(T data) throws ZkMarshallingError;
+}
@@ -43,11 +43,11 @@ public class ZkPathUtil {
     }
 
     private static String getSpaces(final int level) {
-        String s = "";
+        StringBuilder builder = new StringBuilder(level * 2);
         for (int i = 0; i < level; i++) {
-            s += "  ";
+            builder.append("  ");
         }
-        return s;
+        return builder.toString();
     }
 
     public static interface PathFilter {
@@ -0,0 +1,51 @@
+package org.phial.zkclient;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChildCountWatcherTest {
+
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    @Test
+    public void testCountChildren() {
+        Assertions.assertEquals(0, _client.countChildren("/a"));
+        _client.createPersistent("/a");
+        _client.createPersistent("/a/b1");
+        _client.createPersistent("/a/b10");
+        _client.createPersistent("/a/b1/c");
+        Assertions.assertEquals(2, _client.countChildren("/a"));
+        Assertions.assertEquals(1, _client.countChildren("/a/b1"));
+    }
+
+    @Test
+    public void testWatcher() throws Exception {
+        _client.createPersistent("/a");
+        _client.createPersistent("/a/b1");
+        final ChildCountWatcher watcher = new ChildCountWatcher(_client, "/a");
+        watcher.start();
+        Assertions.assertEquals(1, watcher.getCount());
+
+        _client.createPersistent("/a/b2");
+        _client.createPersistent("/a/b3");
+        Assertions.assertEquals(Integer.valueOf(3), TestUtil.waitUntil(3, () -> watcher.getCount(), TimeUnit.SECONDS, 5));
+
+        _client.deleteRecursive("/a");
+        Assertions.assertEquals(Integer.valueOf(0), TestUtil.waitUntil(0, () -> watcher.getCount(), TimeUnit.SECONDS, 5));
+        watcher.stop();
+    }
+}
@@ -0,0 +1,77 @@
+package org.phial.zkclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.util.ZkPathUtil;
+
+public class ChildIndexTest {
+
+    private ZkClient _client;
+    private ChildIndex _index;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+        _client.createPersistent("/queue");
+        for (int i = 0; i < 25; i++) {
+            _client.createPersistent("/queue/element-" + ZkPathUtil.leadingZeros(i, 3));
+        }
+        _client.createPersistent("/queue/lock");
+        _index = new ChildIndex(_client, "/queue");
+        _index.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _index.stop();
+        _client.close();
+    }
+
+    @Test
+    public void testPages() {
+        Assertions.assertEquals(26, _index.size());
+        List<String> first = _index.page("element-", null, 10);
+        Assertions.assertEquals(10, first.size());
+        Assertions.assertEquals("element-000", first.get(0));
+        Assertions.assertEquals("element-009", first.get(9));
+
+        List<String> third = _index.page("element-", "element-019", 10);
+        Assertions.assertEquals(Arrays.asList("element-020", "element-021", "element-022", "element-023", "element-024"), third);
+        Assertions.assertTrue(_index.page("element-", "element-024", 10).isEmpty());
+        Assertions.assertEquals(Arrays.asList("lock"), _index.page("lock", null, 10));
+        Assertions.assertTrue(_index.page("missing", null, 10).isEmpty());
+
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (Iterator<List<String>> pages = _index.pages(null, 10); pages.hasNext();) {
+            sizes.add(pages.next().size());
+        }
+        Assertions.assertEquals(Arrays.asList(10, 10, 6), sizes);
+    }
+
+    @Test
+    public void testIterator() {
+        Iterator<String> iterator = _index.iterator("element-02");
+        List<String> children = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            children.add(iterator.next());
+        }
+        Assertions.assertEquals(5, children.size());
+        Assertions.assertEquals("element-020", children.get(0));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        _client.createPersistent("/queue/element-100");
+        _client.delete("/queue/element-000");
+        Assertions.assertEquals("element-001", TestUtil.waitUntil("element-001", () -> _index.page(null, null, 1).get(0), TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(Arrays.asList("element-100"), _index.page("element-", "element-024", 10));
+    }
+}
@@ -0,0 +1,135 @@
+package org.phial.zkclient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.serialize.SerializableSerializer;
+
+public class ContentWatcherRegistryTest {
+
+    private ZkClient _client;
+    private final AtomicInteger _deserializations = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+        _client.setZkSerializer(new SerializableSerializer() {
+            @Override
+            public Object deserialize(byte[] bytes) {
+                _deserializations.incrementAndGet();
+                return super.deserialize(bytes);
+            }
+        });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    @Test
+    public void testConsumersShareOneWatcher() throws Exception {
+        _client.createPersistent("/config", "a");
+        ContentWatcherRegistry registry = _client.getContentWatchers();
+        ContentWatcher<String> first = registry.acquire("/config", String.class);
+        ContentWatcher<String> second = registry.acquire("/config", String.class);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(2, registry.getReferences("/config"));
+        Assertions.assertEquals(1, _client.numberOfListeners());
+        Assertions.assertEquals("a", second.getContent());
+
+        _deserializations.set(0);
+        _client.writeData("/config", "b");
+        Assertions.assertEquals("b", TestUtil.waitUntil("b", () -> first.getContent(), TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("b", second.getContent());
+        Assertions.assertEquals(1, _deserializations.get());
+
+        registry.release("/config");
+        Assertions.assertEquals(1, _client.numberOfListeners());
+        registry.release("/config");
+        Assertions.assertEquals(0, registry.getReferences("/config"));
+        Assertions.assertEquals(0, _client.numberOfListeners());
+        Assertions.assertThrows(IllegalStateException.class, () -> registry.release("/config"));
+
+        // a new acquisition starts a new watcher
+        ContentWatcher<String> third = registry.acquire("/config", String.class);
+        Assertions.assertNotSame(first, third);
+        Assertions.assertEquals("b", third.getContent());
+        registry.release("/config");
+    }
+
+    @Test
+    public void testConsumersMustAskForTheSameContent() throws Exception {
+        _client.createPersistent("/port", "8080");
+        ContentWatcherRegistry registry = _client.getContentWatchers();
+        final AtomicInteger parsed = new AtomicInteger();
+        Function<Object, Integer> parse = data -> {
+            parsed.incrementAndGet();
+            return Integer.valueOf((String) data);
+        };
+        ContentWatcher<Integer> first = registry.acquire("/port", parse);
+        ContentWatcher<Integer> second = registry.acquire("/port", parse);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(8080, (int) second.getContent());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.acquire("/port", Integer.class));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.acquire("/port", data -> Integer.valueOf((String) data)));
+        Assertions.assertEquals(2, registry.getReferences("/port"));
+
+        parsed.set(0);
+        _client.writeData("/port", "8081");
+        Assertions.assertEquals(8081, (int) TestUtil.waitUntil(8081, () -> first.getContent(), TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(1, parsed.get());
+        registry.release("/port");
+        registry.release("/port");
+
+        // content of another type is not taken
+        ContentWatcher<Integer> typed = registry.acquire("/port", Integer.class);
+        Assertions.assertNull(typed.getSnapshot());
+        registry.release("/port");
+    }
+
+    @Test
+    public void testStartingWatcherDoesNotBlockOtherPaths() throws Exception {
+        FaultInjectingConnection connection = new FaultInjectingConnection(new InMemoryConnection());
+        ZkClient client = new ZkClient(connection);
+        try {
+            client.createPersistent("/slow", "a");
+            client.createPersistent("/fast", "b");
+            final ContentWatcherRegistry registry = client.getContentWatchers();
+            connection.setLatency(FaultInjectingConnection.Operation.READ_DATA, FaultInjectingConnection.LatencyDistribution.fixed(1000));
+            final List<ContentWatcher<String>> watchers = new CopyOnWriteArrayList<ContentWatcher<String>>();
+            Thread starter = new Thread(() -> watchers.add(registry.acquire("/slow", String.class)));
+            starter.start();
+            // reading the content
+            Assertions.assertEquals(Thread.State.TIMED_WAITING, TestUtil.waitUntil(Thread.State.TIMED_WAITING, () -> starter.getState(), TimeUnit.SECONDS, 5));
+            Assertions.assertEquals(1, registry.getReferences("/slow"));
+            Thread waiter = new Thread(() -> watchers.add(registry.acquire("/slow", String.class)));
+            waiter.start();
+
+            // the watcher of another path starts and stops meanwhile
+            connection.setLatency(FaultInjectingConnection.Operation.READ_DATA, FaultInjectingConnection.LatencyDistribution.NONE);
+            long start = System.nanoTime();
+            Assertions.assertEquals("b", registry.acquire("/fast", String.class).getContent());
+            registry.release("/fast");
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+            starter.join(5000);
+            waiter.join(5000);
+            Assertions.assertEquals(2, watchers.size());
+            Assertions.assertSame(watchers.get(0), watchers.get(1));
+            Assertions.assertEquals("a", watchers.get(1).getSnapshot().getData());
+            registry.release("/slow");
+            registry.release("/slow");
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.phial.zkclient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ContentWatcherSnapshotTest {
+
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    @Test
+    public void testSnapshotsAreVersioned() throws Exception {
+        _client.createPersistent("/config", "a");
+        ContentWatcher<String> watcher = new ContentWatcher<String>(_client, "/config");
+        watcher.start();
+        ContentWatcher.Snapshot<String> first = watcher.getSnapshot();
+        Assertions.assertEquals("a", first.getData());
+        Assertions.assertEquals(0, first.getVersion());
+        Assertions.assertNull(watcher.awaitNewerThan(first, 50, TimeUnit.MILLISECONDS));
+
+        _client.writeData("/config", "b");
+        ContentWatcher.Snapshot<String> second = watcher.awaitNewerThan(first, 5, TimeUnit.SECONDS);
+        Assertions.assertEquals("b", second.getData());
+        Assertions.assertEquals(1, second.getVersion());
+        Assertions.assertTrue(second.getMzxid() > first.getMzxid());
+        Assertions.assertEquals("b", watcher.getContent());
+
+        // the version starts again, the mzxid does not
+        _client.delete("/config");
+        _client.createPersistent("/config", "c");
+        ContentWatcher.Snapshot<String> third = watcher.awaitNewerThan(second, 5, TimeUnit.SECONDS);
+        Assertions.assertEquals("c", third.getData());
+        Assertions.assertEquals(0, third.getVersion());
+        Assertions.assertTrue(third.getMzxid() > second.getMzxid());
+        watcher.stop();
+    }
+
+    @Test
+    public void testAwaitFirstContent() throws Exception {
+        ContentWatcher<String> watcher = new ContentWatcher<String>(_client, "/config");
+        watcher.start();
+        Assertions.assertNull(watcher.getSnapshot());
+        Assertions.assertNull(watcher.awaitNewerThan(null, 50, TimeUnit.MILLISECONDS));
+        _client.createPersistent("/config", "a");
+        Assertions.assertEquals("a", watcher.awaitNewerThan(null, 5, TimeUnit.SECONDS).getData());
+        watcher.stop();
+    }
+
+    @Test
+    public void testTransformOncePerChange() throws Exception {
+        _client.createPersistent("/config", "1");
+        final AtomicInteger transformations = new AtomicInteger();
+        ContentWatcher<Integer> watcher = new ContentWatcher<Integer>(_client, "/config", data -> {
+            transformations.incrementAndGet();
+            return Integer.valueOf((String) data);
+        });
+        watcher.start();
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(Integer.valueOf(1), watcher.getContent());
+        }
+        Assertions.assertEquals(1, transformations.get());
+
+        // content which cannot be transformed keeps the previous one
+        ContentWatcher.Snapshot<Integer> snapshot = watcher.getSnapshot();
+        _client.writeData("/config", "not a number");
+        _client.writeData("/config", "2");
+        Assertions.assertEquals(Integer.valueOf(2), TestUtil.waitUntil(2, () -> watcher.getContent(), TimeUnit.SECONDS, 5));
+        Assertions.assertNotSame(snapshot, watcher.getSnapshot());
+        watcher.stop();
+    }
+}
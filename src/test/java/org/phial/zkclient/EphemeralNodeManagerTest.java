@@ -0,0 +1,149 @@
+package org.phial.zkclient;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class EphemeralNodeManagerTest {
+
+    private ZkServer _zkServer;
+    private ZkClient _client;
+    private ZkClient _otherClient;
+
+    @AfterEach
+    public void tearDown() {
+        if (_client != null) {
+            _client.close();
+        }
+        if (_otherClient != null) {
+            _otherClient.close();
+        }
+        if (_zkServer != null) {
+            _zkServer.shutdown();
+        }
+    }
+
+    @Test
+    public void testNodesAreCreatedAgainInNewSession() throws Exception {
+        _client = new ZkClient(new InMemoryConnection());
+        EphemeralNodeManager manager = new EphemeralNodeManager(_client, ZooDefs.Ids.OPEN_ACL_UNSAFE, 100, 10);
+        manager.start();
+        Map<String, Object> nodes = new HashMap<String, Object>();
+        for (int i = 0; i < 1000; i++) {
+            nodes.put("/services/shard-" + (i % 10) + "/instance-" + i, "instance-" + i);
+        }
+        manager.registerAll(nodes);
+        long firstSession = _client.getSessionId();
+        Assertions.assertNotEquals(0, firstSession);
+        for (String path : nodes.keySet()) {
+            Assertions.assertEquals(firstSession, _client.stat(path).getEphemeralOwner());
+        }
+        Assertions.assertEquals(-1, manager.getLastReregistrationMillis());
+
+        TestUtil.expireSession(_client);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> manager.getLastReregistrationMillis() >= 0, TimeUnit.SECONDS, 10));
+        long secondSession = _client.getSessionId();
+        Assertions.assertNotEquals(firstSession, secondSession);
+        for (Map.Entry<String, Object> node : nodes.entrySet()) {
+            Stat stat = new Stat();
+            Assertions.assertEquals(node.getValue(), _client.readData(node.getKey(), stat));
+            Assertions.assertEquals(secondSession, stat.getEphemeralOwner());
+        }
+        manager.stop();
+    }
+
+    @Test
+    public void testUnregister() throws Exception {
+        _client = new ZkClient(new InMemoryConnection());
+        EphemeralNodeManager manager = new EphemeralNodeManager(_client);
+        manager.start();
+        manager.register("/services/a", "a");
+        manager.register("/services/b", "b");
+        // registering again keeps the node of the session
+        manager.register("/services/a", "a");
+        Assertions.assertEquals(2, manager.getRegisteredPaths().size());
+
+        Assertions.assertTrue(manager.unregister("/services/a"));
+        Assertions.assertFalse(manager.unregister("/services/a"));
+        Assertions.assertFalse(_client.exists("/services/a"));
+
+        TestUtil.expireSession(_client);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> manager.getLastReregistrationMillis() >= 0, TimeUnit.SECONDS, 10));
+        Assertions.assertFalse(_client.exists("/services/a"));
+        Assertions.assertTrue(_client.exists("/services/b"));
+        manager.stop();
+    }
+
+    @Test
+    public void testNodeOfOtherSessionIsCreatedOnceDeleted() throws Exception {
+        _zkServer = TestUtil.startZkServer("EphemeralNodeManagerTest", 4711);
+        _client = new ZkClient("localhost:4711", 30000);
+        _otherClient = new ZkClient("localhost:4711", 30000);
+        _otherClient.createPersistent("/services");
+        _otherClient.createEphemeral("/services/a", "other");
+
+        EphemeralNodeManager manager = new EphemeralNodeManager(_client);
+        manager.start();
+        Map<String, Object> nodes = new HashMap<String, Object>();
+        nodes.put("/services/a", "a");
+        nodes.put("/services/b", "b");
+        manager.registerAll(nodes);
+        Assertions.assertEquals(_client.getSessionId(), _client.stat("/services/b").getEphemeralOwner());
+        Assertions.assertEquals(_otherClient.getSessionId(), _client.stat("/services/a").getEphemeralOwner());
+        Assertions.assertEquals("other", _client.readData("/services/a"));
+
+        _otherClient.close();
+        _otherClient = null;
+        Assertions.assertEquals("a", TestUtil.waitUntil("a", () -> _client.readData("/services/a", true), TimeUnit.SECONDS, 10));
+        Assertions.assertEquals(_client.getSessionId(), _client.stat("/services/a").getEphemeralOwner());
+        manager.stop();
+    }
+
+    @Test
+    public void testRegisterWhileNodesAreCreated() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        _client = new ZkClient(new InMemoryConnection() {
+            @Override
+            public void multi(Iterable<Op> ops, AsyncCallback.MultiCallback cb, Object ctx) {
+                if (ops.iterator().next().getPath().startsWith("/slow")) {
+                    sent.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.multi(ops, cb, ctx);
+            }
+        });
+        _client.createPersistent("/slow");
+        _client.createPersistent("/fast");
+        EphemeralNodeManager manager = new EphemeralNodeManager(_client);
+        manager.start();
+        Thread slow = new Thread(() -> manager.register("/slow/a", "a"));
+        slow.start();
+        try {
+            Assertions.assertTrue(sent.await(5, TimeUnit.SECONDS));
+            // the requests of the other registration are in flight, they do not hold up this one
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> manager.register("/fast/b", "b"));
+            Assertions.assertTrue(_client.exists("/fast/b"));
+            Assertions.assertEquals(2, manager.getRegisteredPaths().size());
+        } finally {
+            release.countDown();
+            slow.join();
+        }
+        Assertions.assertTrue(_client.exists("/slow/a"));
+        manager.stop();
+    }
+}
@@ -0,0 +1,65 @@
+package org.phial.zkclient;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Measures the bytes allocated per event by the sending thread and by the event thread, with debug logging off as in
+ * production. The sender allocates the event itself (the payload) and the event thread should allocate nothing. This is
+ * not run as part of the tests, start it with <code>main</code> on a HotSpot JVM.
+ */
+public class EventAllocationBenchmark {
+
+    private static final int WARMUP_EVENTS = 500000;
+    private static final int EVENTS = 2000000;
+
+    private static final class CountingEvent extends ZkEventThread.ZkEvent {
+
+        private final CountDownLatch _delivered;
+
+        CountingEvent(CountDownLatch delivered) {
+            super(null, "/path");
+            _delivered = delivered;
+        }
+
+        @Override
+        public void run() {
+            _delivered.countDown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Logger.getRootLogger().setLevel(Level.INFO);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ZkEventThread eventThread = new ZkEventThread("benchmark");
+        eventThread.setQueue(10000, EventOverflowPolicy.BLOCK);
+        eventThread.start();
+        try {
+            run(eventThread, WARMUP_EVENTS);
+
+            long sender = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long receiver = threads.getThreadAllocatedBytes(eventThread.getId());
+            run(eventThread, EVENTS);
+            sender = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - sender;
+            receiver = threads.getThreadAllocatedBytes(eventThread.getId()) - receiver;
+            System.out.println(String.format("sending thread %6.1f bytes/event", (double) sender / EVENTS));
+            System.out.println(String.format("event thread   %6.1f bytes/event", (double) receiver / EVENTS));
+        } finally {
+            eventThread.interrupt();
+        }
+    }
+
+    private static void run(ZkEventThread eventThread, int events) throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(events);
+        for (int i = 0; i < events; i++) {
+            eventThread.send(new CountingEvent(delivered));
+        }
+        if (!delivered.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Not all events delivered");
+        }
+    }
+}
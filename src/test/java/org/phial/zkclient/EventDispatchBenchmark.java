@@ -0,0 +1,68 @@
+package org.phial.zkclient;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.phial.zkclient.util.VirtualThreads;
+
+/**
+ * Compares the listener dispatch of the event thread with executors when listeners block (simulated with a sleep). This
+ * is not run as part of the tests, start it with <code>main</code>, on Java 21+ to include virtual threads.
+ */
+public class EventDispatchBenchmark {
+
+    private static final int PATHS = 200;
+    private static final int CHANGES_PER_PATH = 5;
+    private static final long LISTENER_BLOCKING_MILLIS = 2;
+
+    public static void main(String[] args) throws Exception {
+        benchmark("event thread", null);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        benchmark("16 platform threads", pool);
+        pool.shutdown();
+        if (VirtualThreads.isAvailable()) {
+            ExecutorService virtual = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            benchmark("virtual threads", virtual);
+            virtual.shutdown();
+        }
+    }
+
+    private static void benchmark(String name, Executor executor) throws Exception {
+        ZkClient client = new ZkClient(new InMemoryConnection());
+        try {
+            client.setEventExecutor(executor);
+            final CountDownLatch delivered = new CountDownLatch(PATHS * CHANGES_PER_PATH);
+            for (int i = 0; i < PATHS; i++) {
+                String path = "/p" + i;
+                client.createPersistent(path, "0");
+                client.subscribeDataChanges(path, new IZkDataListener() {
+                    @Override
+                    public void handleDataChange(String dataPath, Object data) throws Exception {
+                        Thread.sleep(LISTENER_BLOCKING_MILLIS);
+                        delivered.countDown();
+                    }
+
+                    @Override
+                    public void handleDataDeleted(String dataPath) {
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (int change = 1; change <= CHANGES_PER_PATH; change++) {
+                for (int i = 0; i < PATHS; i++) {
+                    client.writeData("/p" + i, String.valueOf(change));
+                }
+            }
+            if (!delivered.await(5, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Not all notifications delivered");
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%-20s %8.0f notifications/s", name, PATHS * CHANGES_PER_PATH / (elapsed / 1e9)));
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.phial.zkclient;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+public class FaultInjectingConnectionTest {
+
+    private InMemoryConnection _inMemoryConnection;
+    private FaultInjectingConnection _connection;
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _inMemoryConnection = new InMemoryConnection();
+        _connection = new FaultInjectingConnection(_inMemoryConnection);
+        _client = new ZkClient(_connection, 5000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    @Test
+    @Timeout(value = 15, unit = TimeUnit.SECONDS)
+    public void testRetryOnInjectedConnectionLoss() {
+        _connection.setConnectionLossRate(0.5);
+        for (int i = 0; i < 20; i++) {
+            _client.createPersistent("/node" + i, "data" + i);
+        }
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertEquals("data" + i, _client.readData("/node" + i));
+        }
+        Assertions.assertTrue(_connection.getInjectedConnectionLosses() > 0);
+    }
+
+    @Test
+    public void testLostResponseIsApplied() throws Exception {
+        _connection.setLostResponseRate(1.0);
+        Assertions.assertThrows(KeeperException.ConnectionLossException.class, () -> _connection.create("/a", null, CreateMode.PERSISTENT));
+        _connection.reset();
+        Assertions.assertTrue(_inMemoryConnection.exists("/a", false));
+    }
+
+    @Test
+    public void testSessionExpired() {
+        _connection.setSessionExpiredRate(1.0);
+        Assertions.assertThrows(KeeperException.SessionExpiredException.class, () -> _connection.exists("/a", false));
+        Assertions.assertEquals(1, _connection.getInjectedSessionExpirations());
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        _client.createPersistent("/a", "data");
+        _connection.setLatency(FaultInjectingConnection.Operation.READ_DATA, FaultInjectingConnection.LatencyDistribution.fixed(100));
+        long start = System.nanoTime();
+        _client.readData("/a");
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+
+        // other operations are not affected
+        start = System.nanoTime();
+        _client.exists("/a");
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+    }
+
+    @Test
+    public void testThrottle() {
+        _connection.setThrottle(20);
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            _client.exists("/a");
+        }
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 450);
+    }
+
+    @Test
+    public void testInvalidRate() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> _connection.setConnectionLossRate(1.5));
+    }
+}
@@ -0,0 +1,142 @@
+package org.phial.zkclient;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+public class GatewayTest {
+
+    private static final int GATEWAY_PORT = 4721;
+    private static final int ECHO_PORT = 4722;
+
+    private ServerSocket _echoServer;
+    private final List<Socket> _echoSockets = new CopyOnWriteArrayList<Socket>();
+    private Gateway _gateway;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        _echoServer = new ServerSocket();
+        _echoServer.setReuseAddress(true);
+        _echoServer.bind(new InetSocketAddress(ECHO_PORT));
+        Thread acceptThread = new Thread(() -> {
+            try {
+                while (true) {
+                    final Socket socket = _echoServer.accept();
+                    _echoSockets.add(socket);
+                    Thread echoThread = new Thread(() -> {
+                        byte[] buffer = new byte[8192];
+                        try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                            int read;
+                            while ((read = in.read(buffer)) != -1) {
+                                out.write(buffer, 0, read);
+                            }
+                        } catch (IOException e) {
+                            // connection closed
+                        }
+                    });
+                    echoThread.setDaemon(true);
+                    echoThread.start();
+                }
+            } catch (IOException e) {
+                // server closed
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        _gateway = new Gateway(GATEWAY_PORT, ECHO_PORT);
+        _gateway.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        _gateway.stop();
+        _echoServer.close();
+        // accepted sockets still open would keep the port from being bound again by the next test
+        for (Socket socket : _echoSockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    @Timeout(value = 15, unit = TimeUnit.SECONDS)
+    public void testTransfer() throws Exception {
+        byte[] data = new byte[4 * 1024 * 1024];
+        new Random().nextBytes(data);
+        try (Socket socket = new Socket("localhost", GATEWAY_PORT)) {
+            byte[] received = echo(socket, data);
+            Assertions.assertArrayEquals(data, received);
+        }
+    }
+
+    @Test
+    @Timeout(value = 15, unit = TimeUnit.SECONDS)
+    public void testLatency() throws Exception {
+        _gateway.setLatency(100);
+        try (Socket socket = new Socket("localhost", GATEWAY_PORT)) {
+            long start = System.nanoTime();
+            echo(socket, new byte[] { 1 });
+            // one way latency is applied in both directions
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        }
+    }
+
+    @Test
+    @Timeout(value = 15, unit = TimeUnit.SECONDS)
+    public void testBandwidth() throws Exception {
+        _gateway.setBandwidth(100 * 1024);
+        try (Socket socket = new Socket("localhost", GATEWAY_PORT)) {
+            long start = System.nanoTime();
+            echo(socket, new byte[100 * 1024]);
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 800);
+        }
+    }
+
+    @Test
+    @Timeout(value = 15, unit = TimeUnit.SECONDS)
+    public void testPauseAndResume() throws Exception {
+        try (Socket socket = new Socket("localhost", GATEWAY_PORT)) {
+            echo(socket, new byte[] { 1 });
+            Assertions.assertEquals(1, _gateway.getConnectionIds().size());
+
+            _gateway.pauseConnection(_gateway.getConnectionIds().get(0));
+            socket.getOutputStream().write(2);
+            socket.setSoTimeout(300);
+            Assertions.assertThrows(SocketTimeoutException.class, () -> socket.getInputStream().read());
+
+            _gateway.resume();
+            socket.setSoTimeout(5000);
+            Assertions.assertEquals(2, socket.getInputStream().read());
+        }
+    }
+
+    private static byte[] echo(final Socket socket, final byte[] data) throws Exception {
+        Thread writer = new Thread(() -> {
+            try {
+                socket.getOutputStream().write(data);
+                socket.getOutputStream().flush();
+            } catch (IOException e) {
+                // reported by the reader
+            }
+        });
+        writer.start();
+        byte[] received = new byte[data.length];
+        new DataInputStream(socket.getInputStream()).readFully(received);
+        writer.join();
+        return received;
+    }
+}
@@ -0,0 +1,133 @@
+package org.phial.zkclient;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GroupMembershipTest {
+
+    private InMemoryConnection _connection;
+    private ZkClient _client;
+    private GroupMembership _group;
+    private final List<List<String>> _joined = new CopyOnWriteArrayList<List<String>>();
+    private final List<List<String>> _left = new CopyOnWriteArrayList<List<String>>();
+
+    @BeforeEach
+    public void setUp() {
+        _connection = new InMemoryConnection();
+        _client = new ZkClient(_connection);
+        _client.createPersistent("/group");
+        _group = new GroupMembership(_client, "/group");
+        _group.start();
+        _group.addListener((groupPath, joined, left) -> {
+            _joined.add(joined);
+            _left.add(left);
+        });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _group.stop();
+        _client.close();
+    }
+
+    @Test
+    public void testJoinedAndLeftMembers() throws Exception {
+        _group.join("b", null);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _group.isMember("b"), TimeUnit.SECONDS, 5));
+        _group.join("a", null);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _group.size() == 2, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(Arrays.asList("a", "b"), _group.getMembers());
+        Assertions.assertEquals(Arrays.asList(Arrays.asList("b"), Arrays.asList("a")), _joined);
+
+        Assertions.assertTrue(_group.leave("b"));
+        Assertions.assertFalse(_group.leave("c"));
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _left.size() == 3, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(Arrays.asList("b"), _left.get(2));
+        Assertions.assertTrue(_joined.get(2).isEmpty());
+        Assertions.assertEquals(Arrays.asList("a"), _group.getMembers());
+        Assertions.assertFalse(_group.isMember("b"));
+    }
+
+    @Test
+    public void testBurstIsComparedOnce() throws Exception {
+        // keep the event thread busy while the members join
+        final CountDownLatch release = new CountDownLatch(1);
+        _client.createPersistent("/block", "0");
+        _client.subscribeDataChanges("/block", new IZkDataListener() {
+
+            @Override
+            public void handleDataChange(String dataPath, Object data) throws Exception {
+                release.await();
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+            }
+        });
+        _client.writeData("/block", "1");
+        for (int i = 0; i < 50; i++) {
+            _client.createPersistent("/group/member-" + (100 + i));
+        }
+        // all child changes are queued once the connection delivered its events
+        TestUtil.awaitDeliveredEvents(_connection, _client);
+
+        release.countDown();
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _group.size() == 50, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(1, _joined.size());
+        Assertions.assertEquals(50, _joined.get(0).size());
+        Assertions.assertEquals("member-100", _joined.get(0).get(0));
+    }
+
+    @Test
+    public void testCompareIsQueuedAgainAfterItWasDropped() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        try {
+            _client.setEventExecutor(command -> {
+                if (reject.get()) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(command);
+            });
+            _group.handleChildChange("/group", Arrays.asList("x"));
+            reject.set(false);
+
+            _client.createPersistent("/group/a");
+            Assertions.assertTrue(TestUtil.waitUntil(true, () -> _group.isMember("a"), TimeUnit.SECONDS, 5));
+            Assertions.assertEquals(Arrays.asList("a"), _group.getMembers());
+        } finally {
+            _client.setEventExecutor(null);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testListenerMayChangeMembership() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        _group.addListener((groupPath, joined, left) -> {
+            if (joined.contains("a")) {
+                _group.join("b", null);
+                release.await();
+            }
+        });
+        _group.join("a", null);
+        // the blocked listener neither stops the child changes nor new listeners
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.exists("/group/b"), TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(Arrays.asList("a"), _group.addListener((groupPath, joined, left) -> {
+        }));
+        release.countDown();
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _group.size() == 2, TimeUnit.SECONDS, 5));
+    }
+}
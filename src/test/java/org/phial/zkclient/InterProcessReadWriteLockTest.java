@@ -0,0 +1,147 @@
+package org.phial.zkclient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.exception.ZkInterruptedException;
+
+public class InterProcessReadWriteLockTest {
+
+    private FaultInjectingConnection _connection;
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _connection = new FaultInjectingConnection(new InMemoryConnection());
+        _client = new ZkClient(_connection);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    private InterProcessReadWriteLock.Lock readLock() {
+        return new InterProcessReadWriteLock(_client, "/locks/config").readLock();
+    }
+
+    private InterProcessReadWriteLock.Lock writeLock() {
+        return new InterProcessReadWriteLock(_client, "/locks/config").writeLock();
+    }
+
+    private Thread lockInThread(final InterProcessReadWriteLock.Lock lock) {
+        Thread thread = new Thread(() -> lock.lock());
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testReadersShareWritersExclude() throws Exception {
+        InterProcessReadWriteLock.Lock reader1 = readLock();
+        InterProcessReadWriteLock.Lock reader2 = readLock();
+        InterProcessReadWriteLock.Lock writer = writeLock();
+        reader1.lock();
+        Assertions.assertTrue(reader2.tryLock(1, TimeUnit.SECONDS));
+        Assertions.assertFalse(writer.tryLock(100, TimeUnit.MILLISECONDS));
+        // the failed attempt left no node
+        Assertions.assertEquals(2, _client.countChildren("/locks/config"));
+
+        reader1.unlock();
+        reader2.unlock();
+        Assertions.assertTrue(writer.tryLock(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(writer.isHeld());
+        Assertions.assertFalse(reader1.tryLock(0, TimeUnit.MILLISECONDS));
+        writer.unlock();
+        Assertions.assertFalse(writer.isHeld());
+        Assertions.assertThrows(IllegalMonitorStateException.class, () -> writer.unlock());
+        Assertions.assertEquals(0, _client.countChildren("/locks/config"));
+    }
+
+    @Test
+    public void testWaitersAreServedInOrder() throws Exception {
+        InterProcessReadWriteLock.Lock writer1 = writeLock();
+        InterProcessReadWriteLock.Lock reader = readLock();
+        InterProcessReadWriteLock.Lock writer2 = writeLock();
+        writer1.lock();
+        Thread readerThread = lockInThread(reader);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.countChildren("/locks/config") == 2, TimeUnit.SECONDS, 5));
+        Thread writerThread = lockInThread(writer2);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.countChildren("/locks/config") == 3, TimeUnit.SECONDS, 5));
+
+        writer1.unlock();
+        readerThread.join(5000);
+        Assertions.assertTrue(reader.isHeld());
+        // the second writer waits for the reader queued before it
+        Thread.sleep(100);
+        Assertions.assertFalse(writer2.isHeld());
+
+        reader.unlock();
+        writerThread.join(5000);
+        Assertions.assertTrue(writer2.isHeld());
+        writer2.unlock();
+    }
+
+    @Test
+    public void testLockIsRevokedWithSession() throws Exception {
+        InterProcessReadWriteLock.Lock writer = writeLock();
+        final AtomicInteger revocations = new AtomicInteger();
+        writer.addRevocationListener(lock -> revocations.incrementAndGet());
+        writer.lock();
+
+        TestUtil.expireSession(_client);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> writer.isRevoked(), TimeUnit.SECONDS, 5));
+        Assertions.assertFalse(writer.isHeld());
+        Assertions.assertEquals(0, _client.countChildren("/locks/config"));
+        Assertions.assertEquals(1, TestUtil.waitUntil(1, () -> revocations.get(), TimeUnit.SECONDS, 5).intValue());
+
+        writer.unlock();
+        Assertions.assertFalse(writer.isRevoked());
+        Assertions.assertTrue(writer.tryLock(1, TimeUnit.SECONDS));
+        writer.unlock();
+    }
+
+    @Test
+    public void testInterruptedWaiterDeletesItsNode() throws Exception {
+        InterProcessReadWriteLock.Lock writer1 = writeLock();
+        InterProcessReadWriteLock.Lock writer2 = writeLock();
+        writer1.lock();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread waiter = new Thread(() -> {
+            try {
+                writer2.lock();
+            } catch (ZkInterruptedException e) {
+                failure.set(e);
+            }
+        });
+        waiter.start();
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.countChildren("/locks/config") == 2, TimeUnit.SECONDS, 5));
+        // like a ZooKeeper request, a delayed delete fails at once if the thread is interrupted
+        _connection.setLatency(FaultInjectingConnection.Operation.DELETE, FaultInjectingConnection.LatencyDistribution.fixed(1));
+
+        waiter.interrupt();
+        waiter.join(5000);
+        Assertions.assertNotNull(failure.get());
+        Assertions.assertEquals(1, _client.countChildren("/locks/config"));
+        writer1.unlock();
+        Assertions.assertTrue(writeLock().tryLock(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLostCreateResponsesLeaveNoSecondNode() throws Exception {
+        _client.createPersistent("/locks/config", true);
+        _connection.setLostResponseRate(0.3);
+        for (int i = 0; i < 20; i++) {
+            InterProcessReadWriteLock.Lock lock = i % 2 == 0 ? writeLock() : readLock();
+            Assertions.assertTrue(lock.tryLock(5, TimeUnit.SECONDS));
+            lock.unlock();
+        }
+        _connection.reset();
+        Assertions.assertTrue(_connection.getInjectedConnectionLosses() > 0);
+        Assertions.assertEquals(0, _client.countChildren("/locks/config"));
+    }
+}
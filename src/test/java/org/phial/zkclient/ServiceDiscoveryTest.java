@@ -0,0 +1,112 @@
+package org.phial.zkclient;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.exception.ZkMarshallingError;
+import org.phial.zkclient.serialize.ZkTypedSerializer;
+
+public class ServiceDiscoveryTest {
+
+    private ZkClient _client;
+    private CountingSerializer _serializer;
+    private ServiceRegistry<String> _registry;
+    private ServiceDiscovery<String> _discovery;
+
+    private static class CountingSerializer implements ZkTypedSerializer<String> {
+
+        private final AtomicInteger _decoded = new AtomicInteger();
+
+        @Override
+        public byte[] serialize(String data) {
+            return data.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer data) {
+            _decoded.incrementAndGet();
+            String value = StandardCharsets.UTF_8.decode(data).toString();
+            if (value.startsWith("broken")) {
+                throw new ZkMarshallingError("broken instance");
+            }
+            if (value.startsWith("invalid")) {
+                throw new IllegalArgumentException("invalid instance");
+            }
+            return value;
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+        _serializer = new CountingSerializer();
+        _registry = new ServiceRegistry<String>(_client, "/services", _serializer);
+        _registry.start();
+        _discovery = new ServiceDiscovery<String>(_client, "/services", _serializer);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _discovery.stop();
+        _registry.stop();
+        _client.close();
+    }
+
+    @Test
+    public void testOnlyAddedInstancesAreRead() throws Exception {
+        Map<String, String> instances = new HashMap<String, String>();
+        for (int i = 0; i < 100; i++) {
+            instances.put("instance-" + (100 + i), "host-" + i + ":8080");
+        }
+        _registry.registerAll("api", instances);
+        Assertions.assertEquals(100, _discovery.getInstances("api").size());
+        Assertions.assertEquals(100, _serializer._decoded.get());
+
+        _registry.register("api", "instance-200", "host-100:8080");
+        Assertions.assertEquals(101, (int) TestUtil.waitUntil(101, () -> _discovery.getInstances("api").size(), TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(101, _serializer._decoded.get());
+        Assertions.assertEquals("host-100:8080", _discovery.getInstanceMap("api").get("instance-200"));
+
+        List<String> before = _discovery.getInstances("api");
+        _registry.unregister("api", "instance-100");
+        Assertions.assertEquals(100, (int) TestUtil.waitUntil(100, () -> _discovery.getInstances("api").size(), TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(101, _serializer._decoded.get());
+        Assertions.assertFalse(_discovery.getInstanceMap("api").containsKey("instance-100"));
+        // snapshots are not modified
+        Assertions.assertEquals(101, before.size());
+        Assertions.assertEquals("host-0:8080", before.get(0));
+    }
+
+    @Test
+    public void testServiceRegisteredLater() throws Exception {
+        Assertions.assertTrue(_discovery.getInstances("api").isEmpty());
+        _registry.register("api", "a", "host-a:8080");
+        _registry.register("api", "broken", "broken");
+        _registry.register("api", "invalid", "invalid");
+        _registry.register("api", "b", "host-b:8080");
+        Assertions.assertEquals(Arrays.asList("host-a:8080", "host-b:8080"),
+                TestUtil.waitUntil(Arrays.asList("host-a:8080", "host-b:8080"), () -> _discovery.getInstances("api"), TimeUnit.SECONDS, 5));
+    }
+
+    @Test
+    public void testInstancesSurviveNewSession() throws Exception {
+        _registry.register("api", "a", "host-a:8080");
+        _registry.register("api", "b", "host-b:8080");
+        Assertions.assertEquals(2, _discovery.getInstances("api").size());
+
+        TestUtil.expireSession(_client);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.getChildren("/services/api").size() == 2, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(Arrays.asList("host-a:8080", "host-b:8080"),
+                TestUtil.waitUntil(Arrays.asList("host-a:8080", "host-b:8080"), () -> _discovery.getInstances("api"), TimeUnit.SECONDS, 5));
+    }
+}
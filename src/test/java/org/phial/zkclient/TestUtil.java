@@ -20,9 +20,13 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.mockito.Mockito;
 import org.mockito.exceptions.base.MockitoAssertionError;
 
@@ -61,6 +65,24 @@ public class TestUtil {
         } while (true);
     }
 
+    /**
+     * Lets the session of the client expire. The event is delivered on a thread of its own, like ZooKeeper does, and
+     * processed when this returns.
+     */
+    public static void expireSession(ZkClient client) throws InterruptedException {
+        changeState(client, KeeperState.Expired);
+    }
+
+    /**
+     * Passes a state change of the connection to the client, delivered and processed like in
+     * {@link #expireSession(ZkClient)}.
+     */
+    public static void changeState(final ZkClient client, KeeperState state) throws InterruptedException {
+        Thread thread = new Thread(() -> client.process(new WatchedEvent(null, state, null)));
+        thread.start();
+        thread.join();
+    }
+
     /**
      * This waits until a mockito verification passed (which is provided in the runnable). This waits until the
      * virification passed or the timeout has been reached. If the timeout has been reached this method will rethrow the
@@ -93,6 +115,20 @@ public class TestUtil {
         } while (true);
     }
 
+    /**
+     * Waits until the connection delivered the events it has pending, the events of the changes made so far are
+     * queued at the client then.
+     */
+    public static void awaitDeliveredEvents(InMemoryConnection connection, ZkClient client) throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        String path = "/sync-" + System.nanoTime();
+        connection.addWatch(path, event -> delivered.countDown(), AddWatchMode.PERSISTENT);
+        client.createPersistent(path);
+        if (!delivered.await(5, TimeUnit.SECONDS)) {
+            throw new AssertionError("Events were not delivered");
+        }
+    }
+
     public static ZkServer startZkServer(Path tempFir, int port) throws IOException {
         Path dataFolder = tempFir.resolveSibling("data");
         Path logFolder = tempFir.resolveSibling("log");
@@ -0,0 +1,129 @@
+package org.phial.zkclient;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ZkClientBulkCreateTest {
+
+    private ZkServer _zkServer;
+    private ZkClient _client;
+
+    @AfterEach
+    public void tearDown() {
+        if (_client != null) {
+            _client.close();
+        }
+        if (_zkServer != null) {
+            _zkServer.shutdown();
+        }
+    }
+
+    private static Map<String, Object> tree(int width) {
+        Map<String, Object> nodes = new HashMap<String, Object>();
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < width; j++) {
+                nodes.put("/a/b" + i + "/c" + j, "value " + i + "/" + j);
+            }
+        }
+        return nodes;
+    }
+
+    private void assertTree(Map<String, Object> nodes) {
+        for (Map.Entry<String, Object> node : nodes.entrySet()) {
+            Assertions.assertEquals(node.getValue(), _client.readData(node.getKey()));
+        }
+    }
+
+    @Test
+    public void testCreateWithParents() {
+        _client = new ZkClient(new InMemoryConnection());
+        Map<String, Object> nodes = tree(10);
+        nodes.put("/a/b3", "parent");
+        _client.createPersistentBulk(nodes, ZooDefs.Ids.OPEN_ACL_UNSAFE, 7, 5);
+        assertTree(nodes);
+        Assertions.assertNull(_client.readData("/a"));
+        Assertions.assertEquals(10, _client.countChildren("/a"));
+    }
+
+    @Test
+    public void testExistingNodesAreKept() {
+        _client = new ZkClient(new InMemoryConnection());
+        _client.createPersistent("/a/b1", true);
+        _client.writeData("/a/b1", "existing");
+        Map<String, Object> nodes = tree(3);
+        nodes.put("/a/b1", "new");
+        _client.createPersistentBulk(nodes);
+        Assertions.assertEquals("existing", _client.readData("/a/b1"));
+        Assertions.assertEquals("value 2/2", _client.readData("/a/b2/c2"));
+    }
+
+    @Test
+    public void testExistingParentIsNotSentAgain() {
+        final AtomicInteger multis = new AtomicInteger();
+        final AtomicInteger creates = new AtomicInteger();
+        _client = new ZkClient(new InMemoryConnection() {
+            @Override
+            public void multi(Iterable<Op> ops, AsyncCallback.MultiCallback cb, Object ctx) {
+                multis.incrementAndGet();
+                super.multi(ops, cb, ctx);
+            }
+
+            @Override
+            public void create(String path, byte[] data, List<ACL> acl, CreateMode mode, AsyncCallback.StringCallback cb, Object ctx) {
+                creates.incrementAndGet();
+                super.create(path, data, acl, mode, cb, ctx);
+            }
+        });
+        _client.createPersistent("/services/s0", true);
+        Map<String, Object> nodes = new HashMap<String, Object>();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 100; j++) {
+                nodes.put("/services/s" + i + "/n" + j, "value " + i + "/" + j);
+            }
+        }
+        _client.createPersistentBulk(nodes);
+        assertTree(nodes);
+        // the 9 missing parents and the 1000 nodes in 3 batches, none of them rolled back
+        Assertions.assertEquals(3, multis.get());
+        Assertions.assertEquals(0, creates.get());
+    }
+
+    @Test
+    public void testCreateWithConnectionLosses() {
+        FaultInjectingConnection connection = new FaultInjectingConnection(new InMemoryConnection());
+        _client = new ZkClient(connection);
+        connection.setConnectionLossRate(0.2);
+        connection.setLostResponseRate(0.2);
+        connection.setDefaultLatency(FaultInjectingConnection.LatencyDistribution.uniform(0, 2));
+        Map<String, Object> nodes = tree(8);
+        _client.createPersistentBulk(nodes, ZooDefs.Ids.OPEN_ACL_UNSAFE, 5, 10);
+        connection.reset();
+        assertTree(nodes);
+    }
+
+    @Test
+    public void testDefaultNameSpace() throws Exception {
+        String dataPath = "./build/test/ZkClientBulkCreateTest/data";
+        String logPath = "./build/test/ZkClientBulkCreateTest/log";
+        FileUtils.deleteDirectory(new File(dataPath));
+        FileUtils.deleteDirectory(new File(logPath));
+        Map<String, Object> nodes = tree(5);
+        _zkServer = new ZkServer(dataPath, logPath, IDefaultNameSpace.of(nodes), 4711);
+        _zkServer.start();
+        _client = new ZkClient("localhost:4711", 30000);
+        assertTree(nodes);
+    }
+}
@@ -0,0 +1,74 @@
+package org.phial.zkclient;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.exception.ZkNoNodeException;
+import org.phial.zkclient.serialize.BytesPushThroughSerializer;
+import org.phial.zkclient.serialize.ZkTypedSerializer;
+
+public class ZkClientDecodeDataTest {
+
+    private static final ZkTypedSerializer<Long> LONG_SERIALIZER = new ZkTypedSerializer<Long>() {
+        @Override
+        public byte[] serialize(Long data) {
+            return ByteBuffer.allocate(8).putLong(data).array();
+        }
+
+        @Override
+        public Long decode(ByteBuffer data) {
+            return data.getLong();
+        }
+    };
+
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection(), 5000, new BytesPushThroughSerializer());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    @Test
+    public void testDecodeData() {
+        _client.createPersistent("/a", "hello".getBytes(StandardCharsets.UTF_8));
+        String value = _client.decodeData("/a", data -> StandardCharsets.UTF_8.decode(data).toString());
+        Assertions.assertEquals("hello", value);
+    }
+
+    @Test
+    public void testBufferIsReadOnly() {
+        _client.createPersistent("/a", new byte[] { 1, 2, 3 });
+        Assertions.assertThrows(ReadOnlyBufferException.class, () -> _client.decodeData("/a", data -> data.put((byte) 0)));
+        Assertions.assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) _client.readData("/a"));
+    }
+
+    @Test
+    public void testTypedSerializer() {
+        _client.createPersistent("/a", null);
+        Assertions.assertNull(_client.decodeData("/a", LONG_SERIALIZER));
+
+        Stat stat = _client.writeData("/a", 42L, LONG_SERIALIZER, -1);
+        Assertions.assertEquals(1, stat.getVersion());
+
+        Stat readStat = new Stat();
+        long value = _client.decodeData("/a", readStat, LONG_SERIALIZER);
+        Assertions.assertEquals(42L, value);
+        Assertions.assertEquals(1, readStat.getVersion());
+    }
+
+    @Test
+    public void testNoNode() {
+        Assertions.assertThrows(ZkNoNodeException.class, () -> _client.decodeData("/missing", LONG_SERIALIZER));
+    }
+}
@@ -0,0 +1,69 @@
+package org.phial.zkclient;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ZkClientDeleteRecursiveTest {
+
+    private ZkServer _zkServer;
+    private ZkClient _client;
+
+    @AfterEach
+    public void tearDown() {
+        if (_client != null) {
+            _client.close();
+        }
+        if (_zkServer != null) {
+            _zkServer.shutdown();
+        }
+    }
+
+    private void createTree(String path, int depth, int width) {
+        _client.createPersistent(path, true);
+        if (depth > 0) {
+            for (int i = 0; i < width; i++) {
+                createTree(path + "/n" + i, depth - 1, width);
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteTree() {
+        _client = new ZkClient(new InMemoryConnection());
+        createTree("/a", 3, 12);
+        _client.createPersistent("/a1");
+        Assertions.assertTrue(_client.deleteRecursivePipelined("/a", 50, 10));
+        Assertions.assertFalse(_client.exists("/a"));
+        Assertions.assertTrue(_client.exists("/a1"));
+    }
+
+    @Test
+    public void testDeleteNonExistingPath() {
+        _client = new ZkClient(new InMemoryConnection());
+        Assertions.assertTrue(_client.deleteRecursivePipelined("/missing"));
+    }
+
+    @Test
+    public void testDeleteWithConnectionLosses() {
+        FaultInjectingConnection connection = new FaultInjectingConnection(new InMemoryConnection());
+        _client = new ZkClient(connection);
+        createTree("/a", 3, 5);
+        connection.setConnectionLossRate(0.2);
+        connection.setLostResponseRate(0.2);
+        connection.setDefaultLatency(FaultInjectingConnection.LatencyDistribution.uniform(0, 2));
+        Assertions.assertTrue(_client.deleteRecursivePipelined("/a", 7, 20));
+        connection.reset();
+        Assertions.assertFalse(_client.exists("/a"));
+        Assertions.assertTrue(connection.getInjectedConnectionLosses() > 0);
+    }
+
+    @Test
+    public void testDeleteOnServer() throws Exception {
+        _zkServer = TestUtil.startZkServer("ZkClientDeleteRecursiveTest", 4711);
+        _client = new ZkClient("localhost:4711", 30000);
+        createTree("/a", 2, 30);
+        Assertions.assertTrue(_client.deleteRecursivePipelined("/a", 100, 50));
+        Assertions.assertFalse(_client.exists("/a"));
+    }
+}
@@ -0,0 +1,126 @@
+package org.phial.zkclient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.util.VirtualThreads;
+
+public class ZkClientEventExecutorTest {
+
+    private ZkClient _client;
+    private ExecutorService _executor;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+        _executor = Executors.newFixedThreadPool(4);
+        _client.setEventExecutor(_executor);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void testBlockingListenerDoesNotHoldUpOtherPaths() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherPath = new CountDownLatch(1);
+        _client.createPersistent("/blocking", "0");
+        _client.createPersistent("/other", "0");
+        _client.subscribeDataChanges("/blocking", new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, Object data) throws Exception {
+                release.await();
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+            }
+        });
+        _client.subscribeDataChanges("/other", new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, Object data) {
+                otherPath.countDown();
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+            }
+        });
+        _client.writeData("/blocking", "1");
+        _client.writeData("/other", "1");
+        try {
+            Assertions.assertTrue(otherPath.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testEventsOfASubscriptionStayInOrder() throws Exception {
+        final List<String> created = new CopyOnWriteArrayList<String>();
+        _client.subscribeSubtreeChanges("/a", new IZkSubtreeListener() {
+            @Override
+            public void handleNodeCreated(String path) throws Exception {
+                // give later events the chance to overtake
+                Thread.sleep(1);
+                created.add(path);
+            }
+
+            @Override
+            public void handleNodeDataChanged(String path) {
+            }
+
+            @Override
+            public void handleNodeDeleted(String path) {
+            }
+        });
+        _client.createPersistent("/a");
+        for (int i = 0; i < 50; i++) {
+            _client.createPersistent("/a/n" + i);
+        }
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> created.size() == 51, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("/a", created.get(0));
+        for (int i = 0; i < 50; i++) {
+            Assertions.assertEquals("/a/n" + i, created.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        if (!VirtualThreads.isAvailable()) {
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> VirtualThreads.newVirtualThreadPerTaskExecutor());
+            return;
+        }
+        ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        try {
+            _client.setEventExecutor(executor);
+            final CountDownLatch changed = new CountDownLatch(1);
+            _client.createPersistent("/a", "0");
+            _client.subscribeDataChanges("/a", new IZkDataListener() {
+                @Override
+                public void handleDataChange(String dataPath, Object data) {
+                    changed.countDown();
+                }
+
+                @Override
+                public void handleDataDeleted(String dataPath) {
+                }
+            });
+            _client.writeData("/a", "1");
+            Assertions.assertTrue(changed.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.phial.zkclient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ZkClientSlowListenerTest {
+
+    private ZkClient _client;
+    private ExecutorService _isolatedExecutor;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+        _client.createPersistent("/slow", "0");
+        _client.createPersistent("/fast", "0");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+        if (_isolatedExecutor != null) {
+            _isolatedExecutor.shutdownNow();
+        }
+    }
+
+    private static class RecordingListener implements IZkDataListener {
+
+        private final List<Object> _values = new CopyOnWriteArrayList<Object>();
+
+        @Override
+        public void handleDataChange(String dataPath, Object data) throws Exception {
+            _values.add(data);
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) {
+        }
+    }
+
+    @Test
+    public void testSlowListenersAreTracked() throws Exception {
+        _client.setSlowListenerThreshold(20, TimeUnit.MILLISECONDS);
+        RecordingListener slow = new RecordingListener() {
+
+            @Override
+            public void handleDataChange(String dataPath, Object data) throws Exception {
+                Thread.sleep(50);
+                super.handleDataChange(dataPath, data);
+            }
+        };
+        RecordingListener fast = new RecordingListener();
+        _client.subscribeDataChanges("/slow", slow);
+        _client.subscribeDataChanges("/fast", fast);
+        _client.writeData("/slow", "1");
+        _client.writeData("/fast", "1");
+        // the time is recorded once the callback returned
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.getListenerStats().size() == 2, TimeUnit.SECONDS, 5));
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.getListenerStats().get(slow).getCalls() == 1, TimeUnit.SECONDS, 5));
+
+        ListenerStats slowStats = _client.getListenerStats().get(slow);
+        Assertions.assertEquals(1, slowStats.getCalls());
+        Assertions.assertEquals(1, slowStats.getSlowCalls());
+        Assertions.assertTrue(slowStats.getMaxTime(TimeUnit.MILLISECONDS) >= 50);
+        Assertions.assertFalse(slowStats.isIsolated());
+        ListenerStats fastStats = _client.getListenerStats().get(fast);
+        Assertions.assertEquals(1, fastStats.getCalls());
+        Assertions.assertEquals(0, fastStats.getSlowCalls());
+    }
+
+    @Test
+    public void testRepeatedlySlowListenerIsIsolated() throws Exception {
+        _isolatedExecutor = Executors.newCachedThreadPool();
+        _client.setSlowListenerThreshold(20, TimeUnit.MILLISECONDS);
+        _client.setSlowListenerIsolation(2, _isolatedExecutor);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        RecordingListener slow = new RecordingListener() {
+
+            @Override
+            public void handleDataChange(String dataPath, Object data) throws Exception {
+                if (calls.incrementAndGet() <= 2) {
+                    Thread.sleep(50);
+                } else {
+                    release.await();
+                }
+                super.handleDataChange(dataPath, data);
+            }
+        };
+        RecordingListener fast = new RecordingListener();
+        _client.subscribeDataChanges("/slow", slow);
+        _client.subscribeDataChanges("/fast", fast);
+
+        _client.writeData("/slow", "1");
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.getListenerStats().containsKey(slow), TimeUnit.SECONDS, 5));
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.getListenerStats().get(slow).getSlowCalls() == 1, TimeUnit.SECONDS, 5));
+        Assertions.assertFalse(_client.getListenerStats().get(slow).isIsolated());
+        _client.writeData("/slow", "2");
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _client.getListenerStats().get(slow).isIsolated(), TimeUnit.SECONDS, 5));
+
+        // the isolated listener blocks, the others are still notified
+        _client.writeData("/slow", "3");
+        // a change right after another may be reported by the same notification, wait until the listener blocks
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> calls.get() == 3, TimeUnit.SECONDS, 5));
+        _client.writeData("/slow", "4");
+        _client.writeData("/fast", "1");
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> fast._values.size() == 1, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(2, slow._values.size());
+
+        release.countDown();
+        Assertions.assertEquals("4", TestUtil.waitUntil("4", () -> slow._values.get(slow._values.size() - 1), TimeUnit.SECONDS, 5));
+        Assertions.assertEquals(4, slow._values.size());
+    }
+}
@@ -0,0 +1,64 @@
+package org.phial.zkclient;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.serialize.BytesPushThroughSerializer;
+
+public class ZkClientStatTest {
+
+    private ZkServer _zkServer;
+    private ZkClient _client;
+
+    @AfterEach
+    public void tearDown() {
+        if (_client != null) {
+            _client.close();
+        }
+        if (_zkServer != null) {
+            _zkServer.shutdown();
+        }
+    }
+
+    private void assertStat() {
+        _client.createPersistent("/a", new byte[] { 1, 2, 3 });
+        _client.createPersistent("/a/b1");
+        _client.createPersistent("/a/b2");
+        _client.writeData("/a", new byte[] { 1, 2, 3, 4 });
+
+        Assertions.assertNull(_client.stat("/missing"));
+        Stat stat = _client.stat("/a");
+        Assertions.assertEquals(1, stat.getVersion());
+        Assertions.assertEquals(4, stat.getDataLength());
+        Assertions.assertEquals(2, stat.getNumChildren());
+        Assertions.assertTrue(stat.getCtime() > 0);
+
+        Map<String, Stat> stats = _client.statAll(Arrays.asList("/a/b2", "/missing", "/a", "/a/b1"));
+        Assertions.assertEquals(Arrays.asList("/a/b2", "/missing", "/a", "/a/b1"), Arrays.asList(stats.keySet().toArray()));
+        Assertions.assertNull(stats.get("/missing"));
+        Assertions.assertEquals(2, stats.get("/a").getNumChildren());
+        Assertions.assertEquals(0, stats.get("/a/b1").getNumChildren());
+
+        Map<String, Integer> lengths = _client.decodeDataAll(Arrays.asList("/missing", "/a", "/a/b1"), data -> data.remaining());
+        Assertions.assertEquals(Arrays.asList("/missing", "/a", "/a/b1"), Arrays.asList(lengths.keySet().toArray()));
+        Assertions.assertNull(lengths.get("/missing"));
+        Assertions.assertEquals(Integer.valueOf(4), lengths.get("/a"));
+    }
+
+    @Test
+    public void testInMemoryConnection() {
+        _client = new ZkClient(new InMemoryConnection(), 5000, new BytesPushThroughSerializer());
+        assertStat();
+    }
+
+    @Test
+    public void testZkConnection() throws Exception {
+        _zkServer = TestUtil.startZkServer("ZkClientStatTest", 4711);
+        _client = new ZkClient("localhost:4711", 30000, 30000, new BytesPushThroughSerializer());
+        assertStat();
+    }
+}
@@ -0,0 +1,213 @@
+package org.phial.zkclient;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.exception.ZkException;
+
+public class ZkClientSubtreeListenerTest {
+
+    private ZkServer _zkServer;
+    private ZkClient _client;
+
+    @AfterEach
+    public void tearDown() {
+        if (_client != null) {
+            _client.close();
+        }
+        if (_zkServer != null) {
+            _zkServer.shutdown();
+        }
+    }
+
+    private static class RecordingListener implements IZkSubtreeListener {
+
+        private final BlockingQueue<String> _events = new LinkedBlockingQueue<String>();
+
+        @Override
+        public void handleNodeCreated(String path) {
+            _events.add("created " + path);
+        }
+
+        @Override
+        public void handleNodeDataChanged(String path) {
+            _events.add("changed " + path);
+        }
+
+        @Override
+        public void handleNodeDeleted(String path) {
+            _events.add("deleted " + path);
+        }
+
+        String next() throws InterruptedException {
+            return _events.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private void assertSubtreeEvents() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        _client.subscribeSubtreeChanges("/a", listener);
+        _client.createPersistent("/a");
+        _client.createPersistent("/a/b");
+        _client.createPersistent("/a/b/c");
+        _client.createPersistent("/other");
+        _client.writeData("/a/b", "data");
+        _client.delete("/a/b/c");
+        Assertions.assertEquals("created /a", listener.next());
+        Assertions.assertEquals("created /a/b", listener.next());
+        Assertions.assertEquals("created /a/b/c", listener.next());
+        Assertions.assertEquals("changed /a/b", listener.next());
+        Assertions.assertEquals("deleted /a/b/c", listener.next());
+
+        _client.unsubscribeSubtreeChanges("/a", listener);
+        _client.createPersistent("/a/d");
+        Assertions.assertNull(listener._events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSubtreeEventsInMemory() throws Exception {
+        _client = new ZkClient(new InMemoryConnection());
+        assertSubtreeEvents();
+    }
+
+    @Test
+    public void testSubtreeEventsOnServer() throws Exception {
+        _zkServer = TestUtil.startZkServer("ZkClientSubtreeListenerTest", 4711);
+        _client = new ZkClient("localhost:4711", 30000);
+        assertSubtreeEvents();
+    }
+
+    @Test
+    public void testNestedSubscriptionsGetOneEventEach() throws Exception {
+        _client = new ZkClient(new InMemoryConnection());
+        RecordingListener outer = new RecordingListener();
+        RecordingListener inner = new RecordingListener();
+        _client.subscribeSubtreeChanges("/", outer);
+        _client.subscribeSubtreeChanges("/a", inner);
+        _client.createPersistent("/a");
+        Assertions.assertEquals("created /a", outer.next());
+        Assertions.assertEquals("created /a", inner.next());
+        Assertions.assertNull(outer._events.poll(200, TimeUnit.MILLISECONDS));
+        Assertions.assertNull(inner._events.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDataListenerNeedsNoResubscription() throws Exception {
+        _zkServer = TestUtil.startZkServer("ZkClientSubtreeListenerTest", 4711);
+        _client = new ZkClient("localhost:4711", 30000);
+        _client.createPersistent("/a", "0");
+        final List<Object> values = new CopyOnWriteArrayList<Object>();
+        IZkDataListener listener = new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, Object data) {
+                values.add(data);
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+                values.add(null);
+            }
+        };
+        _client.subscribeDataChanges("/a", listener);
+        for (int i = 1; i <= 5; i++) {
+            _client.writeData("/a", String.valueOf(i));
+            final int count = i;
+            Assertions.assertTrue(TestUtil.waitUntil(true, () -> values.size() == count, TimeUnit.SECONDS, 5));
+        }
+        Assertions.assertEquals("5", values.get(values.size() - 1));
+
+        _client.unsubscribeDataChanges("/a", listener);
+        _client.writeData("/a", "6");
+        Thread.sleep(200);
+        Assertions.assertEquals(5, values.size());
+    }
+
+    @Test
+    public void testDataListenerAfterSubtreeListener() throws Exception {
+        _zkServer = TestUtil.startZkServer("ZkClientSubtreeListenerTest", 4711);
+        _client = new ZkClient("localhost:4711", 30000);
+        _client.createPersistent("/a", "0");
+        RecordingListener subtree = new RecordingListener();
+        _client.subscribeSubtreeChanges("/a", subtree);
+        final List<Object> values = new CopyOnWriteArrayList<Object>();
+        _client.subscribeDataChanges("/a", new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, Object data) {
+                values.add(data);
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+                values.add(null);
+            }
+        });
+
+        // the data listener keeps the recursive watch of the subtree listener
+        _client.createPersistent("/a/b/c", true);
+        _client.writeData("/a", "1");
+        Assertions.assertEquals("created /a/b", subtree.next());
+        Assertions.assertEquals("created /a/b/c", subtree.next());
+        Assertions.assertEquals("changed /a", subtree.next());
+        Assertions.assertEquals("1", TestUtil.waitUntil("1", () -> values.isEmpty() ? null : values.get(values.size() - 1), TimeUnit.SECONDS, 5));
+
+        _client.unsubscribeSubtreeChanges("/a", subtree);
+        _client.writeData("/a", "2");
+        Assertions.assertEquals("2", TestUtil.waitUntil("2", () -> values.get(values.size() - 1), TimeUnit.SECONDS, 5));
+        _client.createPersistent("/a/d");
+        Assertions.assertNull(subtree._events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSubtreeListenerAfterChildListener() throws Exception {
+        _zkServer = TestUtil.startZkServer("ZkClientSubtreeListenerTest", 4711);
+        _client = new ZkClient("localhost:4711", 30000);
+        _client.createPersistent("/a");
+        final List<List<String>> children = new CopyOnWriteArrayList<List<String>>();
+        _client.subscribeChildChanges("/a", (parentPath, currentChilds) -> children.add(currentChilds));
+        RecordingListener subtree = new RecordingListener();
+        _client.subscribeSubtreeChanges("/a", subtree);
+
+        // the child listener still sees the children created while the path has a recursive watch
+        _client.createPersistent("/a/b");
+        _client.createPersistent("/a/b/c");
+        Assertions.assertEquals("created /a/b", subtree.next());
+        Assertions.assertEquals("created /a/b/c", subtree.next());
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> children.contains(Arrays.asList("b")), TimeUnit.SECONDS, 5));
+
+        _client.unsubscribeSubtreeChanges("/a", subtree);
+        _client.createPersistent("/a/d");
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> children.get(children.size() - 1).size() == 2, TimeUnit.SECONDS, 5));
+        Assertions.assertNull(subtree._events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testConnectionWithoutPersistentWatches() throws Exception {
+        _client = new ZkClient(new InMemoryConnection() {
+            @Override
+            public void addWatch(String basePath, Watcher watcher, AddWatchMode mode) throws KeeperException {
+                throw KeeperException.create(KeeperException.Code.UNIMPLEMENTED, basePath);
+            }
+        });
+        Assertions.assertThrows(ZkException.class, () -> _client.subscribeSubtreeChanges("/a", new RecordingListener()));
+
+        // child listeners fall back to one time watches
+        final List<List<String>> children = new CopyOnWriteArrayList<List<String>>();
+        _client.subscribeChildChanges("/a", (parentPath, currentChilds) -> children.add(currentChilds));
+        _client.createPersistent("/a");
+        _client.createPersistent("/a/b");
+        _client.createPersistent("/a/c");
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> {
+            return !children.isEmpty() && children.get(children.size() - 1) != null && children.get(children.size() - 1).size() == 2;
+        }, TimeUnit.SECONDS, 5));
+    }
+}
@@ -0,0 +1,154 @@
+package org.phial.zkclient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+public class ZkClientWatchRecoveryTest {
+
+    private ZkServer _zkServer;
+    private ZkClient _client;
+
+    @AfterEach
+    public void tearDown() {
+        if (_client != null) {
+            _client.close();
+        }
+        if (_zkServer != null) {
+            _zkServer.shutdown();
+        }
+    }
+
+    private static class RecordingDataListener implements IZkDataListener {
+
+        private final AtomicInteger _calls = new AtomicInteger();
+        private volatile Object _data;
+
+        @Override
+        public void handleDataChange(String dataPath, Object data) {
+            _data = data;
+            _calls.incrementAndGet();
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) {
+            _data = null;
+            _calls.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testOneCatchUpNotificationPerListener() throws Exception {
+        _client = new ZkClient(new InMemoryConnection());
+        Map<String, RecordingDataListener> dataListeners = new ConcurrentHashMap<String, RecordingDataListener>();
+        final Map<String, List<String>> children = new ConcurrentHashMap<String, List<String>>();
+        for (int i = 0; i < 50; i++) {
+            String path = "/p" + i;
+            _client.createPersistent(path, "v0");
+            RecordingDataListener listener = new RecordingDataListener();
+            dataListeners.put(path, listener);
+            _client.subscribeDataChanges(path, listener);
+            _client.subscribeChildChanges(path, (parentPath, currentChilds) -> children.put(parentPath, currentChilds));
+        }
+        _client.subscribeDataChanges("/missing", new RecordingDataListener());
+        Assertions.assertEquals(-1, _client.getLastWatchRecoveryMillis());
+
+        TestUtil.expireSession(_client);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> children.size() == 50, TimeUnit.SECONDS, 5));
+        for (RecordingDataListener listener : dataListeners.values()) {
+            Assertions.assertTrue(TestUtil.waitUntil(true, () -> listener._calls.get() == 1, TimeUnit.SECONDS, 5));
+            Assertions.assertEquals("v0", listener._data);
+        }
+        Assertions.assertTrue(_client.getLastWatchRecoveryMillis() >= 0);
+
+        // the watches are set again
+        _client.writeData("/p7", "v1");
+        RecordingDataListener listener = dataListeners.get("/p7");
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> listener._calls.get() == 2, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("v1", listener._data);
+        _client.createPersistent("/p8/c");
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> children.get("/p8").size() == 1, TimeUnit.SECONDS, 5));
+    }
+
+    @Test
+    public void testReconnectCatchesUpWithoutOverridingNewerChanges() throws Exception {
+        final AtomicBoolean changeWhileReading = new AtomicBoolean();
+        final InMemoryConnection connection = new InMemoryConnection() {
+            @Override
+            public void readData(String path, boolean watch, AsyncCallback.DataCallback cb, Object ctx) {
+                super.readData(path, watch, cb, ctx);
+                if (changeWhileReading.compareAndSet(true, false)) {
+                    try {
+                        // the change event is queued before the catch-up notification holding the data read
+                        _client.writeData(path, "v2");
+                        TestUtil.awaitDeliveredEvents(this, _client);
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+        };
+        _client = new ZkClient(connection);
+        _client.createPersistent("/a", "v0");
+        RecordingDataListener listener = new RecordingDataListener();
+        _client.subscribeDataChanges("/a", listener);
+
+        // ZooKeeper does not report the changes a persistent watch missed while disconnected
+        TestUtil.changeState(_client, KeeperState.Disconnected);
+        connection.removeWatches("/a", _client);
+        _client.writeData("/a", "v1");
+        connection.addWatch("/a", _client, AddWatchMode.PERSISTENT);
+        TestUtil.changeState(_client, KeeperState.SyncConnected);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> listener._calls.get() == 1, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("v1", listener._data);
+
+        TestUtil.changeState(_client, KeeperState.Disconnected);
+        changeWhileReading.set(true);
+        TestUtil.changeState(_client, KeeperState.SyncConnected);
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> listener._calls.get() == 3, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("v2", listener._data);
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    public void testChangesWhileDisconnectedAreCaughtUp() throws Exception {
+        _zkServer = TestUtil.startZkServer("ZkClientWatchRecoveryTest", 4711);
+        ZkClient connectedClient = _zkServer.getZkClient();
+        connectedClient.createPersistent("/a", "before");
+
+        Gateway gateway = new Gateway(4712, 4711);
+        gateway.start();
+        // the session outlives the outage, so the client reconnects to it
+        _client = new ZkClient("localhost:4712", 30000, 30000);
+        RecordingDataListener listener = new RecordingDataListener();
+        _client.subscribeDataChanges("/a", listener);
+        long sessionId = _client.getSessionId();
+
+        gateway.stop();
+        Assertions.assertTrue(_client.waitForKeeperState(KeeperState.Disconnected, 5, TimeUnit.SECONDS));
+        connectedClient.writeData("/a", "after");
+        gateway.start();
+        try {
+            Assertions.assertEquals("after", TestUtil.waitUntil("after", () -> listener._data, TimeUnit.SECONDS, 20));
+            Assertions.assertTrue(_client.getLastWatchRecoveryMillis() >= 0);
+            Assertions.assertEquals(sessionId, _client.getSessionId());
+
+            connectedClient.writeData("/a", "again");
+            Assertions.assertEquals("again", TestUtil.waitUntil("again", () -> listener._data, TimeUnit.SECONDS, 5));
+        } finally {
+            _client.close();
+            gateway.stop();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.phial.zkclient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+public class ZkEventThreadQueueTest {
+
+    private ZkEventThread _eventThread;
+    private final List<String> _delivered = new CopyOnWriteArrayList<String>();
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (_eventThread != null) {
+            _eventThread.interrupt();
+            _eventThread.join(2000);
+        }
+    }
+
+    private class RecordingEvent extends ZkEventThread.ZkEvent {
+
+        private final String _name;
+        private final boolean _coalescible;
+        private final boolean _droppable;
+
+        RecordingEvent(String name, boolean coalescible) {
+            this(name, coalescible, true);
+        }
+
+        RecordingEvent(String name, boolean coalescible, boolean droppable) {
+            super(name, name);
+            _name = name;
+            _coalescible = coalescible;
+            _droppable = droppable;
+        }
+
+        @Override
+        public void run() {
+            _delivered.add(_name);
+        }
+
+        @Override
+        boolean isCoalescible() {
+            return _coalescible;
+        }
+
+        @Override
+        boolean isDroppable() {
+            return _droppable;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof RecordingEvent && ((RecordingEvent) obj)._name.equals(_name);
+        }
+
+        @Override
+        public int hashCode() {
+            return _name.hashCode();
+        }
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        _eventThread = new ZkEventThread("test");
+        _eventThread.setQueue(3, EventOverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            _eventThread.send(new RecordingEvent("e" + i, false));
+        }
+        Assertions.assertEquals(2, _eventThread.getDroppedEvents());
+        _eventThread.start();
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _delivered.size() == 3, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("[e3, e4, e5]", _delivered.toString());
+    }
+
+    @Test
+    public void testDropOldestKeepsEventsWhichAreNotDroppable() throws Exception {
+        _eventThread = new ZkEventThread("test");
+        _eventThread.setQueue(2, EventOverflowPolicy.DROP_OLDEST);
+        _eventThread.send(new RecordingEvent("state", false, false));
+        _eventThread.send(new RecordingEvent("e1", false));
+        _eventThread.send(new RecordingEvent("e2", false));
+        _eventThread.send(new RecordingEvent("session", false, false));
+        // the queue is full of events which are not droppable, so the new one is dropped
+        _eventThread.send(new RecordingEvent("e3", false));
+        Assertions.assertEquals(3, _eventThread.getDroppedEvents());
+        _eventThread.start();
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _delivered.size() == 2, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("[state, session]", _delivered.toString());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        _eventThread = new ZkEventThread("test");
+        _eventThread.setQueue(10, EventOverflowPolicy.COALESCE);
+        _eventThread.send(new RecordingEvent("a", true));
+        _eventThread.send(new RecordingEvent("a", true));
+        _eventThread.send(new RecordingEvent("b", true));
+        _eventThread.send(new RecordingEvent("a", true));
+        _eventThread.send(new RecordingEvent("c", false));
+        _eventThread.send(new RecordingEvent("c", false));
+        _eventThread.start();
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _delivered.size() == 4, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("[a, b, c, c]", _delivered.toString());
+
+        // delivered events no longer coalesce
+        _eventThread.send(new RecordingEvent("a", true));
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _delivered.size() == 5, TimeUnit.SECONDS, 5));
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws Exception {
+        _eventThread = new ZkEventThread("test");
+        _eventThread.setQueue(1, EventOverflowPolicy.BLOCK);
+        _eventThread.send(new RecordingEvent("e1", false));
+        Thread sender = new Thread(() -> _eventThread.send(new RecordingEvent("e2", false)));
+        sender.start();
+        Assertions.assertEquals(Thread.State.WAITING, TestUtil.waitUntil(Thread.State.WAITING, () -> sender.getState(), TimeUnit.SECONDS, 5));
+
+        _eventThread.start();
+        sender.join(5000);
+        Assertions.assertFalse(sender.isAlive());
+        Assertions.assertTrue(TestUtil.waitUntil(true, () -> _delivered.size() == 2, TimeUnit.SECONDS, 5));
+        Assertions.assertEquals("[e1, e2]", _delivered.toString());
+    }
+
+    @Test
+    public void testBlockedSenderIsReleasedOnShutdown() throws Exception {
+        _eventThread = new ZkEventThread("test");
+        _eventThread.setQueue(1, EventOverflowPolicy.BLOCK);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        _eventThread.send(new ZkEventThread.ZkEvent("blocking") {
+
+            @Override
+            public void run() throws Exception {
+                blocking.await();
+            }
+        });
+        _eventThread.start();
+        _eventThread.send(new RecordingEvent("e1", false));
+        Thread sender = new Thread(() -> _eventThread.send(new RecordingEvent("e2", false)));
+        sender.start();
+        Assertions.assertEquals(Thread.State.WAITING, TestUtil.waitUntil(Thread.State.WAITING, () -> sender.getState(), TimeUnit.SECONDS, 5));
+
+        _eventThread.interrupt();
+        sender.join(5000);
+        Assertions.assertFalse(sender.isAlive());
+    }
+
+    @Test
+    public void testClientCoalescesDataChanges() throws Exception {
+        InMemoryConnection connection = new InMemoryConnection();
+        ZkClient client = new ZkClient(connection);
+        try {
+            client.setEventQueue(1000, EventOverflowPolicy.COALESCE);
+            client.createPersistent("/a", "0");
+            final CountDownLatch release = new CountDownLatch(1);
+            final List<Object> values = new CopyOnWriteArrayList<Object>();
+            client.subscribeDataChanges("/a", new IZkDataListener() {
+
+                @Override
+                public void handleDataChange(String dataPath, Object data) throws Exception {
+                    release.await();
+                    values.add(data);
+                }
+
+                @Override
+                public void handleDataDeleted(String dataPath) {
+                }
+            });
+            for (int i = 1; i <= 100; i++) {
+                client.writeData("/a", String.valueOf(i));
+            }
+            // the connection delivers its events in order, once this one arrives the client got all of them
+            final CountDownLatch synced = new CountDownLatch(1);
+            connection.addWatch("/sync", event -> synced.countDown(), AddWatchMode.PERSISTENT);
+            client.createPersistent("/sync");
+            Assertions.assertTrue(synced.await(5, TimeUnit.SECONDS));
+            release.countDown();
+
+            Assertions.assertEquals("100", TestUtil.waitUntil("100", () -> values.isEmpty() ? null : values.get(values.size() - 1), TimeUnit.SECONDS, 5));
+            // the first event may have been running, the others coalesced into one
+            Thread.sleep(100);
+            Assertions.assertTrue(values.size() <= 2, values.toString());
+            Assertions.assertEquals(0, client.getDroppedEventCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testDropOldestKeepsClientEventsAcrossSessionExpiry() throws Exception {
+        InMemoryConnection connection = new InMemoryConnection();
+        ZkClient client = new ZkClient(connection);
+        try {
+            client.setEventQueue(5, EventOverflowPolicy.DROP_OLDEST);
+            client.createPersistent("/a", "0");
+            final CountDownLatch release = new CountDownLatch(1);
+            final List<Object> values = new CopyOnWriteArrayList<Object>();
+            client.subscribeDataChanges("/a", new IZkDataListener() {
+
+                @Override
+                public void handleDataChange(String dataPath, Object data) throws Exception {
+                    release.await();
+                    values.add(data);
+                }
+
+                @Override
+                public void handleDataDeleted(String dataPath) {
+                }
+            });
+            final AtomicInteger newSessions = new AtomicInteger();
+            client.subscribeStateChanges(new IZkStateListener() {
+
+                @Override
+                public void handleStateChanged(KeeperState state) {
+                }
+
+                @Override
+                public void handleNewSession() {
+                    newSessions.incrementAndGet();
+                }
+
+                @Override
+                public void handleSessionEstablishmentError(Throwable error) {
+                }
+            });
+            for (int i = 1; i <= 20; i++) {
+                client.writeData("/a", String.valueOf(i));
+            }
+            TestUtil.awaitDeliveredEvents(connection, client);
+            TestUtil.expireSession(client);
+            // the notifications sent after the expiry push the events of the client towards the head of the queue
+            for (int i = 21; i <= 40; i++) {
+                client.writeData("/a", String.valueOf(i));
+            }
+            TestUtil.awaitDeliveredEvents(connection, client);
+            Assertions.assertTrue(client.getDroppedEventCount() > 0);
+            release.countDown();
+
+            Assertions.assertEquals(1, (int) TestUtil.waitUntil(1, () -> newSessions.get(), TimeUnit.SECONDS, 5));
+            Assertions.assertTrue(TestUtil.waitUntil(true, () -> client.getLastWatchRecoveryMillis() >= 0, TimeUnit.SECONDS, 5));
+            client.writeData("/a", "last");
+            Assertions.assertEquals("last", TestUtil.waitUntil("last", () -> values.get(values.size() - 1), TimeUnit.SECONDS, 5));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    public void testBlockDoesNotStallWatchRecovery() throws Exception {
+        ZkServer zkServer = TestUtil.startZkServer("ZkEventThreadQueueTest", 4711);
+        ZkClient client = new ZkClient("localhost:4711", 30000);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = null;
+        try {
+            client.setEventQueue(1, EventOverflowPolicy.BLOCK);
+            final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+            IZkDataListener listener = new IZkDataListener() {
+
+                @Override
+                public void handleDataChange(String dataPath, Object data) {
+                    values.put(dataPath, data);
+                }
+
+                @Override
+                public void handleDataDeleted(String dataPath) {
+                }
+            };
+            for (int i = 0; i < 100; i++) {
+                client.createPersistent("/p" + i, "0");
+                client.subscribeDataChanges("/p" + i, listener);
+            }
+            // the notifications of the changes fill the queue while the watches are re-established
+            final ZkClient writingClient = zkServer.getZkClient();
+            writer = new Thread(() -> {
+                for (int i = 1; writing.get(); i++) {
+                    writingClient.writeData("/p" + i % 100, String.valueOf(i));
+                }
+            });
+            writer.start();
+            Thread.sleep(100);
+
+            TestUtil.expireSession(client);
+            Assertions.assertTrue(TestUtil.waitUntil(true, () -> client.getLastWatchRecoveryMillis() >= 0, TimeUnit.SECONDS, 20));
+            writing.set(false);
+            writer.join();
+            writingClient.writeData("/p7", "last");
+            Assertions.assertEquals("last", TestUtil.waitUntil("last", () -> values.get("/p7"), TimeUnit.SECONDS, 10));
+        } finally {
+            writing.set(false);
+            if (writer != null) {
+                writer.join();
+            }
+            client.close();
+            zkServer.shutdown();
+        }
+    }
+}
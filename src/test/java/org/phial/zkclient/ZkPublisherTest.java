@@ -0,0 +1,149 @@
+package org.phial.zkclient;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class ZkPublisherTest {
+
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    private static class RecordingSubscriber<T> implements Subscriber<ZkNodeState<T>> {
+
+        private final BlockingQueue<ZkNodeState<T>> _states = new LinkedBlockingQueue<ZkNodeState<T>>();
+        private volatile Subscription _subscription;
+        private volatile Throwable _error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            _subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ZkNodeState<T> state) {
+            _states.add(state);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            _error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            Assertions.fail("the stream does not complete");
+        }
+
+        ZkNodeState<T> next() throws InterruptedException {
+            return _states.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Waits until the event thread has delivered all events triggered so far.
+     */
+    private void awaitEvents() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        _client.createPersistent("/sync", true);
+        IZkDataListener listener = new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, Object data) {
+                latch.countDown();
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+            }
+        };
+        _client.subscribeDataChanges("/sync", listener);
+        _client.writeData("/sync", "sync");
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        _client.unsubscribeDataChanges("/sync", listener);
+    }
+
+    @Test
+    public void testChangesAreConflatedWithoutDemand() throws Exception {
+        _client.createPersistent("/a", "0");
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+        new ZkDataPublisher<String>(_client, "/a").subscribe(subscriber);
+        Assertions.assertNull(subscriber._states.poll(100, TimeUnit.MILLISECONDS));
+
+        subscriber._subscription.request(1);
+        Assertions.assertEquals("0", subscriber.next().getValue());
+
+        for (int i = 1; i <= 10; i++) {
+            _client.writeData("/a", String.valueOf(i));
+        }
+        awaitEvents();
+        Assertions.assertTrue(subscriber._states.isEmpty());
+
+        subscriber._subscription.request(5);
+        ZkNodeState<String> state = subscriber.next();
+        Assertions.assertEquals("/a", state.getPath());
+        Assertions.assertEquals("10", state.getValue());
+        Assertions.assertNull(subscriber._states.poll(100, TimeUnit.MILLISECONDS));
+
+        _client.delete("/a");
+        Assertions.assertFalse(subscriber.next().exists());
+    }
+
+    @Test
+    public void testCancelUnsubscribes() throws Exception {
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+        new ZkDataPublisher<String>(_client, "/a").subscribe(subscriber);
+        subscriber._subscription.request(Long.MAX_VALUE);
+        Assertions.assertFalse(subscriber.next().exists());
+        Assertions.assertEquals(1, _client.numberOfListeners());
+
+        subscriber._subscription.cancel();
+        Assertions.assertEquals(0, _client.numberOfListeners());
+        _client.createPersistent("/a", "1");
+        awaitEvents();
+        Assertions.assertTrue(subscriber._states.isEmpty());
+    }
+
+    @Test
+    public void testNonPositiveRequestFails() throws Exception {
+        RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+        new ZkDataPublisher<String>(_client, "/a").subscribe(subscriber);
+        subscriber._subscription.request(0);
+        Assertions.assertTrue(subscriber._error instanceof IllegalArgumentException);
+        Assertions.assertEquals(0, _client.numberOfListeners());
+    }
+
+    @Test
+    public void testChildChanges() throws Exception {
+        RecordingSubscriber<List<String>> subscriber = new RecordingSubscriber<List<String>>();
+        new ZkChildPublisher(_client, "/a").subscribe(subscriber);
+        subscriber._subscription.request(1);
+        Assertions.assertFalse(subscriber.next().exists());
+
+        _client.createPersistent("/a");
+        _client.createPersistent("/a/b");
+        _client.createPersistent("/a/c");
+        awaitEvents();
+        subscriber._subscription.request(1);
+        ZkNodeState<List<String>> state = subscriber.next();
+        Assertions.assertTrue(state.exists());
+        Assertions.assertEquals(2, state.getValue().size());
+    }
+}
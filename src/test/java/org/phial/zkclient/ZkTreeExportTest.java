@@ -0,0 +1,146 @@
+package org.phial.zkclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.serialize.BytesPushThroughSerializer;
+
+public class ZkTreeExportTest {
+
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _client = new ZkClient(new InMemoryConnection(), 5000, new BytesPushThroughSerializer());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+
+    @Test
+    public void testExportAndImport() throws IOException {
+        _client.createPersistent("/a", bytes("root"));
+        for (int i = 0; i < 5; i++) {
+            _client.createPersistent("/a/b" + i, bytes("b" + i));
+            for (int j = 0; j < 5; j++) {
+                _client.createPersistent("/a/b" + i + "/c" + j, j == 0 ? null : bytes("c" + j));
+            }
+        }
+        _client.createPersistent("/a1", bytes("not exported"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertEquals(31, ZkTreeExport.exportTree(_client, "/a", out, 3));
+
+        ZkTreeExport.Reader reader = new ZkTreeExport.Reader(new ByteArrayInputStream(out.toByteArray()));
+        ZkTreeExport.Node node = reader.next();
+        Assertions.assertEquals("", node.getPath());
+        Assertions.assertArrayEquals(bytes("root"), node.getData());
+        Set<String> seen = new HashSet<String>();
+        seen.add("");
+        while ((node = reader.next()) != null) {
+            String parent = node.getPath().substring(0, node.getPath().lastIndexOf('/'));
+            Assertions.assertTrue(seen.contains(parent), node.getPath() + " before its parent");
+            seen.add(node.getPath());
+        }
+        Assertions.assertEquals(31, seen.size());
+
+        Assertions.assertEquals(31, ZkTreeExport.importTree(_client, new ByteArrayInputStream(out.toByteArray()), "/copy/a"));
+        Assertions.assertArrayEquals(bytes("root"), (byte[]) _client.readData("/copy/a"));
+        Assertions.assertArrayEquals(bytes("b3"), (byte[]) _client.readData("/copy/a/b3"));
+        Assertions.assertArrayEquals(bytes("c4"), (byte[]) _client.readData("/copy/a/b3/c4"));
+        Assertions.assertNull(_client.readData("/copy/a/b3/c0"));
+        Assertions.assertFalse(_client.exists("/copy/a1"));
+    }
+
+    @Test
+    public void testImportInChunksIntoExistingPath() throws IOException {
+        final AtomicInteger multis = new AtomicInteger();
+        final AtomicInteger creates = new AtomicInteger();
+        final List<String> stats = new CopyOnWriteArrayList<String>();
+        _client.close();
+        _client = new ZkClient(new InMemoryConnection() {
+            @Override
+            public void multi(Iterable<Op> ops, AsyncCallback.MultiCallback cb, Object ctx) {
+                multis.incrementAndGet();
+                super.multi(ops, cb, ctx);
+            }
+
+            @Override
+            public void create(String path, byte[] data, List<ACL> acl, CreateMode mode, AsyncCallback.StringCallback cb, Object ctx) {
+                creates.incrementAndGet();
+                super.create(path, data, acl, mode, cb, ctx);
+            }
+
+            @Override
+            public void stat(String path, boolean watch, AsyncCallback.StatCallback cb, Object ctx) {
+                stats.add(path);
+                super.stat(path, watch, cb, ctx);
+            }
+        }, 5000, new BytesPushThroughSerializer());
+        _client.createPersistent("/a", bytes("root"));
+        for (int i = 0; i < 5; i++) {
+            _client.createPersistent("/a/b" + i, bytes("b" + i));
+            for (int j = 0; j < 5; j++) {
+                _client.createPersistent("/a/b" + i + "/c" + j, bytes("c" + j));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZkTreeExport.exportTree(_client, "/a", out);
+        _client.createPersistent("/copy/a", true);
+
+        Assertions.assertEquals(31, ZkTreeExport.importTree(_client, new ByteArrayInputStream(out.toByteArray()), "/copy/a", ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                ZkClient.DEFAULT_BATCH_SIZE, ZkPipeline.DEFAULT_MAX_IN_FLIGHT, 7));
+        Assertions.assertArrayEquals(bytes("c4"), (byte[]) _client.readData("/copy/a/b3/c4"));
+        Assertions.assertEquals(5, _client.countChildren("/copy/a"));
+        // one multi per chunk, none of them rolled back for a path which exists
+        Assertions.assertEquals(5, multis.get());
+        Assertions.assertEquals(0, creates.get());
+        // later chunks know the parents created or found by the earlier ones
+        Assertions.assertEquals(new HashSet<String>(stats).size(), stats.size());
+    }
+
+    @Test
+    public void testExportRoot() throws IOException {
+        _client.createPersistent("/a", bytes("a"));
+        _client.createPersistent("/a/b", bytes("b"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertEquals(3, ZkTreeExport.exportTree(_client, "/", out));
+
+        ZkTreeExport.importTree(_client, new ByteArrayInputStream(out.toByteArray()), "/copy");
+        Assertions.assertArrayEquals(bytes("b"), (byte[]) _client.readData("/copy/a/b"));
+    }
+
+    @Test
+    public void testExportMissingPath() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertEquals(0, ZkTreeExport.exportTree(_client, "/missing", out));
+        Assertions.assertNull(new ZkTreeExport.Reader(new ByteArrayInputStream(out.toByteArray())).next());
+    }
+
+    @Test
+    public void testInvalidInput() {
+        Assertions.assertThrows(IOException.class, () -> new ZkTreeExport.Reader(new ByteArrayInputStream(bytes("garbage"))));
+    }
+}
@@ -0,0 +1,76 @@
+package org.phial.zkclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ZkTreeWalkerTest {
+
+    private FaultInjectingConnection _connection;
+    private ZkClient _client;
+
+    @BeforeEach
+    public void setUp() {
+        _connection = new FaultInjectingConnection(new InMemoryConnection());
+        _client = new ZkClient(_connection);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                _client.createPersistent("/a/b" + i + "/c" + j, true);
+            }
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        _client.close();
+    }
+
+    @Test
+    public void testWalk() {
+        final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+        long visited = new ZkTreeWalker(_client).walk("/a", (path, stat, data) -> paths.add(path));
+        Assertions.assertEquals(111, visited);
+        Assertions.assertEquals(111, paths.size());
+        Assertions.assertEquals("/a", paths.get(0));
+        Assertions.assertTrue(paths.indexOf("/a/b7") < paths.indexOf("/a/b7/c3"));
+        Assertions.assertEquals(0, new ZkTreeWalker(_client).walk("/missing", (path, stat, data) -> Assertions.fail(path)));
+    }
+
+    @Test
+    public void testPathFilter() {
+        ZkTreeWalker walker = new ZkTreeWalker(_client);
+        walker.setPathFilter(path -> !path.equals("/a/b3"));
+        final List<String> paths = new ArrayList<String>();
+        Assertions.assertEquals(101, walker.walk("/a", (path, stat, data) -> paths.add(path)));
+        Assertions.assertTrue(paths.contains("/a/b3"));
+        Assertions.assertFalse(paths.contains("/a/b3/c0"));
+    }
+
+    @Test
+    public void testVisitorFailure() {
+        RuntimeException e = Assertions.assertThrows(RuntimeException.class, () -> new ZkTreeWalker(_client).walk("/a", (path, stat, data) -> {
+            if (path.equals("/a/b5")) {
+                throw new IOException("failed");
+            }
+        }));
+        Assertions.assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void testRequestsArePipelined() {
+        _connection.setDefaultLatency(FaultInjectingConnection.LatencyDistribution.fixed(5));
+        ZkTreeWalker walker = new ZkTreeWalker(_client);
+        walker.setParallelism(50);
+        long start = System.currentTimeMillis();
+        Assertions.assertEquals(111, walker.walk("/a", (path, stat, data) -> {
+        }));
+        // one request after the other would take 2 * 111 * 5ms
+        Assertions.assertTrue(System.currentTimeMillis() - start < 555, "walk was not pipelined");
+    }
+}
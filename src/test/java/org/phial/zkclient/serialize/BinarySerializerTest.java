@@ -0,0 +1,122 @@
+package org.phial.zkclient.serialize;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.exception.ZkMarshallingError;
+
+public class BinarySerializerTest {
+
+    public static class Endpoint {
+        private final String _host;
+        private final int _port;
+
+        public Endpoint(String host, int port) {
+            _host = host;
+            _port = port;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Endpoint && ((Endpoint) obj)._host.equals(_host) && ((Endpoint) obj)._port == _port;
+        }
+
+        @Override
+        public int hashCode() {
+            return _host.hashCode() * 31 + _port;
+        }
+    }
+
+    public static final BinaryCodec<Endpoint> ENDPOINT_CODEC = new BinaryCodec<Endpoint>() {
+        @Override
+        public void write(Endpoint value, BinaryOutput output) {
+            output.writeString(value._host);
+            output.writeVarInt(value._port);
+        }
+
+        @Override
+        public Endpoint read(BinaryInput input) {
+            return new Endpoint(input.readString(), input.readVarInt());
+        }
+    };
+
+    private final BinarySerializer _serializer = new BinarySerializer();
+
+    private Object roundTrip(Object value) {
+        return _serializer.deserialize(_serializer.serialize(value));
+    }
+
+    @Test
+    public void testPrimitives() {
+        Assertions.assertNull(roundTrip(null));
+        Assertions.assertEquals(true, roundTrip(true));
+        Assertions.assertEquals(false, roundTrip(false));
+        Assertions.assertEquals((byte) -7, roundTrip((byte) -7));
+        Assertions.assertEquals((short) 1234, roundTrip((short) 1234));
+        Assertions.assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        Assertions.assertEquals(-1, roundTrip(-1));
+        Assertions.assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        Assertions.assertEquals(Long.MIN_VALUE, roundTrip(Long.MIN_VALUE));
+        Assertions.assertEquals(1.5f, roundTrip(1.5f));
+        Assertions.assertEquals(Math.PI, roundTrip(Math.PI));
+        Assertions.assertEquals('€', roundTrip('€'));
+    }
+
+    @Test
+    public void testStrings() {
+        Assertions.assertEquals("", roundTrip(""));
+        Assertions.assertEquals("hello world", roundTrip("hello world"));
+        Assertions.assertEquals("grüße € 😀", roundTrip("grüße € 😀"));
+        byte[] bytes = { 1, 2, 3 };
+        Assertions.assertArrayEquals(bytes, (byte[]) roundTrip(bytes));
+    }
+
+    @Test
+    public void testCollections() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("list", Arrays.asList(1, 2L, "three", null));
+        map.put("set", new HashSet<Object>(Arrays.asList("a", "b")));
+        map.put("nested", new HashMap<String, Object>(map));
+        Assertions.assertEquals(map, roundTrip(map));
+    }
+
+    @Test
+    public void testCodec() {
+        _serializer.register(1, Endpoint.class, ENDPOINT_CODEC);
+        Endpoint endpoint = new Endpoint("localhost", 2181);
+        Assertions.assertEquals(endpoint, roundTrip(endpoint));
+        Assertions.assertEquals(Arrays.asList(endpoint, endpoint), roundTrip(Arrays.asList(endpoint, endpoint)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> _serializer.register(1, String.class, null));
+
+        // the codec id is required for reading
+        byte[] bytes = _serializer.serialize(endpoint);
+        Assertions.assertThrows(ZkMarshallingError.class, () -> new BinarySerializer().deserialize(bytes));
+    }
+
+    @Test
+    public void testUnknownType() {
+        Assertions.assertThrows(ZkMarshallingError.class, () -> _serializer.serialize(new Object()));
+    }
+
+    @Test
+    public void testCorruptData() {
+        byte[] bytes = _serializer.serialize(Arrays.asList("a", "b"));
+        Assertions.assertThrows(ZkMarshallingError.class, () -> _serializer.deserialize(Arrays.copyOf(bytes, bytes.length - 1)));
+        Assertions.assertThrows(ZkMarshallingError.class, () -> _serializer.deserialize(new byte[] { 99 }));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < 20; i++) {
+            map.put("key" + i, (long) i);
+        }
+        SerializableSerializer serializableSerializer = new SerializableSerializer();
+        Assertions.assertTrue(_serializer.serialize(map).length * 3 < serializableSerializer.serialize(new HashMap<String, Object>(map)).length);
+        Assertions.assertTrue(_serializer.serialize("hello").length < serializableSerializer.serialize("hello").length);
+    }
+}
@@ -0,0 +1,62 @@
+package org.phial.zkclient.serialize;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.phial.zkclient.exception.ZkMarshallingError;
+
+public class CompressingSerializerTest {
+
+    private final CompressingSerializer _serializer = new CompressingSerializer(new SerializableSerializer(), 100);
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testLargePayloadIsCompressed() {
+        String data = repeat("some config value;", 10000);
+        byte[] bytes = _serializer.serialize(data);
+        Assertions.assertTrue(bytes.length < new SerializableSerializer().serialize(data).length / 10);
+        Assertions.assertEquals(data, _serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void testSmallPayloadIsStored() {
+        byte[] bytes = _serializer.serialize("small");
+        Assertions.assertEquals(new SerializableSerializer().serialize("small").length + 1, bytes.length);
+        Assertions.assertEquals("small", _serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void testIncompressiblePayloadIsStored() {
+        CompressingSerializer serializer = new CompressingSerializer(new BytesPushThroughSerializer(), 100);
+        byte[] data = new byte[10000];
+        new Random().nextBytes(data);
+        byte[] bytes = serializer.serialize(data);
+        Assertions.assertEquals(data.length + 1, bytes.length);
+        Assertions.assertArrayEquals(data, (byte[]) serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void testReadsUncompressedData() {
+        byte[] plain = new SerializableSerializer().serialize("written without compression");
+        Assertions.assertEquals("written without compression", _serializer.deserialize(plain));
+
+        BinarySerializer binarySerializer = new BinarySerializer();
+        CompressingSerializer serializer = new CompressingSerializer(binarySerializer);
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), serializer.deserialize(binarySerializer.serialize(Arrays.asList(1, 2, 3))));
+    }
+
+    @Test
+    public void testCorruptData() {
+        byte[] bytes = _serializer.serialize(repeat("abc", 1000));
+        Assertions.assertThrows(ZkMarshallingError.class, () -> _serializer.deserialize(Arrays.copyOf(bytes, bytes.length / 2)));
+    }
+}
@@ -0,0 +1,55 @@
+package org.phial.zkclient.serialize;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares payload size and throughput of the {@link ZkSerializer} implementations for a typical config node. This is
+ * not run as part of the tests, start it with <code>main</code>.
+ */
+public class SerializerBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 50000;
+    private static final int ITERATIONS = 200000;
+
+    public static void main(String[] args) {
+        Map<String, Object> value = createValue();
+        benchmark("SerializableSerializer", new SerializableSerializer(), value);
+        benchmark("BinarySerializer", new BinarySerializer(), value);
+    }
+
+    private static Map<String, Object> createValue() {
+        Map<String, Object> value = new HashMap<String, Object>();
+        List<String> hosts = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            hosts.add("host-" + i + ".example.com:2181");
+        }
+        value.put("hosts", hosts);
+        value.put("timeout", 30000);
+        value.put("enabled", Boolean.TRUE);
+        value.put("version", 42L);
+        value.put("name", "routing-table");
+        return value;
+    }
+
+    private static void benchmark(String name, ZkSerializer serializer, Object value) {
+        byte[] bytes = serializer.serialize(value);
+        run(serializer, value, bytes, WARMUP_ITERATIONS);
+
+        long start = System.nanoTime();
+        long sink = run(serializer, value, bytes, ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-24s %5d bytes %10.0f round trips/s (%d)", name, bytes.length, ITERATIONS / (elapsed / 1e9), sink));
+    }
+
+    private static long run(ZkSerializer serializer, Object value, byte[] bytes, int iterations) {
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += serializer.serialize(value).length;
+            sink += serializer.deserialize(bytes).hashCode();
+        }
+        return sink;
+    }
+}